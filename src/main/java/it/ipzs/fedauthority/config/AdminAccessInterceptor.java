@@ -0,0 +1,50 @@
+package it.ipzs.fedauthority.config;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import it.ipzs.fedauthority.util.StringUtil;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Guards the {@code /admin} endpoints, which expose the federation hosts contacted
+ * and the state of the caches: they require {@code Authorization: Bearer <admin.api-key>}
+ * and answer {@code 404} while no key is configured.
+ */
+@Component
+@Slf4j
+public class AdminAccessInterceptor implements HandlerInterceptor {
+
+	private static final String BEARER = "Bearer ";
+
+	@Value("${admin.api-key:}")
+	private String apiKey;
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		if (StringUtil.isBlank(apiKey)) {
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return false;
+		}
+
+		String authorization = request.getHeader(HttpHeaders.AUTHORIZATION);
+		if (authorization == null || !authorization.startsWith(BEARER) || !MessageDigest.isEqual(
+				authorization.substring(BEARER.length()).getBytes(StandardCharsets.UTF_8),
+				apiKey.getBytes(StandardCharsets.UTF_8))) {
+			log.warn("unauthorized request of {} from {}", request.getRequestURI(), request.getRemoteAddr());
+			response.setHeader(HttpHeaders.WWW_AUTHENTICATE, "Bearer");
+			response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+			return false;
+		}
+
+		return true;
+	}
+
+}
@@ -0,0 +1,20 @@
+package it.ipzs.fedauthority.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import lombok.RequiredArgsConstructor;
+
+@Configuration
+@RequiredArgsConstructor
+public class AdminWebConfig implements WebMvcConfigurer {
+
+	private final AdminAccessInterceptor adminAccessInterceptor;
+
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		registry.addInterceptor(adminAccessInterceptor).addPathPatterns("/admin", "/admin/**");
+	}
+
+}
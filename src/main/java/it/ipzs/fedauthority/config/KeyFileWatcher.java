@@ -0,0 +1,134 @@
+package it.ipzs.fedauthority.config;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Watches the directories holding the signing key, the public JWKS and the revoked
+ * JWKS and asks {@link KeyStoreConfig} to reload its snapshot when one of them changes.
+ */
+@Component
+@Slf4j
+public class KeyFileWatcher {
+
+	@Value("${keys.watch.enabled:true}")
+	private boolean enabled;
+
+	// editors and key rotation scripts usually touch a file several times in a row
+	@Value("${keys.watch.debounce-millis:500}")
+	private long debounceMillis;
+
+	private WatchService watchService;
+
+	private Thread worker;
+
+	public synchronized void start(KeyStoreConfig keyConfig, String... files) {
+		if (!enabled) {
+			log.info("key file watcher disabled");
+			return;
+		}
+		if (worker != null) {
+			return;
+		}
+
+		Set<Path> watchedFiles = new HashSet<>();
+		Set<Path> watchedDirs = new HashSet<>();
+		for (String file : files) {
+			Path path = Paths.get(file).toAbsolutePath().normalize();
+			watchedFiles.add(path);
+			if (path.getParent() != null) {
+				watchedDirs.add(path.getParent());
+			}
+		}
+
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+			for (Path dir : watchedDirs) {
+				dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+				log.debug("watching key directory {}", dir);
+			}
+		} catch (IOException e) {
+			log.error("cannot start key file watcher, hot reload disabled", e);
+			return;
+		}
+
+		worker = new Thread(() -> watch(keyConfig, watchedFiles), "key-file-watcher");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	@PreDestroy
+	public synchronized void stop() {
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				log.warn("error closing key file watcher", e);
+			}
+		}
+		if (worker != null) {
+			worker.interrupt();
+			worker = null;
+		}
+	}
+
+	private void watch(KeyStoreConfig keyConfig, Set<Path> watchedFiles) {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				WatchKey key = watchService.take();
+				boolean changed = drain(key, watchedFiles);
+
+				// collapse bursts of events into a single reload
+				WatchKey next;
+				while ((next = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+					changed |= drain(next, watchedFiles);
+				}
+
+				if (changed) {
+					keyConfig.reload();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			log.debug("key file watcher closed");
+		}
+	}
+
+	private boolean drain(WatchKey key, Set<Path> watchedFiles) {
+		boolean changed = false;
+		Path dir = (Path) key.watchable();
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				changed = true;
+				continue;
+			}
+			Path file = dir.resolve((Path) event.context()).normalize();
+			if (watchedFiles.contains(file)) {
+				log.debug("key file event {} on {}", event.kind().name(), file);
+				changed = true;
+			}
+		}
+		key.reset();
+
+		return changed;
+	}
+
+}
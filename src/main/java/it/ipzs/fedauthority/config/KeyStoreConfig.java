@@ -18,6 +18,8 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.jwk.*;
@@ -29,6 +31,9 @@ import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
 
 import it.ipzs.fedauthority.oidclib.OidWrapper;
+import it.ipzs.fedauthority.service.ResolveResponseCache;
+import it.ipzs.fedauthority.service.SubordinateStatementCache;
+import it.ipzs.fedauthority.service.TrustMarkResponseCache;
 import lombok.extern.slf4j.Slf4j;
 
 @Component
@@ -59,6 +64,24 @@ public class KeyStoreConfig implements CommandLineRunner {
 	@Autowired
 	private OidWrapper oidcWrapper;
 
+	@Autowired
+	private KeyFileWatcher keyFileWatcher;
+
+	@Autowired
+	private SubordinateStatementCache statementCache;
+
+	@Autowired
+	private ResolveResponseCache resolveCache;
+
+	@Autowired
+	private TrustMarkResponseCache trustMarkCache;
+
+	private final AtomicReference<SigningKeySnapshot> snapshot = new AtomicReference<>();
+
+	private final AtomicLong reloadCount = new AtomicLong();
+
+	private final AtomicLong reloadFailureCount = new AtomicLong();
+
 	@Override
 	public void run(String... args) throws Exception {
 		log.debug("Running KeyStore...");
@@ -111,6 +134,9 @@ public class KeyStoreConfig implements CommandLineRunner {
 			oidcWrapper.reloadKeys();
 		}
 
+		reload();
+		keyFileWatcher.start(this, keyFilePath, publicKeyFilePath, revokedKeysFilePath);
+
 	}
 
 	private JWK generateEcSigningKey() {
@@ -176,57 +202,135 @@ public class KeyStoreConfig implements CommandLineRunner {
         }
     }
 
-	public JWK loadKey() {
+	/**
+	 * Reads the key files and atomically publishes a new snapshot. On failure the
+	 * previous snapshot, if any, stays active.
+	 *
+	 * @return {@code true} if the new snapshot has been published
+	 */
+	public boolean reload() {
+		try {
+			JWK signingKey = readKey();
+			JWKSet publicJwks = readJWKSIfExists(publicKeyFilePath);
+			JWKSet revokedJwks = readJWKSIfExists(revokedKeysFilePath);
 
-		if (new File(keyFilePath).exists()) {
-			Path path = Paths.get(keyFilePath);
+			SigningKeySnapshot previous = snapshot.getAndSet(
+					new SigningKeySnapshot(signingKey, publicJwks, revokedJwks));
+			reloadCount.incrementAndGet();
 
-			try {
-				String read = Files.readAllLines(path).get(0);
-				return JWK.parse(read);
-			} catch (IOException | ParseException e) {
-				log.error("", e);
+			String previousKid = previous != null ? previous.getActiveKid() : null;
+			if (previousKid != null && !previousKid.equals(signingKey.getKeyID())) {
+				log.info("signing key rotated: {} -> {}", previousKid, signingKey.getKeyID());
+			} else {
+				log.debug("signing keys loaded - active kid {}", signingKey.getKeyID());
 			}
+
+			// the cached statements are signed with the previous key
+			if (previous != null && !signingKey.equals(previous.getSigningKey())) {
+				statementCache.clear();
+				resolveCache.clear();
+				trustMarkCache.clear();
+			}
+
+			return true;
+		} catch (RuntimeException e) {
+			reloadFailureCount.incrementAndGet();
+			log.error("cannot reload signing keys, keeping the current ones", e);
+
+			return false;
 		}
+	}
 
-		throw new RuntimeException("cannot load key from file");
+	public SigningKeySnapshot getSnapshot() {
+		SigningKeySnapshot current = snapshot.get();
+		if (current == null) {
+			synchronized (this) {
+				current = snapshot.get();
+				if (current == null && reload()) {
+					current = snapshot.get();
+				}
+			}
+		}
+		if (current == null) {
+			throw new RuntimeException("cannot load key from file");
+		}
+
+		return current;
+	}
+
+	public String getActiveKid() {
+		SigningKeySnapshot current = snapshot.get();
+
+		return current != null ? current.getActiveKid() : null;
+	}
+
+	public long getReloadCount() {
+		return reloadCount.get();
+	}
 
+	public long getReloadFailureCount() {
+		return reloadFailureCount.get();
+	}
+
+	public JWK loadKey() {
+		return getSnapshot().getSigningKey();
 	}
 
 	public JWKSet loadJWKS() {
-		if (new File(publicKeyFilePath).exists()) {
-			Path path = Paths.get(publicKeyFilePath);
+		JWKSet jwks = getSnapshot().getPublicJwks();
+		if (jwks == null) {
+			throw new RuntimeException("cannot load key from file");
+		}
+
+		return jwks;
+	}
+
+	public JWKSet loadRevokedJWKS() {
+		JWKSet jwks = getSnapshot().getRevokedJwks();
+		if (jwks == null) {
+			throw new RuntimeException("cannot load key from file");
+		}
+
+		return jwks;
+	}
+
+	public List<JWK> loadRevokedKeys() {
+		JWKSet tmp = loadRevokedJWKS();
+
+		return tmp.getKeys();
+	}
+
+	private JWK readKey() {
+
+		if (new File(keyFilePath).exists()) {
+			Path path = Paths.get(keyFilePath);
 
 			try {
 				String read = Files.readAllLines(path).get(0);
-				return JWKSet.parse(read);
+				return JWK.parse(read);
 			} catch (IOException | ParseException e) {
 				log.error("", e);
 			}
 		}
 
 		throw new RuntimeException("cannot load key from file");
+
 	}
 
-	public JWKSet loadRevokedJWKS() {
-		if (new File(revokedKeysFilePath).exists()) {
-			Path path = Paths.get(revokedKeysFilePath);
+	private JWKSet readJWKSIfExists(String filePath) {
+		if (new File(filePath).exists()) {
+			Path path = Paths.get(filePath);
 
 			try {
 				String read = Files.readAllLines(path).get(0);
 				return JWKSet.parse(read);
 			} catch (IOException | ParseException e) {
 				log.error("", e);
+				throw new RuntimeException("cannot load key from file " + filePath);
 			}
 		}
 
-		throw new RuntimeException("cannot load key from file");
-	}
-
-	public List<JWK> loadRevokedKeys() {
-		JWKSet tmp = loadRevokedJWKS();
-
-		return tmp.getKeys();
+		return null;
 	}
 
 }
@@ -0,0 +1,180 @@
+package it.ipzs.fedauthority.config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+
+import it.ipzs.fedauthority.model.OnboardEntity;
+import it.ipzs.fedauthority.model.RoleEnum;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Creates and verifies on startup the indexes of the onboarded entities collection,
+ * then checks with {@code explain} that the hot queries do not scan the collection.
+ * <br/>
+ * {@code mongo.indexes.explain-check} is one of {@code fail} (startup is aborted),
+ * {@code warn} or {@code off}.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class MongoIndexManager implements CommandLineRunner {
+
+	static final String URL_INDEX = "url_unique";
+
+	static final String ACTIVE_ROLE_INDEX = "active_role";
+
+	static final String ACTIVE_TRUST_MARK_INDEX = "active_trust_mark";
+
+	private final MongoTemplate mongoTemplate;
+
+	@Value("${mongo.indexes.enabled:true}")
+	private boolean enabled;
+
+	@Value("${mongo.indexes.explain-check:warn}")
+	private String explainCheck;
+
+	@Override
+	public void run(String... args) {
+		if (!enabled) {
+			log.info("mongo index management disabled");
+			return;
+		}
+
+		ensureIndexes();
+
+		if (!"off".equalsIgnoreCase(explainCheck)) {
+			checkQueryPlans();
+		}
+	}
+
+	private void ensureIndexes() {
+		IndexOperations indexOps = mongoTemplate.indexOps(OnboardEntity.class);
+
+		List<Index> indexes = List.of(
+				// the lookups by url, behind /fetch, /resolve, /trust_mark, /status and /status/batch
+				new Index().on("url", Sort.Direction.ASC).unique().named(URL_INDEX),
+				// /list, optionally filtered by entity_type and paged by _id
+				new Index().on("active", Sort.Direction.ASC).on("role", Sort.Direction.ASC)
+						.on("_id", Sort.Direction.ASC).named(ACTIVE_ROLE_INDEX),
+				// /list filtered by trust_marked and trust_mark_id
+				new Index().on("active", Sort.Direction.ASC).on("trustMark", Sort.Direction.ASC)
+						.named(ACTIVE_TRUST_MARK_INDEX));
+
+		for (Index index : indexes) {
+			try {
+				indexOps.ensureIndex(index);
+			} catch (RuntimeException e) {
+				// e.g. duplicated urls prevent the unique index
+				handle("cannot create index " + index.getIndexKeys().toJson() + ": " + e.getMessage(), e);
+			}
+		}
+
+		Set<String> existing = indexOps.getIndexInfo().stream()
+				.map(IndexInfo::getName)
+				.collect(Collectors.toSet());
+
+		for (String name : List.of(URL_INDEX, ACTIVE_ROLE_INDEX, ACTIVE_TRUST_MARK_INDEX)) {
+			if (!existing.contains(name)) {
+				handle("missing index " + name + " on " + collectionName(), null);
+			}
+		}
+
+		log.info("mongo indexes on {}: {}", collectionName(), existing);
+	}
+
+	private void checkQueryPlans() {
+		MongoCollection<Document> collection = mongoTemplate.getCollection(collectionName());
+
+		// the lists are read in _id order, their validator from the greatest _id
+		Bson byId = Sorts.ascending("_id");
+
+		List<HotQuery> hotQueries = List.of(
+				new HotQuery("find by url", Filters.eq("url", "https://example.org"), Projections.include("url"), null),
+				new HotQuery("status batch", Filters.in("url", "https://example.org", "https://example.com"),
+						Projections.include("url"), null),
+				new HotQuery("list", Filters.eq("active", true), Projections.include("url"), byId),
+				new HotQuery("list by entity_type",
+						Filters.and(Filters.eq("active", true), Filters.eq("role", RoleEnum.PROVIDER.name())),
+						Projections.include("url"), byId),
+				new HotQuery("list by trust_mark_id",
+						Filters.and(Filters.eq("active", true), Filters.eq("trustMark", "https://example.org/tm")),
+						Projections.include("url"), byId),
+				new HotQuery("list validator", Filters.eq("active", true), Projections.include("_id"),
+						Sorts.descending("_id")));
+
+		for (HotQuery hotQuery : hotQueries) {
+			try {
+				Document plan = collection.find(hotQuery.filter())
+						.projection(hotQuery.projection())
+						.sort(hotQuery.sort())
+						.explain();
+
+				Document queryPlanner = plan.get("queryPlanner", Document.class);
+				Object winningPlan = queryPlanner != null ? queryPlanner.get("winningPlan") : null;
+
+				List<String> stages = new ArrayList<>();
+				collectStages(winningPlan, stages);
+
+				if (stages.contains("COLLSCAN")) {
+					handle("query " + hotQuery.name() + " would do a COLLSCAN on " + collectionName(), null);
+				} else {
+					log.debug("query {} plan {}", hotQuery.name(), stages);
+				}
+			} catch (RuntimeException e) {
+				log.warn("cannot explain query {}: {}", hotQuery.name(), e.getMessage());
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void collectStages(Object plan, List<String> stages) {
+		if (plan instanceof Document doc) {
+			Object stage = doc.get("stage");
+			if (stage != null) {
+				stages.add(stage.toString());
+			}
+			for (Object value : doc.values()) {
+				collectStages(value, stages);
+			}
+		} else if (plan instanceof List<?> list) {
+			for (Object value : (List<Object>) list) {
+				collectStages(value, stages);
+			}
+		}
+	}
+
+	private void handle(String message, Exception cause) {
+		if ("fail".equalsIgnoreCase(explainCheck)) {
+			throw new IllegalStateException(message, cause);
+		}
+
+		log.warn(message);
+	}
+
+	private String collectionName() {
+		return mongoTemplate.getCollectionName(OnboardEntity.class);
+	}
+
+	private record HotQuery(String name, Bson filter, Bson projection, Bson sort) {
+	}
+
+}
@@ -0,0 +1,63 @@
+package it.ipzs.fedauthority.config;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+
+/**
+ * Immutable view of the federation signing material loaded from the key files.
+ * A new instance is built on every (re)load and published atomically by
+ * {@link KeyStoreConfig}, so readers never observe a half-updated key set.
+ */
+public final class SigningKeySnapshot {
+
+	private final JWK signingKey;
+	private final JWKSet publicJwks;
+	private final JWKSet revokedJwks;
+	private final Instant loadedAt;
+
+	public SigningKeySnapshot(JWK signingKey, JWKSet publicJwks, JWKSet revokedJwks) {
+		this.signingKey = signingKey;
+		this.publicJwks = publicJwks;
+		this.revokedJwks = revokedJwks;
+		this.loadedAt = Instant.now();
+	}
+
+	public JWK getSigningKey() {
+		return signingKey;
+	}
+
+	public String getActiveKid() {
+		return signingKey != null ? signingKey.getKeyID() : null;
+	}
+
+	/**
+	 * @return the public JWKS, or {@code null} if the file was missing at load time
+	 */
+	public JWKSet getPublicJwks() {
+		return publicJwks;
+	}
+
+	/**
+	 * @return the revoked JWKS, or {@code null} if the file was missing at load time
+	 */
+	public JWKSet getRevokedJwks() {
+		return revokedJwks;
+	}
+
+	public List<JWK> getRevokedKeys() {
+		if (revokedJwks == null) {
+			return Collections.emptyList();
+		}
+
+		return revokedJwks.getKeys();
+	}
+
+	public Instant getLoadedAt() {
+		return loadedAt;
+	}
+
+}
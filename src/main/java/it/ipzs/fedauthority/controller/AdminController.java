@@ -0,0 +1,77 @@
+package it.ipzs.fedauthority.controller;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import it.ipzs.fedauthority.config.KeyStoreConfig;
+import it.ipzs.fedauthority.oidclib.OidWrapper;
+import it.ipzs.fedauthority.oidclib.helper.EntityHelper;
+import it.ipzs.fedauthority.oidclib.helper.FederationHttpClient;
+import it.ipzs.fedauthority.oidclib.model.ResolutionBudget;
+import it.ipzs.fedauthority.oidclib.util.SharedInstance;
+import it.ipzs.fedauthority.service.ResolveResponseCache;
+import it.ipzs.fedauthority.service.SubordinateStatementCache;
+import it.ipzs.fedauthority.service.SubordinateUrlFilter;
+import it.ipzs.fedauthority.service.TrustMarkResponseCache;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Operational information about the signing keys, the caches and the outbound
+ * federation requests.
+ * <br/>
+ * Reserved to the operators, see {@link it.ipzs.fedauthority.config.AdminAccessInterceptor}.
+ */
+@RestController
+@RequestMapping("/admin")
+@RequiredArgsConstructor
+public class AdminController {
+
+	private final KeyStoreConfig keyConfig;
+
+	private final SubordinateStatementCache statementCache;
+
+	private final SubordinateUrlFilter urlFilter;
+
+	private final ResolveResponseCache resolveCache;
+
+	private final TrustMarkResponseCache trustMarkCache;
+
+	private final OidWrapper oidWrapper;
+
+	@GetMapping(value = "/stats", produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<Map<String, Object>> stats() {
+		Map<String, Object> result = new LinkedHashMap<>();
+
+		Map<String, Object> keys = new LinkedHashMap<>();
+		keys.put("active_kid", keyConfig.getActiveKid());
+		keys.put("reload_count", keyConfig.getReloadCount());
+		keys.put("reload_failure_count", keyConfig.getReloadFailureCount());
+		result.put("keys", keys);
+
+		result.put("fetch_cache", statementCache.getStats());
+		result.put("subordinate_url_filter", urlFilter.getStats());
+		result.put("resolve_cache", resolveCache.getStats());
+		result.put("trust_mark_response_cache", trustMarkCache.getStats());
+		result.put("outbound_http", FederationHttpClient.getInstance().getStats());
+		result.putAll(SharedInstance.getAllStats());
+		result.put("trust_chain_refresher", oidWrapper.getTrustChainRefresherStats());
+		result.put("stale_trust_chains", oidWrapper.getTrustChainRevalidatorStats());
+		result.put("trust_chain_builds", oidWrapper.getTrustChainBuildStats());
+		result.put("entity_downloads", EntityHelper.getDownloadStats());
+		result.put("resolution_budget", ResolutionBudget.getStats());
+
+		return ResponseEntity.ok(result);
+	}
+
+	@GetMapping(value = "/circuit-breakers", produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<Map<String, Object>> circuitBreakers() {
+		return ResponseEntity.ok(FederationHttpClient.getInstance().getCircuitBreakers());
+	}
+
+}
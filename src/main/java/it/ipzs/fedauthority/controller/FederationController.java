@@ -1,25 +1,35 @@
 package it.ipzs.fedauthority.controller;
 
-import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import com.google.gson.Gson;
 
+import it.ipzs.fedauthority.dto.SignedStatement;
+import it.ipzs.fedauthority.dto.SubordinateFilter;
+import it.ipzs.fedauthority.dto.SubordinatePage;
+import it.ipzs.fedauthority.dto.TrustMarkStatusRequest;
+import it.ipzs.fedauthority.model.RoleEnum;
 import it.ipzs.fedauthority.service.HistoricalJwksService;
 import it.ipzs.fedauthority.service.OnboardEntityService;
 import it.ipzs.fedauthority.service.TrustMarkService;
+import it.ipzs.fedauthority.util.HttpCacheSupport;
 import it.ipzs.fedauthority.util.StringUtil;
-import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
@@ -32,142 +42,145 @@ import lombok.extern.slf4j.Slf4j;
 @RequiredArgsConstructor
 public class FederationController {
 
+	private static final MediaType ENTITY_STATEMENT_JWT = new MediaType("application", "entity-statement+jwt");
+
+	private static final MediaType JWK_SET_JWT = new MediaType("application", "jwk-set+jwt");
+
+	private static final MediaType TRUST_MARK_JWT = new MediaType("application", "trust-mark+jwt");
+
+	private static final MediaType RESOLVE_RESPONSE_JWT = new MediaType("application", "resolve-response+jwt");
+
 	private final OnboardEntityService onboardService;
 
 	private final HistoricalJwksService hjService;
 
 	private final TrustMarkService tmService;
 
+	private final HttpCacheSupport httpCache;
+
+	@Value("${cache.http.list-max-age-seconds:60}")
+	private long listMaxAgeSeconds;
+
 	private Gson gson = new Gson();
 
+	/**
+	 * Without {@code cursor} and {@code limit} the whole list is streamed from the
+	 * database cursor; with them a page is returned and, if there are more results,
+	 * the next one is linked by a {@code Link: <...>; rel="next"} header.
+	 * <br/>
+	 * Both carry an ETag. The weak ETag of the streamed list is computed from a count
+	 * and the greatest id of the matching entities, without reading the list; on an
+	 * {@code If-None-Match} match {@code 304} is sent and the list is not read at all.
+	 */
 	@GetMapping(value = "/list", produces = MediaType.APPLICATION_JSON_VALUE)
-	public ResponseEntity<List<String>> listSubordinates() {
-		log.debug("requested list subordinates");
-		List<String> subordinates = onboardService.listSubordinates();
-		log.debug("result list subordinates: {}", subordinates);
-		return ResponseEntity.ok(subordinates);
+	public ResponseEntity<?> listSubordinates(@RequestParam(name = "entity_type", required = false) String entityType,
+			@RequestParam(name = "trust_marked", required = false) Boolean trustMarked,
+			@RequestParam(name = "trust_mark_id", required = false) String trustMarkId,
+			@RequestParam(required = false) String cursor,
+			@RequestParam(required = false) Integer limit, WebRequest request) {
+		log.debug("requested list subordinates - entity_type {} - trust_marked {} - trust_mark_id {}", entityType,
+				trustMarked, trustMarkId);
+		SubordinateFilter filter = new SubordinateFilter();
+		filter.setTrustMarked(trustMarked);
+		filter.setTrustMarkId(StringUtil.isBlank(trustMarkId) ? null : trustMarkId);
+		if (!StringUtil.isBlank(entityType)) {
+			try {
+				filter.setEntityType(RoleEnum.of(entityType));
+			} catch (IllegalArgumentException e) {
+				return error(HttpStatus.BAD_REQUEST, "invalid_request");
+			}
+		}
+
+		if (cursor == null && limit == null) {
+			// sets the ETag header, on a match the status too
+			if (request.checkNotModified(onboardService.subordinatesEtag(filter))) {
+				return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+						.cacheControl(httpCache.cacheControl(listMaxAgeSeconds))
+						.build();
+			}
+
+			StreamingResponseBody body = out -> onboardService.writeSubordinates(filter, out);
+
+			return ResponseEntity.ok()
+					.contentType(MediaType.APPLICATION_JSON)
+					.cacheControl(httpCache.cacheControl(listMaxAgeSeconds))
+					.body(body);
+		}
+
+		SubordinatePage page;
+		try {
+			page = onboardService.listSubordinates(filter, cursor, limit);
+		} catch (IllegalArgumentException e) {
+			return error(HttpStatus.BAD_REQUEST, "invalid_request");
+		}
+
+		String body = this.gson.toJson(page.getUrls());
+		ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+				.contentType(MediaType.APPLICATION_JSON)
+				.eTag(SignedStatement.etag(body))
+				.cacheControl(httpCache.cacheControl(listMaxAgeSeconds));
+		if (page.getNextCursor() != null) {
+			String next = ServletUriComponentsBuilder.fromCurrentRequest()
+					.replaceQueryParam("cursor", page.getNextCursor())
+					.build()
+					.toUriString();
+			builder.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+		}
+
+		return builder.body(body);
 	}
 
 	@GetMapping(value = "/fetch")
-	public void fetch(@RequestParam(required = true) String iss, @RequestParam(required = false) String sub,
-			HttpServletResponse response) {
+	public ResponseEntity<String> fetch(@RequestParam(required = true) String iss,
+			@RequestParam(required = false) String sub) {
 		log.debug("requested fetch - iss {} - sub {}", iss, sub);
 		try {
-			String entityStatement = onboardService.fetchByIssAndSub(iss, sub);
+			SignedStatement entityStatement = onboardService.fetchByIssAndSub(iss, sub);
 			if (entityStatement != null) {
-				PrintWriter writer = response.getWriter();
-				writer.print(entityStatement);
-				writer.flush();
-
-				response.setContentType("application/entity-statement+jwt");
-				response.setStatus(HttpServletResponse.SC_OK);
+				return httpCache.ok(entityStatement, ENTITY_STATEMENT_JWT);
 			} else {
-				response.setContentType(MediaType.APPLICATION_JSON_VALUE);
-				Map<String, String> responseBody = new HashMap<>();
-				responseBody.put("error", "not_found");
-				String bodyString = this.gson.toJson(responseBody);
-
-				PrintWriter writer = response.getWriter();
-				writer.print(bodyString);
-				writer.flush();
-
-				response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+				return error(HttpStatus.NOT_FOUND, "not_found");
 			}
 		} catch (RuntimeException e) {
-			response.setContentType(MediaType.APPLICATION_JSON_VALUE);
-			Map<String, String> responseBody = new HashMap<>();
-			responseBody.put("error", "invalid_issuer");
-			String bodyString = this.gson.toJson(responseBody);
-			PrintWriter writer;
-			try {
-				writer = response.getWriter();
-				writer.print(bodyString);
-				writer.flush();
-			} catch (IOException e1) {
-				log.error("", e);
-			}
-
-			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-		} catch (IOException e) {
-			log.error("", e);
+			return error(HttpStatus.NOT_FOUND, "invalid_issuer");
 		}
 	}
 
 	@GetMapping("/historical-jwks")
-	public void historicaJwks(HttpServletResponse response) {
+	public ResponseEntity<String> historicaJwks() {
 		log.debug("requested historical jwks");
-		String result = hjService.generateHistoricalJwksResponse();
-
-		PrintWriter writer;
-		try {
-			writer = response.getWriter();
-
-			writer.print(result);
-			writer.flush();
-
-		} catch (IOException e) {
-			log.error("", e);
+		SignedStatement result = hjService.getHistoricalJwks();
+		if (result == null) {
+			return error(HttpStatus.INTERNAL_SERVER_ERROR, "server_error");
 		}
-		response.setContentType("application/jwk-set+jwt");
-		response.setStatus(HttpServletResponse.SC_OK);
+
+		return httpCache.ok(result, JWK_SET_JWT);
 	}
 
 	@PostMapping("/resolve")
-	public void resolve(@RequestParam String sub, @RequestParam String type, @RequestParam String anchor,
-			HttpServletResponse response) {
-		String result = onboardService.resolveBySubTypeAndAnchor(sub, type, anchor);
-		if (!StringUtil.isBlank(result)) {
-			PrintWriter writer;
-			try {
-				writer = response.getWriter();
-				writer.print(result);
-				writer.flush();
-			} catch (IOException e) {
-				log.error("", e);
-			}
-
-			response.setContentType("application/resolve-response+jwt");
-			response.setStatus(HttpServletResponse.SC_OK);
-		} else {
-			response.setContentType(MediaType.APPLICATION_JSON_VALUE);
-			Map<String, String> responseBody = new HashMap<>();
-			responseBody.put("error", "not_found");
-			String bodyString = this.gson.toJson(responseBody);
-
-			PrintWriter writer;
-			try {
-				writer = response.getWriter();
-				writer.print(bodyString);
-				writer.flush();
-
-			} catch (IOException e) {
-				log.error("", e);
-			}
+	public ResponseEntity<String> resolve(@RequestParam String sub, @RequestParam String type,
+			@RequestParam String anchor) {
+		if (onboardService.findTrustAnchor(anchor) == null) {
+			return error(HttpStatus.NOT_FOUND, "invalid_trust_anchor");
+		}
 
-			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+		SignedStatement result = onboardService.resolveBySubTypeAndAnchor(sub, type, anchor);
+		if (result == null) {
+			return error(HttpStatus.NOT_FOUND, "not_found");
 		}
+
+		return httpCache.ok(result, RESOLVE_RESPONSE_JWT);
 	}
 
 	@GetMapping(value = "/trust_mark")
-	public void trustMark(@RequestParam String sub, @RequestParam("trust_mark_id") String trustMarkId,
-			HttpServletResponse response) {
+	public ResponseEntity<String> trustMark(@RequestParam String sub,
+			@RequestParam("trust_mark_id") String trustMarkId) {
 
-		String jwt = tmService.retrieveTrustMarkJwt(sub, trustMarkId);
-		if (StringUtil.isBlank(jwt)) {
-			response.setContentType("application/trust-mark+jwt");
-			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+		SignedStatement result = tmService.retrieveTrustMark(sub, trustMarkId);
+		if (result == null) {
+			return ResponseEntity.status(HttpStatus.NOT_FOUND).contentType(TRUST_MARK_JWT).build();
 		} else {
-			PrintWriter writer;
-			try {
-				writer = response.getWriter();
-				writer.print(jwt);
-				writer.flush();
-
-			} catch (IOException e) {
-				log.error("", e);
-			}
-			response.setContentType("application/trust-mark+jwt");
-			response.setStatus(HttpServletResponse.SC_OK);
+			return httpCache.ok(result, TRUST_MARK_JWT);
 		}
 
 	}
@@ -180,4 +193,29 @@ public class FederationController {
 
 		return ResponseEntity.ok(response);
 	}
+
+	/**
+	 * Batch variant of {@code /status}: the body is a JSON array of
+	 * {@code {"sub": ..., "trust_mark_id": ...}} objects, the response maps each sub
+	 * to the {@code active} flag of each of its trust mark ids.
+	 */
+	@PostMapping(value = "/status/batch", consumes = MediaType.APPLICATION_JSON_VALUE,
+			produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<?> trustMarkStatuses(@RequestBody List<TrustMarkStatusRequest> pairs) {
+		try {
+			return ResponseEntity.ok(tmService.checkStatuses(pairs));
+		} catch (IllegalArgumentException e) {
+			log.debug("invalid batch status request: {}", e.getMessage());
+			return error(HttpStatus.BAD_REQUEST, "invalid_request");
+		}
+	}
+
+	private ResponseEntity<String> error(HttpStatus status, String error) {
+		Map<String, String> responseBody = new HashMap<>();
+		responseBody.put("error", error);
+
+		return ResponseEntity.status(status)
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(this.gson.toJson(responseBody));
+	}
 }
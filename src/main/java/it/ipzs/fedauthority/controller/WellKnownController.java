@@ -11,10 +11,12 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import it.ipzs.fedauthority.dto.SignedStatement;
 import it.ipzs.fedauthority.oidclib.OidConstants;
 import it.ipzs.fedauthority.oidclib.FedConfig;
 import it.ipzs.fedauthority.oidclib.OidWrapper;
 import it.ipzs.fedauthority.oidclib.schemas.WellKnownData;
+import it.ipzs.fedauthority.util.HttpCacheSupport;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
@@ -31,6 +33,9 @@ public class WellKnownController {
 	@Autowired
 	private OidWrapper oidcWrapper;
 
+	@Autowired
+	private HttpCacheSupport httpCache;
+
 	@GetMapping(OidConstants.OIDC_FEDERATION_WELLKNOWN_URL)
 	public ResponseEntity<String> wellKnownFederation(@RequestParam(required = false) String format,
 			HttpServletRequest request, HttpServletResponse response) throws Exception {
@@ -47,12 +52,22 @@ public class WellKnownController {
 			return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
 		}
 
+		// the entity configuration is issued with a new iat, and signed again, on every
+		// request: it is cacheable until its exp, but it has no stable ETag
+
 		if (jsonMode) {
-			return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(wellKnown.getValue());
+			String body = wellKnown.getValue();
+			long exp = new JSONObject(body).optLong("exp");
+
+			return httpCache.okWithoutEtag(body, MediaType.APPLICATION_JSON,
+					httpCache.maxAgeUntil(exp > 0 ? exp : null));
 		}
 		else {
-			return ResponseEntity.ok().contentType(new MediaType("application", "entity-statement+jwt"))
-					.body(wellKnown.getValue());
+			SignedStatement statement = SignedStatement.of(wellKnown.getValue());
+
+			return httpCache.okWithoutEtag(statement.getJwt(),
+					new MediaType("application", "entity-statement+jwt"),
+					httpCache.maxAgeUntil(statement.getExp()));
 		}
 	}
 
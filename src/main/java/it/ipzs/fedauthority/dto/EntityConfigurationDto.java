@@ -1,6 +1,6 @@
 package it.ipzs.fedauthority.dto;
 
-import org.json.JSONObject;
+import java.util.Map;
 
 import lombok.Data;
 
@@ -12,7 +12,7 @@ public class EntityConfigurationDto {
 	private Long exp;
 	private Long iat;
 	private String sourceEndpoint;
-	private JSONObject jwks;
-	private JSONObject metadataPolicy;
+	private Map<String, Object> jwks;
+	private Map<String, Object> metadataPolicy;
 
 }
@@ -0,0 +1,85 @@
+package it.ipzs.fedauthority.dto;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.json.JSONObject;
+
+import com.nimbusds.jose.util.Base64URL;
+
+import it.ipzs.fedauthority.oidclib.helper.JWTHelper;
+
+/**
+ * A signed JWT ready to be served, together with the HTTP validators derived from it.
+ * The strong ETag and the expiration are computed once, when the statement is built.
+ */
+public final class SignedStatement {
+
+	private final String jwt;
+	private final String etag;
+	private final Long exp;
+
+	private SignedStatement(String jwt, String etag, Long exp) {
+		this.jwt = jwt;
+		this.etag = etag;
+		this.exp = exp;
+	}
+
+	/**
+	 * @param jwt a compact serialized JWS
+	 * @return the statement, or {@code null} if {@code jwt} is {@code null}
+	 */
+	public static SignedStatement of(String jwt) {
+		if (jwt == null) {
+			return null;
+		}
+
+		Long exp = null;
+		try {
+			JSONObject payload = JWTHelper.fastParsePayload(jwt);
+			if (payload.has("exp")) {
+				exp = payload.getLong("exp");
+			}
+		} catch (RuntimeException e) {
+			// not a JWS with a JSON payload, no freshness information
+		}
+
+		return new SignedStatement(jwt, etag(jwt), exp);
+	}
+
+	/**
+	 * @param body
+	 * @return a quoted strong entity tag computed as the SHA-256 of {@code body}
+	 */
+	public static String etag(String body) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(body.getBytes(StandardCharsets.UTF_8));
+
+			return "\"" + Base64URL.encode(digest).toString() + "\"";
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public String getJwt() {
+		return jwt;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * @return the {@code exp} claim as epoch seconds, {@code null} if missing
+	 */
+	public Long getExp() {
+		return exp;
+	}
+
+	@Override
+	public String toString() {
+		return jwt;
+	}
+
+}
@@ -0,0 +1,22 @@
+package it.ipzs.fedauthority.dto;
+
+import it.ipzs.fedauthority.model.RoleEnum;
+import lombok.Data;
+
+/**
+ * Filters of the {@code /list} endpoint, {@code null} fields are not applied.
+ * <br/>
+ * {@code trustMarked} and {@code trustMarkId} are matched against
+ * {@link it.ipzs.fedauthority.model.OnboardEntity#getTrustMark()}, the id of the
+ * trust mark granted to the subordinate on onboarding.
+ */
+@Data
+public class SubordinateFilter {
+
+	private RoleEnum entityType;
+
+	private Boolean trustMarked;
+
+	private String trustMarkId;
+
+}
@@ -0,0 +1,22 @@
+package it.ipzs.fedauthority.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * A page of subordinate entity ids.
+ */
+@Data
+@AllArgsConstructor
+public class SubordinatePage {
+
+	private List<String> urls;
+
+	/**
+	 * opaque cursor of the next page, {@code null} on the last page
+	 */
+	private String nextCursor;
+
+}
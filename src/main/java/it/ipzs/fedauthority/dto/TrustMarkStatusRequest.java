@@ -0,0 +1,18 @@
+package it.ipzs.fedauthority.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import lombok.Data;
+
+/**
+ * A (sub, trust_mark_id) pair of a batch trust mark status request.
+ */
+@Data
+public class TrustMarkStatusRequest {
+
+	private String sub;
+
+	@JsonProperty("trust_mark_id")
+	private String trustMarkId;
+
+}
@@ -0,0 +1,36 @@
+package it.ipzs.fedauthority.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Revocation of a federation signing key, recorded the first time the key shows up in
+ * the revoked JWKS and published by {@code /historical-jwks}.
+ */
+@Data
+@Document
+@NoArgsConstructor
+@AllArgsConstructor
+public class KeyRevocation {
+
+	/**
+	 * the kid of the revoked key, or its thumbprint if it has no kid
+	 */
+	@Id
+	private String kid;
+
+	/**
+	 * epoch seconds
+	 */
+	private Long revokedAt;
+
+	/**
+	 * one of unspecified, compromised, superseded
+	 */
+	private String reason;
+
+}
@@ -3,6 +3,7 @@ package it.ipzs.fedauthority.model;
 import java.util.Map;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
@@ -10,6 +11,7 @@ import lombok.Data;
 
 
 @Data
+@Document
 public class OnboardEntity {
 
   @Id
@@ -8,6 +8,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
@@ -27,6 +28,15 @@ public class FedConfig extends BaseConfig {
 	private OpenIdCredentialIssuer openidCredentialIssuer = new OpenIdCredentialIssuer();
 	private FederationEntity federationEntity = new FederationEntity();
 	private String federationTrustChainUrl;
+	private Http http = new Http();
+	private EntityCache entityCache = new EntityCache();
+	private StatementCache statementCache = new StatementCache();
+	private CacheConfig policyCache = new CacheConfig();
+	private CacheConfig trustMarkCache = new CacheConfig();
+	private SignatureCache signatureCache = new SignatureCache();
+	private Refresh refresh = new Refresh();
+	private StaleWhileRevalidate staleWhileRevalidate = new StaleWhileRevalidate();
+	private Budget resolutionBudget = new Budget();
 
 	public String getDefaultTrustAnchor() {
 		return defaultTrustAnchor;
@@ -83,6 +93,15 @@ public class FedConfig extends BaseConfig {
 		json.put("defaultTrustAnchor", defaultTrustAnchor);
 		json.put("trustAnchors", trustAnchors);
 		json.put("hosts", hosts.toJSON());
+		json.put("http", http.toJSON());
+		json.put("entityCache", entityCache.toJSON());
+		json.put("statementCache", statementCache.toJSON());
+		json.put("policyCache", policyCache.toJSON());
+		json.put("trustMarkCache", trustMarkCache.toJSON());
+		json.put("signatureCache", signatureCache.toJSON());
+		json.put("refresh", refresh.toJSON());
+		json.put("staleWhileRevalidate", staleWhileRevalidate.toJSON());
+		json.put("resolutionBudget", resolutionBudget.toJSON());
 
 		return json;
 	}
@@ -112,6 +131,602 @@ public class FedConfig extends BaseConfig {
 		this.federationTrustChainUrl = federationTrustChainUrl;
 	}
 
+	public Http getHttp() {
+		return http;
+	}
+
+	public void setHttp(Http http) {
+		this.http = http;
+	}
+
+	public EntityCache getEntityCache() {
+		return entityCache;
+	}
+
+	public void setEntityCache(EntityCache entityCache) {
+		this.entityCache = entityCache;
+	}
+
+	public StatementCache getStatementCache() {
+		return statementCache;
+	}
+
+	public void setStatementCache(StatementCache statementCache) {
+		this.statementCache = statementCache;
+	}
+
+	public CacheConfig getPolicyCache() {
+		return policyCache;
+	}
+
+	public void setPolicyCache(CacheConfig policyCache) {
+		this.policyCache = policyCache;
+	}
+
+	public CacheConfig getTrustMarkCache() {
+		return trustMarkCache;
+	}
+
+	public void setTrustMarkCache(CacheConfig trustMarkCache) {
+		this.trustMarkCache = trustMarkCache;
+	}
+
+	public SignatureCache getSignatureCache() {
+		return signatureCache;
+	}
+
+	public void setSignatureCache(SignatureCache signatureCache) {
+		this.signatureCache = signatureCache;
+	}
+
+	public Refresh getRefresh() {
+		return refresh;
+	}
+
+	public void setRefresh(Refresh refresh) {
+		this.refresh = refresh;
+	}
+
+	public StaleWhileRevalidate getStaleWhileRevalidate() {
+		return staleWhileRevalidate;
+	}
+
+	public void setStaleWhileRevalidate(StaleWhileRevalidate staleWhileRevalidate) {
+		this.staleWhileRevalidate = staleWhileRevalidate;
+	}
+
+	public Budget getResolutionBudget() {
+		return resolutionBudget;
+	}
+
+	public void setResolutionBudget(Budget resolutionBudget) {
+		this.resolutionBudget = resolutionBudget;
+	}
+
+
+	/**
+	 * Settings of the client used for the outbound federation requests
+	 */
+	public static class Http extends BaseConfig {
+
+		public long getConnectTimeoutMillis() {
+			return connectTimeoutMillis;
+		}
+
+		public long getRequestTimeoutMillis() {
+			return requestTimeoutMillis;
+		}
+
+		public int getMaxConnectionsPerHost() {
+			return maxConnectionsPerHost;
+		}
+
+		public int getExecutorThreads() {
+			return executorThreads;
+		}
+
+		public int getFetchParallelism() {
+			return fetchParallelism;
+		}
+
+		public int getFetchThreads() {
+			return fetchThreads;
+		}
+
+		public boolean isHttp2() {
+			return http2;
+		}
+
+		public int getFailureThreshold() {
+			return failureThreshold;
+		}
+
+		public long getOpenSeconds() {
+			return openSeconds;
+		}
+
+		public long getMaxOpenSeconds() {
+			return maxOpenSeconds;
+		}
+
+		public int getHalfOpenProbes() {
+			return halfOpenProbes;
+		}
+
+		public long getNegativeTtlSeconds() {
+			return negativeTtlSeconds;
+		}
+
+		public int getNegativeCacheMaxEntries() {
+			return negativeCacheMaxEntries;
+		}
+
+		public void setConnectTimeoutMillis(long connectTimeoutMillis) {
+			this.connectTimeoutMillis = connectTimeoutMillis;
+		}
+
+		public void setRequestTimeoutMillis(long requestTimeoutMillis) {
+			this.requestTimeoutMillis = requestTimeoutMillis;
+		}
+
+		public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+			this.maxConnectionsPerHost = maxConnectionsPerHost;
+		}
+
+		public void setExecutorThreads(int executorThreads) {
+			this.executorThreads = executorThreads;
+		}
+
+		public void setFetchParallelism(int fetchParallelism) {
+			this.fetchParallelism = fetchParallelism;
+		}
+
+		public void setFetchThreads(int fetchThreads) {
+			this.fetchThreads = fetchThreads;
+		}
+
+		public void setHttp2(boolean http2) {
+			this.http2 = http2;
+		}
+
+		public void setFailureThreshold(int failureThreshold) {
+			this.failureThreshold = failureThreshold;
+		}
+
+		public void setOpenSeconds(long openSeconds) {
+			this.openSeconds = openSeconds;
+		}
+
+		public void setMaxOpenSeconds(long maxOpenSeconds) {
+			this.maxOpenSeconds = maxOpenSeconds;
+		}
+
+		public void setHalfOpenProbes(int halfOpenProbes) {
+			this.halfOpenProbes = halfOpenProbes;
+		}
+
+		public void setNegativeTtlSeconds(long negativeTtlSeconds) {
+			this.negativeTtlSeconds = negativeTtlSeconds;
+		}
+
+		public void setNegativeCacheMaxEntries(int negativeCacheMaxEntries) {
+			this.negativeCacheMaxEntries = negativeCacheMaxEntries;
+		}
+
+		public JSONObject toJSON() {
+			return new JSONObject()
+					.put("connect-timeout-millis", connectTimeoutMillis)
+					.put("request-timeout-millis", requestTimeoutMillis)
+					.put("max-connections-per-host", maxConnectionsPerHost)
+					.put("executor-threads", executorThreads)
+					.put("fetch-parallelism", fetchParallelism)
+					.put("fetch-threads", fetchThreads)
+					.put("http2", http2)
+					.put("failure-threshold", failureThreshold)
+					.put("open-seconds", openSeconds)
+					.put("max-open-seconds", maxOpenSeconds)
+					.put("half-open-probes", halfOpenProbes)
+					.put("negative-ttl-seconds", negativeTtlSeconds)
+					.put("negative-cache-max-entries", negativeCacheMaxEntries);
+		}
+
+		private long connectTimeoutMillis = 5000;
+		private long requestTimeoutMillis = 10000;
+		private int maxConnectionsPerHost = 8;
+		private int executorThreads = 16;
+		private int fetchParallelism = 8;
+		private int fetchThreads = 64;
+		private boolean http2 = true;
+		private int failureThreshold = 5;
+		private long openSeconds = 30;
+		private long maxOpenSeconds = 300;
+		private int halfOpenProbes = 1;
+		private long negativeTtlSeconds = 10;
+		private int negativeCacheMaxEntries = 10000;
+
+	}
+
+	/**
+	 * Settings shared by the caches of the trust chain builds, see
+	 * {@link it.ipzs.fedauthority.oidclib.util.SharedInstance}
+	 */
+	public static class CacheConfig extends BaseConfig {
+
+		public int getMaxEntries() {
+			return maxEntries;
+		}
+
+		public void setMaxEntries(int maxEntries) {
+			this.maxEntries = maxEntries;
+		}
+
+		public JSONObject toJSON() {
+			return new JSONObject()
+					.put("max-entries", maxEntries);
+		}
+
+		private int maxEntries = 10000;
+
+	}
+
+	/**
+	 * Settings of the entity configurations cache shared by the trust chain builds
+	 */
+	public static class EntityCache extends CacheConfig {
+
+		public long getMaxTtlSeconds() {
+			return maxTtlSeconds;
+		}
+
+		public boolean isPersist() {
+			return persist;
+		}
+
+		public void setMaxTtlSeconds(long maxTtlSeconds) {
+			this.maxTtlSeconds = maxTtlSeconds;
+		}
+
+		public void setPersist(boolean persist) {
+			this.persist = persist;
+		}
+
+		public JSONObject toJSON() {
+			return super.toJSON()
+					.put("max-ttl-seconds", maxTtlSeconds)
+					.put("persist", persist);
+		}
+
+		private long maxTtlSeconds = 0;
+		private boolean persist = false;
+
+	}
+
+	/**
+	 * Settings of the subordinate statements cache shared by the trust chain builds
+	 */
+	public static class StatementCache extends CacheConfig {
+
+		public long getRevalidateSeconds() {
+			return revalidateSeconds;
+		}
+
+		public void setRevalidateSeconds(long revalidateSeconds) {
+			this.revalidateSeconds = revalidateSeconds;
+		}
+
+		public JSONObject toJSON() {
+			return super.toJSON()
+					.put("revalidate-seconds", revalidateSeconds);
+		}
+
+		private long revalidateSeconds = 0;
+
+	}
+
+	/**
+	 * Settings of the memoization of the verified signatures and of the cached
+	 * signature verifiers
+	 */
+	public static class SignatureCache extends BaseConfig {
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public int getMaxEntries() {
+			return maxEntries;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public String getVerifierProvider() {
+			return verifierProvider;
+		}
+
+		public int getMaxVerifiers() {
+			return maxVerifiers;
+		}
+
+		public long getVerifierMaxAgeSeconds() {
+			return verifierMaxAgeSeconds;
+		}
+
+		public void setMaxEntries(int maxEntries) {
+			this.maxEntries = maxEntries;
+		}
+
+		public void setVerifierProvider(String verifierProvider) {
+			this.verifierProvider = verifierProvider;
+		}
+
+		public void setMaxVerifiers(int maxVerifiers) {
+			this.maxVerifiers = maxVerifiers;
+		}
+
+		public void setVerifierMaxAgeSeconds(long verifierMaxAgeSeconds) {
+			this.verifierMaxAgeSeconds = verifierMaxAgeSeconds;
+		}
+
+		public JSONObject toJSON() {
+			return new JSONObject()
+					.put("enabled", enabled)
+					.put("max-entries", maxEntries)
+					.put("verifier-provider", verifierProvider)
+					.put("max-verifiers", maxVerifiers)
+					.put("verifier-max-age-seconds", verifierMaxAgeSeconds);
+		}
+
+		private boolean enabled = true;
+		private int maxEntries = 50000;
+		private String verifierProvider = "default";
+		private int maxVerifiers = 1000;
+		private long verifierMaxAgeSeconds = 3600;
+
+	}
+
+	/**
+	 * Settings of the background renewal of the persisted trust chains
+	 */
+	public static class Refresh extends BaseConfig {
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public long getScanIntervalSeconds() {
+			return scanIntervalSeconds;
+		}
+
+		public long getHorizonSeconds() {
+			return horizonSeconds;
+		}
+
+		public double getRefreshRatio() {
+			return refreshRatio;
+		}
+
+		public double getJitterRatio() {
+			return jitterRatio;
+		}
+
+		public int getMaxConcurrency() {
+			return maxConcurrency;
+		}
+
+		public long getMinIntervalSeconds() {
+			return minIntervalSeconds;
+		}
+
+		public long getInitialBackoffSeconds() {
+			return initialBackoffSeconds;
+		}
+
+		public long getMaxBackoffSeconds() {
+			return maxBackoffSeconds;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public void setScanIntervalSeconds(long scanIntervalSeconds) {
+			this.scanIntervalSeconds = scanIntervalSeconds;
+		}
+
+		public void setHorizonSeconds(long horizonSeconds) {
+			this.horizonSeconds = horizonSeconds;
+		}
+
+		public void setRefreshRatio(double refreshRatio) {
+			this.refreshRatio = refreshRatio;
+		}
+
+		public void setJitterRatio(double jitterRatio) {
+			this.jitterRatio = jitterRatio;
+		}
+
+		public void setMaxConcurrency(int maxConcurrency) {
+			this.maxConcurrency = maxConcurrency;
+		}
+
+		public void setMinIntervalSeconds(long minIntervalSeconds) {
+			this.minIntervalSeconds = minIntervalSeconds;
+		}
+
+		public void setInitialBackoffSeconds(long initialBackoffSeconds) {
+			this.initialBackoffSeconds = initialBackoffSeconds;
+		}
+
+		public void setMaxBackoffSeconds(long maxBackoffSeconds) {
+			this.maxBackoffSeconds = maxBackoffSeconds;
+		}
+
+		public JSONObject toJSON() {
+			return new JSONObject()
+					.put("enabled", enabled)
+					.put("scan-interval-seconds", scanIntervalSeconds)
+					.put("horizon-seconds", horizonSeconds)
+					.put("refresh-ratio", refreshRatio)
+					.put("jitter-ratio", jitterRatio)
+					.put("max-concurrency", maxConcurrency)
+					.put("min-interval-seconds", minIntervalSeconds)
+					.put("initial-backoff-seconds", initialBackoffSeconds)
+					.put("max-backoff-seconds", maxBackoffSeconds);
+		}
+
+		private boolean enabled = true;
+		private long scanIntervalSeconds = 60;
+		private long horizonSeconds = 86400;
+		private double refreshRatio = 0.8;
+		private double jitterRatio = 0.05;
+		private int maxConcurrency = 4;
+		private long minIntervalSeconds = 60;
+		private long initialBackoffSeconds = 30;
+		private long maxBackoffSeconds = 1800;
+
+	}
+
+	/**
+	 * Settings of the grace period during which an expired trust chain is served
+	 * while it is renewed in background
+	 */
+	public static class StaleWhileRevalidate extends BaseConfig {
+
+		public long getDefaultGraceSeconds() {
+			return defaultGraceSeconds;
+		}
+
+		public List<GraceWindow> getTrustAnchors() {
+			return trustAnchors;
+		}
+
+		public int getMaxConcurrency() {
+			return maxConcurrency;
+		}
+
+		public long getInitialBackoffSeconds() {
+			return initialBackoffSeconds;
+		}
+
+		public long getMaxBackoffSeconds() {
+			return maxBackoffSeconds;
+		}
+
+		public void setDefaultGraceSeconds(long defaultGraceSeconds) {
+			this.defaultGraceSeconds = defaultGraceSeconds;
+		}
+
+		public void setTrustAnchors(List<GraceWindow> trustAnchors) {
+			this.trustAnchors = trustAnchors;
+		}
+
+		public void setMaxConcurrency(int maxConcurrency) {
+			this.maxConcurrency = maxConcurrency;
+		}
+
+		public void setInitialBackoffSeconds(long initialBackoffSeconds) {
+			this.initialBackoffSeconds = initialBackoffSeconds;
+		}
+
+		public void setMaxBackoffSeconds(long maxBackoffSeconds) {
+			this.maxBackoffSeconds = maxBackoffSeconds;
+		}
+
+		public JSONObject toJSON() {
+			JSONArray json = new JSONArray();
+
+			for (GraceWindow trustAnchor : trustAnchors) {
+				json.put(trustAnchor.toJSON());
+			}
+
+			return new JSONObject()
+					.put("default-grace-seconds", defaultGraceSeconds)
+					.put("trust-anchors", json)
+					.put("max-concurrency", maxConcurrency)
+					.put("initial-backoff-seconds", initialBackoffSeconds)
+					.put("max-backoff-seconds", maxBackoffSeconds);
+		}
+
+		private long defaultGraceSeconds = 0;
+		private List<GraceWindow> trustAnchors = new ArrayList<>();
+		private int maxConcurrency = 4;
+		private long initialBackoffSeconds = 5;
+		private long maxBackoffSeconds = 300;
+
+	}
+
+	/**
+	 * Limits of each trust chain resolution, {@code 0} to not enforce one
+	 */
+	public static class Budget extends BaseConfig {
+
+		public long getDeadlineMillis() {
+			return deadlineMillis;
+		}
+
+		public int getMaxRequests() {
+			return maxRequests;
+		}
+
+		public long getMaxBytes() {
+			return maxBytes;
+		}
+
+		public void setDeadlineMillis(long deadlineMillis) {
+			this.deadlineMillis = deadlineMillis;
+		}
+
+		public void setMaxRequests(int maxRequests) {
+			this.maxRequests = maxRequests;
+		}
+
+		public void setMaxBytes(long maxBytes) {
+			this.maxBytes = maxBytes;
+		}
+
+		public JSONObject toJSON() {
+			return new JSONObject()
+					.put("deadline-millis", deadlineMillis)
+					.put("max-requests", maxRequests)
+					.put("max-bytes", maxBytes);
+		}
+
+		private long deadlineMillis = 30000;
+		private int maxRequests = 200;
+		private long maxBytes = 10485760;
+
+	}
+
+	public static class GraceWindow extends BaseConfig {
+
+		public String getTrustAnchor() {
+			return trustAnchor;
+		}
+
+		public long getGraceSeconds() {
+			return graceSeconds;
+		}
+
+		public void setTrustAnchor(String trustAnchor) {
+			this.trustAnchor = trustAnchor;
+		}
+
+		public void setGraceSeconds(long graceSeconds) {
+			this.graceSeconds = graceSeconds;
+		}
+
+		public JSONObject toJSON() {
+			return new JSONObject()
+					.put("trust-anchor", trustAnchor)
+					.put("grace-seconds", graceSeconds);
+		}
+
+		private String trustAnchor;
+		private long graceSeconds;
+
+	}
 
 	public static class Hosts extends BaseConfig {
 
@@ -7,6 +7,7 @@ import java.nio.file.Files;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.json.JSONObject;
 import org.slf4j.Logger;
@@ -23,6 +24,15 @@ import com.nimbusds.jose.jwk.JWK;
 import it.ipzs.fedauthority.oidclib.callback.RelyingPartyLogoutCallback;
 import it.ipzs.fedauthority.oidclib.exception.OIDCException;
 import it.ipzs.fedauthority.oidclib.handler.OidHandler;
+import it.ipzs.fedauthority.oidclib.handler.TrustChainRefresher;
+import it.ipzs.fedauthority.oidclib.handler.TrustChainRevalidator;
+import it.ipzs.fedauthority.oidclib.helper.EntityConfigurationCache;
+import it.ipzs.fedauthority.oidclib.helper.EntityStatementCache;
+import it.ipzs.fedauthority.oidclib.helper.FederationHttpClient;
+import it.ipzs.fedauthority.oidclib.helper.JWSVerifierCache;
+import it.ipzs.fedauthority.oidclib.helper.MetadataPolicyCache;
+import it.ipzs.fedauthority.oidclib.helper.TrustMarkCache;
+import it.ipzs.fedauthority.oidclib.helper.VerifiedSignatureCache;
 import it.ipzs.fedauthority.oidclib.model.CredentialDefinition;
 import it.ipzs.fedauthority.oidclib.model.CredentialEHICSubject;
 import it.ipzs.fedauthority.oidclib.model.CredentialField;
@@ -31,12 +41,16 @@ import it.ipzs.fedauthority.oidclib.model.CredentialSubject;
 import it.ipzs.fedauthority.oidclib.model.CredentialType;
 import it.ipzs.fedauthority.oidclib.model.DisplayConf;
 import it.ipzs.fedauthority.oidclib.model.LogoConf;
+import it.ipzs.fedauthority.oidclib.model.ResolutionBudget;
+import it.ipzs.fedauthority.oidclib.model.TrustChainBuilder;
 import it.ipzs.fedauthority.oidclib.persistence.H2PersistenceImpl;
 import it.ipzs.fedauthority.oidclib.schemas.OIDCProfile;
 import it.ipzs.fedauthority.oidclib.schemas.ProviderButtonInfo;
 import it.ipzs.fedauthority.oidclib.schemas.WellKnownData;
 import it.ipzs.fedauthority.oidclib.util.Validator;
+import it.ipzs.fedauthority.util.StringUtil;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 
 @Component
 public class OidWrapper {
@@ -105,6 +119,56 @@ public class OidWrapper {
 		return oidcHandler.performLogout(userKey, callback);
 	}
 
+	/**
+	 * @see OidHandler#resolve(String, String, String)
+	 */
+	public TrustChainBuilder resolve(String subject, String trustAnchor, String metadataType)
+			throws OIDCException {
+
+		return oidcHandler.resolve(subject, trustAnchor, metadataType);
+	}
+
+	/**
+	 * @param trustAnchor
+	 * @return the configured trust anchor equal to the given one once both are
+	 * canonicalized, {@code null} if there is none
+	 */
+	public String findTrustAnchor(String trustAnchor) {
+		String canonical = StringUtil.canonicalizeUrl(trustAnchor);
+
+		if (canonical == null) {
+			return null;
+		}
+
+		for (String configured : fedConfig.getTrustAnchors()) {
+			if (canonical.equals(StringUtil.canonicalizeUrl(configured))) {
+				return configured;
+			}
+		}
+
+		return null;
+	}
+
+	public Map<String, Object> getTrustChainRefresherStats() {
+		return oidcHandler.getTrustChainRefresherStats();
+	}
+
+	public Map<String, Object> getTrustChainRevalidatorStats() {
+		return oidcHandler.getTrustChainRevalidatorStats();
+	}
+
+	public Map<String, Object> getTrustChainBuildStats() {
+		return oidcHandler.getTrustChainBuildStats();
+	}
+
+	@PreDestroy
+	private void preDestroy() {
+		if (oidcHandler != null) {
+			oidcHandler.stopTrustChainRefresher();
+			oidcHandler.stopTrustChainRevalidator();
+		}
+	}
+
 	public void reloadHandler() throws OIDCException {
 		logger.info("reload handler");
 
@@ -211,6 +275,55 @@ public class OidWrapper {
 
 	@PostConstruct
 	private void postConstruct() throws OIDCException {
+		FedConfig.Http http = fedConfig.getHttp();
+
+		FederationHttpClient.configure(new FederationHttpClient.Settings()
+				.setConnectTimeoutMillis(http.getConnectTimeoutMillis())
+				.setRequestTimeoutMillis(http.getRequestTimeoutMillis())
+				.setMaxConnectionsPerHost(http.getMaxConnectionsPerHost())
+				.setExecutorThreads(http.getExecutorThreads())
+				.setFetchParallelism(http.getFetchParallelism())
+				.setFetchThreads(http.getFetchThreads())
+				.setHttp2(http.isHttp2())
+				.setFailureThreshold(http.getFailureThreshold())
+				.setOpenSeconds(http.getOpenSeconds())
+				.setMaxOpenSeconds(http.getMaxOpenSeconds())
+				.setHalfOpenProbes(http.getHalfOpenProbes())
+				.setNegativeTtlSeconds(http.getNegativeTtlSeconds())
+				.setNegativeCacheMaxEntries(http.getNegativeCacheMaxEntries()));
+
+		FedConfig.Budget budget = fedConfig.getResolutionBudget();
+
+		ResolutionBudget.configure(new ResolutionBudget.Settings()
+				.setDeadlineMillis(budget.getDeadlineMillis())
+				.setMaxRequests(budget.getMaxRequests())
+				.setMaxBytes(budget.getMaxBytes()));
+
+		FedConfig.EntityCache entityCache = fedConfig.getEntityCache();
+
+		EntityConfigurationCache.configure(
+				entityCache.getMaxEntries(), entityCache.getMaxTtlSeconds(),
+				entityCache.isPersist() ? persistenceImpl : null);
+
+		FedConfig.StatementCache statementCache = fedConfig.getStatementCache();
+
+		EntityStatementCache.configure(
+				statementCache.getMaxEntries(), statementCache.getRevalidateSeconds());
+
+		MetadataPolicyCache.configure(fedConfig.getPolicyCache().getMaxEntries());
+
+		TrustMarkCache.configure(fedConfig.getTrustMarkCache().getMaxEntries());
+
+		FedConfig.SignatureCache signatureCache = fedConfig.getSignatureCache();
+
+		VerifiedSignatureCache.configure(
+				signatureCache.isEnabled(), signatureCache.getMaxEntries());
+
+		JWSVerifierCache.configure(
+				JWSVerifierCache.Provider.parse(signatureCache.getVerifierProvider()),
+				signatureCache.getMaxVerifiers(),
+				signatureCache.getVerifierMaxAgeSeconds());
+
 		String jwk = readFile(fedConfig.getRelyingParty().getJwkFilePath());
 		String trustMarks = readFile(
 				fedConfig.getRelyingParty().getTrustMarksFilePath());
@@ -258,7 +371,40 @@ public class OidWrapper {
 		fedEntOptions.setFederation_list_endpoint(fedConfig.getFederationEntity().getFederation_list_endpoint());
 		fedEntOptions.setFederation_trust_mark_status_endpoint(fedConfig.getFederationEntity().getFederation_trust_mark_status_endpoint());
 
+		if (oidcHandler != null) {
+			oidcHandler.stopTrustChainRefresher();
+			oidcHandler.stopTrustChainRevalidator();
+		}
+
 		oidcHandler = new OidHandler(options, persistenceImpl, credentialOptions, fedEntOptions);
+
+		FedConfig.Refresh refresh = fedConfig.getRefresh();
+
+		if (refresh.isEnabled()) {
+			oidcHandler.startTrustChainRefresher(new TrustChainRefresher.Settings()
+					.setScanIntervalSeconds(refresh.getScanIntervalSeconds())
+					.setHorizonSeconds(refresh.getHorizonSeconds())
+					.setRefreshRatio(refresh.getRefreshRatio())
+					.setJitterRatio(refresh.getJitterRatio())
+					.setMaxConcurrency(refresh.getMaxConcurrency())
+					.setMinIntervalSeconds(refresh.getMinIntervalSeconds())
+					.setInitialBackoffSeconds(refresh.getInitialBackoffSeconds())
+					.setMaxBackoffSeconds(refresh.getMaxBackoffSeconds()));
+		}
+
+		FedConfig.StaleWhileRevalidate swr = fedConfig.getStaleWhileRevalidate();
+
+		TrustChainRevalidator.Settings swrSettings = new TrustChainRevalidator.Settings()
+				.setDefaultGraceSeconds(swr.getDefaultGraceSeconds())
+				.setMaxConcurrency(swr.getMaxConcurrency())
+				.setInitialBackoffSeconds(swr.getInitialBackoffSeconds())
+				.setMaxBackoffSeconds(swr.getMaxBackoffSeconds());
+
+		for (FedConfig.GraceWindow window : swr.getTrustAnchors()) {
+			swrSettings.setGraceSeconds(window.getTrustAnchor(), window.getGraceSeconds());
+		}
+
+		oidcHandler.startTrustChainRevalidator(swrSettings);
 //		try {
 //			generateRelyingPartyTrustChain();
 //		} catch (Exception e) {
@@ -43,6 +43,19 @@ public class EntityException extends OIDCException {
 
 	}
 
+	/**
+	 * The request has not been sent: the host is considered down or the same url
+	 * has just failed
+	 */
+	@SuppressWarnings("serial")
+	public static class Unavailable extends EntityException {
+
+		public Unavailable(String message) {
+			super(message);
+		}
+
+	}
+
 	private EntityException(String message) {
 		super(message);
 	}
@@ -2,6 +2,7 @@ package it.ipzs.fedauthority.oidclib.exception;
 
 import java.time.LocalDateTime;
 
+import it.ipzs.fedauthority.oidclib.model.ResolutionBudget;
 import it.ipzs.fedauthority.oidclib.model.TrustChain;
 
 public class TrustChainException extends OIDCException {
@@ -20,6 +21,26 @@ public class TrustChainException extends OIDCException {
 
 	}
 
+	@SuppressWarnings("serial")
+	public static class BudgetExhausted extends TrustChainException {
+
+		private final ResolutionBudget.Limit limit;
+
+		public BudgetExhausted(ResolutionBudget.Limit limit, String message) {
+			super("Resolution budget exhausted: " + message);
+
+			this.limit = limit;
+		}
+
+		/**
+		 * @return the limit that has been exhausted
+		 */
+		public ResolutionBudget.Limit getLimit() {
+			return limit;
+		}
+
+	}
+
 	@SuppressWarnings("serial")
 	public static class InvalidRequiredTrustMark extends TrustChainException {
 
@@ -42,6 +42,7 @@ import it.ipzs.fedauthority.oidclib.model.AuthnToken;
 import it.ipzs.fedauthority.oidclib.model.CachedEntityInfo;
 import it.ipzs.fedauthority.oidclib.model.EntityConfiguration;
 import it.ipzs.fedauthority.oidclib.model.FederationEntity;
+import it.ipzs.fedauthority.oidclib.model.ResolutionBudget;
 import it.ipzs.fedauthority.oidclib.model.TrustChain;
 import it.ipzs.fedauthority.oidclib.model.TrustChainBuilder;
 import it.ipzs.fedauthority.oidclib.persistence.PersistenceAdapter;
@@ -55,6 +56,7 @@ import it.ipzs.fedauthority.oidclib.schemas.TokenResponse;
 import it.ipzs.fedauthority.oidclib.schemas.WellKnownData;
 import it.ipzs.fedauthority.oidclib.util.JSONUtil;
 import it.ipzs.fedauthority.oidclib.util.ListUtil;
+import it.ipzs.fedauthority.oidclib.util.SingleFlight;
 import it.ipzs.fedauthority.oidclib.util.Validator;
 
 
@@ -69,6 +71,13 @@ public class OidHandler {
 	private final OAuth2Helper oauth2Helper;
 	private final OidHelper oidHelper;
 	private final FederationEntityOptions federationEntityOptions;
+	private TrustChainRefresher trustChainRefresher;
+	private volatile TrustChainRevalidator trustChainRevalidator;
+
+	// concurrent builds of the same trust chain share a single build
+
+	private final SingleFlight<TrustChainKey, TrustChain> trustChainBuilds =
+		new SingleFlight<>("trust_chain_build");
 
 	public OidHandler(
 			RelyingPartyOptions options, PersistenceAdapter persistence, OIDCCredentialIssuerOptions credentialOptions,
@@ -90,6 +99,87 @@ public class OidHandler {
 		this.federationEntityOptions = federationOptions;
 	}
 
+	/**
+	 * Starts renewing the persisted trust chains ahead of their expiration
+	 *
+	 * @param settings
+	 */
+	public synchronized void startTrustChainRefresher(
+		TrustChainRefresher.Settings settings) {
+
+		if (trustChainRefresher == null) {
+			trustChainRefresher = new TrustChainRefresher(
+				persistence, jwtHelper,
+				(subject, trustAnchor, metadataType) -> getOrCreateTrustChain(
+					subject, trustAnchor, metadataType, true),
+				settings);
+
+			trustChainRefresher.start();
+		}
+	}
+
+	public synchronized void stopTrustChainRefresher() {
+		if (trustChainRefresher != null) {
+			trustChainRefresher.stop();
+			trustChainRefresher = null;
+		}
+	}
+
+	/**
+	 * Serves the expired trust chains for a grace period while they are renewed in
+	 * background
+	 *
+	 * @param settings
+	 */
+	public synchronized void startTrustChainRevalidator(
+		TrustChainRevalidator.Settings settings) {
+
+		if (trustChainRevalidator == null) {
+			trustChainRevalidator = new TrustChainRevalidator(
+				(subject, trustAnchor, metadataType) -> getOrCreateTrustChain(
+					subject, trustAnchor, metadataType, true),
+				settings);
+
+			logger.info("trust chain revalidator started: {}", settings);
+		}
+	}
+
+	public synchronized void stopTrustChainRevalidator() {
+		if (trustChainRevalidator != null) {
+			trustChainRevalidator.stop();
+			trustChainRevalidator = null;
+		}
+	}
+
+	/**
+	 * @return the trust chain revalidator statistics, empty if not started
+	 */
+	public synchronized Map<String, Object> getTrustChainRevalidatorStats() {
+		if (trustChainRevalidator == null) {
+			return Collections.emptyMap();
+		}
+
+		return trustChainRevalidator.getStats();
+	}
+
+	/**
+	 * @return the counters of the coalesced trust chain builds
+	 */
+	public Map<String, Object> getTrustChainBuildStats() {
+		return trustChainBuilds.getStats();
+	}
+
+	/**
+	 * @return the trust chain refresher statistics, empty if not started
+	 */
+	public synchronized Map<String, Object> getTrustChainRefresherStats() {
+		if (trustChainRefresher == null) {
+			return Collections.emptyMap();
+		}
+
+		return trustChainRefresher.getStats();
+	}
+
 	/**
 	 * Build the "authorize url": the URL a RelyingParty have to send to an OpenID Connect
 	 * Provider to start a SPID/CIE authorization flow
@@ -565,10 +655,74 @@ public class OidHandler {
 		return options.getLogoutRedirectURL();
 	}
 
+	/**
+	 * Builds and stores the trust chain of a subject. A caller arriving while the
+	 * same trust chain is being built waits for that build and gets its result, for
+	 * at most the deadline of a resolution. A forced build is not shared with the
+	 * builds that may serve the stored chain.
+	 */
 	protected TrustChain getOrCreateTrustChain(
 			String subject, String trustAnchor, String metadataType, boolean force)
 			throws OIDCException {
 
+		return trustChainBuilds.execute(
+				new TrustChainKey(subject, trustAnchor, metadataType, force),
+				() -> doGetOrCreateTrustChain(subject, trustAnchor, metadataType, force),
+				ResolutionBudget.getDefaultDeadlineMillis(),
+				() -> new TrustChainException.BudgetExhausted(
+						ResolutionBudget.Limit.DEADLINE,
+						"trust chain of " + subject + " not built in time by another request"));
+	}
+
+	/**
+	 * Resolves a subject: builds its trust chain up to the trust anchor and applies
+	 * the metadata policies along it, without storing the chain
+	 *
+	 * @param subject
+	 * @param trustAnchor one of the configured trust anchors
+	 * @param metadataType
+	 * @return the builder holding the final metadata, the verified trust marks and
+	 * the trust chain
+	 * @throws OIDCException if the trust anchor is unknown, the chain is not valid or
+	 * it has no metadata of the type
+	 */
+	public TrustChainBuilder resolve(
+			String subject, String trustAnchor, String metadataType)
+			throws OIDCException {
+
+		if (!options.getTrustAnchors().contains(trustAnchor)) {
+			throw new TrustChainException.InvalidTrustAnchor();
+		}
+
+		EntityConfiguration taConf = EntityConfiguration.fetch(
+				trustAnchor, null, jwtHelper);
+
+		TrustChainBuilder tcb =
+				new TrustChainBuilder(subject, metadataType, jwtHelper)
+						.setTrustAnchor(taConf)
+						.start();
+
+		if (!tcb.isValid()) {
+			throw new TrustChainException.InvalidTrustChain(
+					String.format(
+							"Trust Chain for subject %s or trust_anchor %s is not valid",
+							subject, trustAnchor));
+		}
+		else if (Validator.isNullOrEmpty(tcb.getFinalMetadata())) {
+			throw new TrustChainException.MissingMetadata(
+					String.format(
+							"Trust chain for subject %s and trust_anchor %s doesn't have " +
+									"any metadata of type '%s'", subject, trustAnchor,
+							metadataType));
+		}
+
+		return tcb;
+	}
+
+	private TrustChain doGetOrCreateTrustChain(
+			String subject, String trustAnchor, String metadataType, boolean force)
+			throws OIDCException {
+
 		CachedEntityInfo trustAnchorEntity = persistence.fetchEntityInfo(
 				trustAnchor, trustAnchor);
 
@@ -710,6 +864,14 @@ public class OidHandler {
 			throw new TrustChainException.TrustChainDisabled(msg);
 		}
 		else if (trustChain.isExpired()) {
+			TrustChainRevalidator revalidator = trustChainRevalidator;
+
+			if (revalidator != null && revalidator.isServable(trustChain)) {
+				revalidator.serveStale(trustChain, trustChain.getType());
+
+				return trustChain;
+			}
+
 			logger.warn(
 					String.format(
 							"TrustChain found but EXPIRED at %s.",
@@ -963,4 +1125,8 @@ public class OidHandler {
 		return federationEntityOptions;
 	}
 
-}
\ No newline at end of file
+	private record TrustChainKey(
+			String subject, String trustAnchor, String metadataType, boolean force) {
+	}
+
+}
@@ -0,0 +1,398 @@
+package it.ipzs.fedauthority.oidclib.handler;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.ipzs.fedauthority.oidclib.exception.OIDCException;
+import it.ipzs.fedauthority.oidclib.helper.EntityConfigurationCache;
+import it.ipzs.fedauthority.oidclib.helper.EntityHelper;
+import it.ipzs.fedauthority.oidclib.helper.JWTHelper;
+import it.ipzs.fedauthority.oidclib.model.CachedEntityInfo;
+import it.ipzs.fedauthority.oidclib.model.EntityConfiguration;
+import it.ipzs.fedauthority.oidclib.model.TrustChain;
+import it.ipzs.fedauthority.oidclib.persistence.PersistenceAdapter;
+
+/**
+ * Renews the persisted trust chains and entity configurations before they expire,
+ * so that the login requests find them still valid.
+ * <br/>
+ * The persisted {@link TrustChain}s and {@link CachedEntityInfo}s expiring within
+ * {@code horizon-seconds} are scanned periodically, reading only their keys and
+ * expiration. Each of them is renewed once the configured ratio of its remaining
+ * lifetime has elapsed, with some jitter so that the renewals of items issued
+ * together are spread. At most {@code max-concurrency} renewals run at the same
+ * time, and a failed renewal is retried with an exponential backoff.
+ * <br/>
+ * The lifetime of an item is measured from when its current expiration has been
+ * observed, that is when it enters the horizon or after a renewal, so it is at most
+ * {@code horizon-seconds}.
+ */
+public class TrustChainRefresher {
+
+	private static final Logger logger = LoggerFactory.getLogger(
+		TrustChainRefresher.class);
+
+	private final PersistenceAdapter persistence;
+	private final JWTHelper jwtHelper;
+	private final Renewer renewer;
+	private final Settings settings;
+	private final Map<RefreshKey, Tracked> tracked = new ConcurrentHashMap<>();
+	private final AtomicInteger running = new AtomicInteger();
+	private final AtomicLong scans = new AtomicLong();
+	private final AtomicLong refreshes = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private ScheduledExecutorService scheduler;
+	private ExecutorService workers;
+
+	/**
+	 * Rebuilds and stores the trust chain of a subject
+	 */
+	@FunctionalInterface
+	public interface Renewer {
+
+		void renew(String subject, String trustAnchor, String metadataType)
+			throws OIDCException;
+
+	}
+
+	public TrustChainRefresher(
+		PersistenceAdapter persistence, JWTHelper jwtHelper, Renewer renewer,
+		Settings settings) {
+
+		this.persistence = persistence;
+		this.jwtHelper = jwtHelper;
+		this.renewer = renewer;
+		this.settings = settings;
+	}
+
+	public synchronized void start() {
+		if (scheduler != null) {
+			return;
+		}
+
+		AtomicInteger threadCount = new AtomicInteger();
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "trust-chain-refresher");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		workers = new ThreadPoolExecutor(
+			settings.maxConcurrency, settings.maxConcurrency, 60, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<>(), r -> {
+				Thread thread = new Thread(
+					r, "trust-chain-refresh-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+
+		scheduler.scheduleWithFixedDelay(
+			this::scan, settings.scanIntervalSeconds, settings.scanIntervalSeconds,
+			TimeUnit.SECONDS);
+
+		logger.info("trust chain refresher started: {}", settings);
+	}
+
+	public synchronized void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			workers.shutdownNow();
+			scheduler = null;
+			workers = null;
+		}
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+
+		stats.put("tracked", tracked.size());
+		stats.put("running", running.get());
+		stats.put("backing_off", tracked.values().stream()
+			.filter(t -> t.failures > 0).count());
+		stats.put("scans", scans.get());
+		stats.put("refreshes", refreshes.get());
+		stats.put("failures", failures.get());
+
+		return stats;
+	}
+
+	/**
+	 * Loads the persisted items expiring within the horizon, updates their schedule
+	 * and starts the due renewals
+	 */
+	void scan() {
+		scans.incrementAndGet();
+
+		long now = System.currentTimeMillis();
+
+		LocalDateTime horizon = LocalDateTime.now(ZoneOffset.UTC).plusSeconds(
+			settings.horizonSeconds);
+
+		Set<RefreshKey> seen = new HashSet<>();
+
+		try {
+			for (TrustChain trustChain :
+					persistence.findTrustChainsExpiringBefore(horizon)) {
+
+				if (trustChain.getExpiresOn() == null) {
+					continue;
+				}
+
+				RefreshKey key = new RefreshKey(
+					trustChain.getSubject(), trustChain.getTrustAnchor(),
+					trustChain.getType());
+
+				seen.add(key);
+				track(key, toMillis(trustChain.getExpiresOn()), now);
+			}
+
+			// only entity configurations, the statements are renewed with the chains
+
+			for (CachedEntityInfo entityInfo :
+					persistence.findEntityConfigurationsExpiringBefore(horizon)) {
+
+				if (entityInfo.getExpiresOn() == null) {
+					continue;
+				}
+
+				RefreshKey key = new RefreshKey(entityInfo.getSubject(), null, null);
+
+				seen.add(key);
+				track(key, toMillis(entityInfo.getExpiresOn()), now);
+			}
+		}
+		catch (Exception e) {
+			logger.warn("Trust chain refresher scan failed: {}", e.getMessage());
+
+			return;
+		}
+
+		tracked.keySet().retainAll(seen);
+
+		for (Map.Entry<RefreshKey, Tracked> entry : tracked.entrySet()) {
+			Tracked item = entry.getValue();
+
+			if (item.running || item.dueAt > now) {
+				continue;
+			}
+
+			item.running = true;
+			running.incrementAndGet();
+
+			workers.execute(() -> refresh(entry.getKey(), item));
+		}
+	}
+
+	private void track(RefreshKey key, long exp, long now) {
+		Tracked item = tracked.computeIfAbsent(key, k -> new Tracked());
+
+		if (item.exp != exp && !item.running) {
+			item.exp = exp;
+			item.failures = 0;
+			item.dueAt = Math.max(refreshAt(now, exp), item.notBefore);
+		}
+	}
+
+	private void refresh(RefreshKey key, Tracked item) {
+		try {
+			if (key.trustAnchor() != null) {
+				renewer.renew(key.subject(), key.trustAnchor(), key.metadataType());
+			}
+			else {
+				renewEntityConfiguration(key.subject());
+			}
+
+			refreshes.incrementAndGet();
+
+			logger.debug("Refreshed ahead {}", key);
+
+			item.failures = 0;
+			item.notBefore = System.currentTimeMillis() +
+				settings.minIntervalSeconds * 1000;
+			item.dueAt = item.notBefore;
+
+			// rescheduled on the new expiration by the next scan
+
+			item.exp = 0;
+		}
+		catch (Exception e) {
+			failures.incrementAndGet();
+
+			item.failures++;
+
+			long backoff = Math.min(
+				settings.maxBackoffSeconds * 1000,
+				settings.initialBackoffSeconds * 1000 *
+					(1L << Math.min(20, item.failures - 1)));
+
+			item.dueAt = System.currentTimeMillis() + jitter(backoff);
+
+			logger.warn(
+				"Refresh ahead of {} failed {} times, next attempt in {} s: {}", key,
+				item.failures, (item.dueAt - System.currentTimeMillis()) / 1000,
+				e.getMessage());
+		}
+		finally {
+			item.running = false;
+			running.decrementAndGet();
+		}
+	}
+
+	private void renewEntityConfiguration(String subject) throws OIDCException {
+		CachedEntityInfo entityInfo = persistence.fetchEntityInfo(subject, subject);
+
+		EntityConfiguration ec = new EntityConfiguration(
+			EntityHelper.getEntityConfiguration(subject), jwtHelper);
+
+		if (!ec.validateItself()) {
+			throw new OIDCException(
+				"Entity Configuration of " + subject + " is not valid");
+		}
+
+		if (entityInfo != null) {
+			entityInfo.setModifiedDate(LocalDateTime.now());
+			entityInfo
+				.setExpiresOn(ec.getExpiresOn())
+				.setIssuedAt(ec.getIssuedAt())
+				.setStatement(ec.getPayload())
+				.setJwt(ec.getJwt());
+
+			persistence.storeEntityInfo(entityInfo);
+		}
+
+		// the shared cache reads the renewed one on next use
+
+		EntityConfigurationCache.getInstance().invalidate(subject);
+	}
+
+	/**
+	 * @param start when the lifetime is measured from
+	 * @param exp
+	 * @return when an item should be renewed
+	 */
+	private long refreshAt(long start, long exp) {
+		long lifetime = Math.max(0, exp - start);
+
+		return start + (long)(lifetime * settings.refreshRatio) +
+			(long)(lifetime * settings.jitterRatio *
+				(ThreadLocalRandom.current().nextDouble() * 2 - 1));
+	}
+
+	private long jitter(long millis) {
+		return millis + (long)(millis * settings.jitterRatio *
+			ThreadLocalRandom.current().nextDouble());
+	}
+
+	private static long toMillis(LocalDateTime value) {
+
+		// stored as UTC, see TrustChainBuilder.getExpiresOn()
+
+		return value.toInstant(ZoneOffset.UTC).toEpochMilli();
+	}
+
+	/**
+	 * A trust chain, or an entity configuration when {@code trustAnchor} is
+	 * {@code null}
+	 */
+	private record RefreshKey(String subject, String trustAnchor, String metadataType) {
+	}
+
+	private static final class Tracked {
+
+		private volatile long exp;
+		private volatile long dueAt;
+		private volatile long notBefore;
+		private volatile int failures;
+		private volatile boolean running;
+
+	}
+
+	public static class Settings {
+
+		private long scanIntervalSeconds = 60;
+		private long horizonSeconds = 86400;
+		private double refreshRatio = 0.8;
+		private double jitterRatio = 0.05;
+		private int maxConcurrency = 4;
+		private long minIntervalSeconds = 60;
+		private long initialBackoffSeconds = 30;
+		private long maxBackoffSeconds = 1800;
+
+		public Settings setScanIntervalSeconds(long scanIntervalSeconds) {
+			this.scanIntervalSeconds = Math.max(1, scanIntervalSeconds);
+
+			return this;
+		}
+
+		public Settings setHorizonSeconds(long horizonSeconds) {
+			this.horizonSeconds = Math.max(1, horizonSeconds);
+
+			return this;
+		}
+
+		public Settings setRefreshRatio(double refreshRatio) {
+			this.refreshRatio = Math.min(1, Math.max(0, refreshRatio));
+
+			return this;
+		}
+
+		public Settings setJitterRatio(double jitterRatio) {
+			this.jitterRatio = Math.min(1, Math.max(0, jitterRatio));
+
+			return this;
+		}
+
+		public Settings setMaxConcurrency(int maxConcurrency) {
+			this.maxConcurrency = Math.max(1, maxConcurrency);
+
+			return this;
+		}
+
+		public Settings setMinIntervalSeconds(long minIntervalSeconds) {
+			this.minIntervalSeconds = Math.max(0, minIntervalSeconds);
+
+			return this;
+		}
+
+		public Settings setInitialBackoffSeconds(long initialBackoffSeconds) {
+			this.initialBackoffSeconds = Math.max(1, initialBackoffSeconds);
+
+			return this;
+		}
+
+		public Settings setMaxBackoffSeconds(long maxBackoffSeconds) {
+			this.maxBackoffSeconds = Math.max(1, maxBackoffSeconds);
+
+			return this;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+				"scan every %d s within %d s, refresh at %.2f of lifetime +/- %.2f, " +
+				"%d concurrent, min interval %d s, backoff %d-%d s",
+				scanIntervalSeconds, horizonSeconds, refreshRatio, jitterRatio, maxConcurrency,
+				minIntervalSeconds, initialBackoffSeconds, maxBackoffSeconds);
+		}
+
+	}
+
+}
@@ -0,0 +1,248 @@
+package it.ipzs.fedauthority.oidclib.handler;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.ipzs.fedauthority.oidclib.model.TrustChain;
+
+/**
+ * Serves an expired trust chain, previously valid, for a grace period while a single
+ * background refresh rebuilds it ("stale-while-revalidate").
+ * <br/>
+ * The grace period is configured per trust anchor and disabled by default. While it
+ * lasts the login requests keep using the stale chain instead of failing, or of all
+ * running their own discovery, when the federation upstream is slow or down. The
+ * background refresh is retried with an exponential backoff until it succeeds or
+ * the grace period ends.
+ */
+public class TrustChainRevalidator {
+
+	private static final Logger logger = LoggerFactory.getLogger(
+		TrustChainRevalidator.class);
+
+	private final TrustChainRefresher.Renewer renewer;
+	private final Settings settings;
+	private final Set<RevalidationKey> inFlight = ConcurrentHashMap.newKeySet();
+	private final AtomicLong staleServed = new AtomicLong();
+	private final AtomicLong revalidations = new AtomicLong();
+	private final AtomicLong revalidated = new AtomicLong();
+	private final AtomicLong revalidationFailures = new AtomicLong();
+	private final AtomicLong abandoned = new AtomicLong();
+	private final ExecutorService executor;
+
+	public TrustChainRevalidator(
+		TrustChainRefresher.Renewer renewer, Settings settings) {
+
+		AtomicInteger threadCount = new AtomicInteger();
+
+		this.renewer = renewer;
+		this.settings = settings;
+
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(
+			settings.maxConcurrency, settings.maxConcurrency, 60, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<>(), r -> {
+				Thread thread = new Thread(
+					r, "trust-chain-revalidate-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+
+		pool.allowCoreThreadTimeOut(true);
+
+		this.executor = pool;
+	}
+
+	/**
+	 * @param trustChain an expired trust chain
+	 * @return {@code true} if it was valid and it is still within the grace period
+	 * of its trust anchor
+	 */
+	public boolean isServable(TrustChain trustChain) {
+		long graceSeconds = settings.getGraceSeconds(trustChain.getTrustAnchor());
+
+		if (graceSeconds <= 0 || trustChain.getExpiresOn() == null ||
+			!"valid".equals(trustChain.getStatus())) {
+
+			return false;
+		}
+
+		return trustChain.getExpiresOn().plusSeconds(graceSeconds).isAfter(
+			LocalDateTime.now());
+	}
+
+	/**
+	 * Records that a stale trust chain is being served and makes sure a background
+	 * refresh is running for it
+	 *
+	 * @param trustChain a servable trust chain
+	 * @param metadataType the metadata type to rebuild
+	 */
+	public void serveStale(TrustChain trustChain, String metadataType) {
+		staleServed.incrementAndGet();
+
+		logger.warn(
+			"Serving stale trust chain of {} to {}, expired at {}",
+			trustChain.getSubject(), trustChain.getTrustAnchor(),
+			trustChain.getExpiresOn());
+
+		RevalidationKey key = new RevalidationKey(
+			trustChain.getSubject(), trustChain.getTrustAnchor(), metadataType);
+
+		if (inFlight.add(key)) {
+			LocalDateTime graceEnd = trustChain.getExpiresOn().plusSeconds(
+				settings.getGraceSeconds(trustChain.getTrustAnchor()));
+
+			revalidations.incrementAndGet();
+
+			try {
+				executor.execute(() -> revalidate(key, graceEnd));
+			}
+			catch (RuntimeException e) {
+				inFlight.remove(key);
+
+				throw e;
+			}
+		}
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+
+		stats.put("default_grace_seconds", settings.defaultGraceSeconds);
+		stats.put("grace_seconds", settings.graceSeconds);
+		stats.put("in_flight", inFlight.size());
+		stats.put("stale_served", staleServed.get());
+		stats.put("revalidations", revalidations.get());
+		stats.put("revalidated", revalidated.get());
+		stats.put("revalidation_failures", revalidationFailures.get());
+		stats.put("abandoned", abandoned.get());
+
+		return stats;
+	}
+
+	public void stop() {
+		executor.shutdownNow();
+	}
+
+	private void revalidate(RevalidationKey key, LocalDateTime graceEnd) {
+		long backoff = settings.initialBackoffSeconds * 1000;
+
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				try {
+					renewer.renew(key.subject(), key.trustAnchor(), key.metadataType());
+
+					revalidated.incrementAndGet();
+
+					logger.info(
+						"Stale trust chain of {} to {} revalidated", key.subject(),
+						key.trustAnchor());
+
+					return;
+				}
+				catch (Exception e) {
+					revalidationFailures.incrementAndGet();
+
+					logger.warn(
+						"Revalidation of trust chain of {} to {} failed: {}",
+						key.subject(), key.trustAnchor(), e.getMessage());
+				}
+
+				if (LocalDateTime.now().plusNanos(backoff * 1_000_000).isAfter(graceEnd)) {
+					abandoned.incrementAndGet();
+
+					logger.warn(
+						"Grace period of trust chain of {} to {} ends at {}, " +
+						"revalidation abandoned", key.subject(), key.trustAnchor(),
+						graceEnd);
+
+					return;
+				}
+
+				Thread.sleep(backoff);
+
+				backoff = Math.min(settings.maxBackoffSeconds * 1000, backoff * 2);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			inFlight.remove(key);
+		}
+	}
+
+	private record RevalidationKey(
+		String subject, String trustAnchor, String metadataType) {
+	}
+
+	public static class Settings {
+
+		private long defaultGraceSeconds = 0;
+		private Map<String, Long> graceSeconds = new HashMap<>();
+		private int maxConcurrency = 4;
+		private long initialBackoffSeconds = 5;
+		private long maxBackoffSeconds = 300;
+
+		/**
+		 * @param trustAnchor
+		 * @return the grace period of the trust anchor, {@code 0} if disabled
+		 */
+		public long getGraceSeconds(String trustAnchor) {
+			return graceSeconds.getOrDefault(trustAnchor, defaultGraceSeconds);
+		}
+
+		public Settings setDefaultGraceSeconds(long defaultGraceSeconds) {
+			this.defaultGraceSeconds = Math.max(0, defaultGraceSeconds);
+
+			return this;
+		}
+
+		public Settings setGraceSeconds(String trustAnchor, long graceSeconds) {
+			this.graceSeconds.put(trustAnchor, Math.max(0, graceSeconds));
+
+			return this;
+		}
+
+		public Settings setMaxConcurrency(int maxConcurrency) {
+			this.maxConcurrency = Math.max(1, maxConcurrency);
+
+			return this;
+		}
+
+		public Settings setInitialBackoffSeconds(long initialBackoffSeconds) {
+			this.initialBackoffSeconds = Math.max(1, initialBackoffSeconds);
+
+			return this;
+		}
+
+		public Settings setMaxBackoffSeconds(long maxBackoffSeconds) {
+			this.maxBackoffSeconds = Math.max(1, maxBackoffSeconds);
+
+			return this;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+				"default grace %d s, grace by trust anchor %s, %d concurrent, " +
+				"backoff %d-%d s", defaultGraceSeconds, graceSeconds, maxConcurrency,
+				initialBackoffSeconds, maxBackoffSeconds);
+		}
+
+	}
+
+}
@@ -0,0 +1,141 @@
+package it.ipzs.fedauthority.oidclib.helper;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The circuit breaker of a federation host, used by {@link FederationHttpClient}.
+ * <br/>
+ * After {@code failureThreshold} consecutive failures the circuit opens and the
+ * requests to the host are rejected without contacting it. Once the open period
+ * ends, the circuit is half open: a limited number of probe requests is let through,
+ * a successful probe closes the circuit while a failed one opens it again for twice
+ * the previous period, up to {@code maxOpenMillis}.
+ * <br/>
+ * Only the failures of the host count: connection errors, timeouts, {@code 429} and
+ * {@code 5xx} responses. A {@code 404} proves the host is alive.
+ */
+public class CircuitBreaker {
+
+	public enum State { CLOSED, OPEN, HALF_OPEN }
+
+	private final int failureThreshold;
+	private final long openMillis;
+	private final long maxOpenMillis;
+	private final int halfOpenProbes;
+	private State state = State.CLOSED;
+	private int consecutiveFailures;
+	private long currentOpenMillis;
+	private long openUntil;
+	private int probesInFlight;
+	private long opened;
+	private long rejected;
+
+	CircuitBreaker(
+		int failureThreshold, long openMillis, long maxOpenMillis, int halfOpenProbes) {
+
+		this.failureThreshold = Math.max(1, failureThreshold);
+		this.openMillis = Math.max(1, openMillis);
+		this.maxOpenMillis = Math.max(this.openMillis, maxOpenMillis);
+		this.halfOpenProbes = Math.max(1, halfOpenProbes);
+		this.currentOpenMillis = this.openMillis;
+	}
+
+	/**
+	 * @return {@code true} if a request can be sent, then one of {@link #onSuccess()},
+	 * {@link #onFailure()} or {@link #onCancel()} must be called
+	 */
+	public synchronized boolean tryAcquire() {
+		if (!isAllowing()) {
+			rejected++;
+
+			return false;
+		}
+
+		if (state == State.OPEN) {
+			state = State.HALF_OPEN;
+			probesInFlight = 0;
+		}
+
+		if (state == State.HALF_OPEN) {
+			probesInFlight++;
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return {@code true} if a request would be let through now
+	 */
+	public synchronized boolean isAllowing() {
+		switch (state) {
+			case CLOSED:
+				return true;
+			case OPEN:
+				return System.currentTimeMillis() >= openUntil;
+			default:
+				return probesInFlight < halfOpenProbes;
+		}
+	}
+
+	public synchronized void onSuccess() {
+		consecutiveFailures = 0;
+
+		if (state == State.HALF_OPEN) {
+			state = State.CLOSED;
+			probesInFlight = 0;
+			currentOpenMillis = openMillis;
+		}
+	}
+
+	public synchronized void onFailure() {
+		consecutiveFailures++;
+
+		if (state == State.HALF_OPEN) {
+			currentOpenMillis = Math.min(maxOpenMillis, currentOpenMillis * 2);
+
+			open();
+		}
+		else if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+			open();
+		}
+	}
+
+	/**
+	 * Releases a request that has not been sent or whose outcome says nothing about
+	 * the host
+	 */
+	public synchronized void onCancel() {
+		if (state == State.HALF_OPEN && probesInFlight > 0) {
+			probesInFlight--;
+		}
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	public synchronized Map<String, Object> toMap() {
+		Map<String, Object> map = new LinkedHashMap<>();
+
+		map.put("state", state.name().toLowerCase());
+		map.put("consecutive_failures", consecutiveFailures);
+		map.put("opened", opened);
+		map.put("rejected", rejected);
+
+		if (state == State.OPEN) {
+			map.put("open_until", Instant.ofEpochMilli(openUntil).toString());
+		}
+
+		return map;
+	}
+
+	private void open() {
+		state = State.OPEN;
+		openUntil = System.currentTimeMillis() + currentOpenMillis;
+		probesInFlight = 0;
+		opened++;
+	}
+
+}
@@ -0,0 +1,180 @@
+package it.ipzs.fedauthority.oidclib.helper;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.ipzs.fedauthority.oidclib.exception.OIDCException;
+import it.ipzs.fedauthority.oidclib.model.CachedEntityInfo;
+import it.ipzs.fedauthority.oidclib.model.EntityConfiguration;
+import it.ipzs.fedauthority.oidclib.persistence.PersistenceAdapter;
+import it.ipzs.fedauthority.oidclib.util.ExpiringCache;
+import it.ipzs.fedauthority.oidclib.util.SharedInstance;
+
+/**
+ * Process-wide cache of the self-validated entity configurations fetched during
+ * trust chain builds, keyed by the subject they have been requested for.
+ * <br/>
+ * An entity configuration is kept until its own {@code exp}, optionally capped by a
+ * maximum time to live, and the least recently used ones are evicted beyond the
+ * maximum size. Only the parsed token is cached: each build creates its own
+ * {@link EntityConfiguration} from it, so the state collected during a build is never
+ * shared.
+ * <br/>
+ * When a {@link PersistenceAdapter} is set the entity configurations are also stored
+ * with {@link PersistenceAdapter#storeEntityInfo(CachedEntityInfo)}, and looked up
+ * there on a memory miss.
+ */
+public class EntityConfigurationCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(
+		EntityConfigurationCache.class);
+
+	private static final SharedInstance<EntityConfigurationCache> shared =
+		SharedInstance.register(
+			"entity_configuration_cache",
+			() -> new EntityConfigurationCache(10000, 0, null),
+			EntityConfigurationCache::getStats);
+
+	private final ExpiringCache<String, ParsedJWS> cache;
+	private final long maxTtlMillis;
+	private final PersistenceAdapter persistence;
+
+	/**
+	 * @return the shared cache, built with the default settings if
+	 * {@link #configure(int, long, PersistenceAdapter)} has not been called
+	 */
+	public static EntityConfigurationCache getInstance() {
+		return shared.get();
+	}
+
+	/**
+	 * Replaces the shared cache, dropping its content
+	 *
+	 * @param maxEntries
+	 * @param maxTtlSeconds upper bound of the time an entity configuration is kept,
+	 * {@code 0} to rely only on its {@code exp}
+	 * @param persistence where to store the entity configurations, {@code null} to
+	 * keep them only in memory
+	 */
+	public static void configure(
+		int maxEntries, long maxTtlSeconds, PersistenceAdapter persistence) {
+
+		shared.set(
+			new EntityConfigurationCache(maxEntries, maxTtlSeconds, persistence),
+			String.format(
+				"%d entries, max ttl %d s, persistent %s", maxEntries, maxTtlSeconds,
+				persistence != null));
+	}
+
+	private EntityConfigurationCache(
+		int maxEntries, long maxTtlSeconds, PersistenceAdapter persistence) {
+
+		this.cache = new ExpiringCache<>("entity_configuration", maxEntries);
+		this.maxTtlMillis = Math.max(0, maxTtlSeconds) * 1000;
+		this.persistence = persistence;
+	}
+
+	/**
+	 * @param subject
+	 * @return the token of the cached entity configuration, {@code null} if missing or
+	 * expired
+	 */
+	public ParsedJWS get(String subject) {
+		ParsedJWS token = cache.get(subject);
+
+		if (token != null || persistence == null) {
+			return token;
+		}
+
+		try {
+			CachedEntityInfo entityInfo = persistence.fetchEntityInfo(subject, subject);
+
+			if (entityInfo != null && !entityInfo.isExpired()) {
+				token = ParsedJWS.parse(entityInfo.getJwt());
+
+				cache.put(subject, token, expiresAt(token.getPayload().getLong("exp")));
+
+				return token;
+			}
+		}
+		catch (Exception e) {
+			logger.warn("Cannot read cached entity configuration of {}: {}", subject, e);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Caches the entity configuration if it has been validated by itself
+	 *
+	 * @param subject the subject it has been requested for
+	 * @param ec
+	 */
+	public void put(String subject, EntityConfiguration ec) {
+		if (!ec.isValid()) {
+			return;
+		}
+
+		cache.put(subject, ec.getToken(), expiresAt(ec.getExp()));
+
+		if (persistence != null) {
+			store(ec);
+		}
+	}
+
+	public void invalidate(String subject) {
+		cache.invalidate(subject);
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = cache.getStats();
+
+		stats.put("max_ttl_seconds", maxTtlMillis / 1000);
+		stats.put("persistent", persistence != null);
+
+		return stats;
+	}
+
+	private long expiresAt(long exp) {
+		long expiresAt = exp * 1000;
+
+		if (maxTtlMillis > 0) {
+			expiresAt = Math.min(expiresAt, System.currentTimeMillis() + maxTtlMillis);
+		}
+
+		return expiresAt;
+	}
+
+	private void store(EntityConfiguration ec) {
+		try {
+			CachedEntityInfo entityInfo = persistence.fetchEntityInfo(
+				ec.getSubject(), ec.getIssuer());
+
+			if (entityInfo == null) {
+				entityInfo = new CachedEntityInfo()
+					.setIssuer(ec.getIssuer())
+					.setSubject(ec.getSubject());
+			}
+			else {
+				entityInfo.setModifiedDate(LocalDateTime.now());
+			}
+
+			entityInfo
+				.setExpiresOn(LocalDateTime.ofEpochSecond(ec.getExp(), 0, ZoneOffset.UTC))
+				.setIssuedAt(ec.getIssuedAt())
+				.setStatement(ec.getPayload())
+				.setJwt(ec.getJwt());
+
+			persistence.storeEntityInfo(entityInfo);
+		}
+		catch (OIDCException e) {
+			logger.warn(
+				"Cannot store entity configuration of {}: {}", ec.getSubject(), e);
+		}
+	}
+
+}
@@ -1,10 +1,12 @@
 package it.ipzs.fedauthority.oidclib.helper;
 
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,12 +15,21 @@ import it.ipzs.fedauthority.oidclib.GlobalOptions;
 import it.ipzs.fedauthority.oidclib.OidConstants;
 import it.ipzs.fedauthority.oidclib.exception.EntityException;
 import it.ipzs.fedauthority.oidclib.exception.OIDCException;
+import it.ipzs.fedauthority.oidclib.exception.TrustChainException;
+import it.ipzs.fedauthority.oidclib.model.ResolutionBudget;
+import it.ipzs.fedauthority.oidclib.util.SingleFlight;
 import it.ipzs.fedauthority.util.StringUtil;
 
 public class EntityHelper {
 
 	private static final Logger logger = LoggerFactory.getLogger(EntityHelper.class);
 
+	// concurrent requests of the same url share a single download, run apart from
+	// them under its own budget
+
+	private static final SingleFlight<String, String> downloads = new SingleFlight<>(
+		"entity_download");
+
 	@SuppressWarnings("unused")
 	private final GlobalOptions<?> options;
 
@@ -32,15 +43,37 @@ public class EntityHelper {
 	public static String getEntityConfiguration(String subject)
 		throws OIDCException {
 
-		String url = StringUtil.ensureTrailingSlash(
+		return getEntityConfiguration(subject, ResolutionBudget.unlimited());
+	}
+
+	/**
+	 * @param subject the url representing the subject, the federation entity
+	 * @param budget the budget the request is taken from
+	 * @return
+	 * @throws OIDCException
+	 * @see #getEntityConfiguration(String)
+	 */
+	public static String getEntityConfiguration(
+			String subject, ResolutionBudget budget)
+		throws OIDCException {
+
+		String url = getEntityConfigurationURL(subject);
+
+		logger.info("Starting Entity Configuration Request for {}", url);
+
+		return doHttpGet(url, budget);
+	}
+
+	/**
+	 * @param subject the url representing the subject, the federation entity
+	 * @return the url of the subject's entity configuration
+	 */
+	public static String getEntityConfigurationURL(String subject) {
+		return StringUtil.ensureTrailingSlash(
 				subject
 			).concat(
 				OidConstants.OIDC_FEDERATION_WELLKNOWN_URL
 			);
-
-		logger.info("Starting Entity Configuration Request for {}", url);
-
-		return doHttpGet(url);
 	}
 
 	/**
@@ -53,7 +86,14 @@ public class EntityHelper {
 	public static String getEntityStatement(String url) throws OIDCException {
 		logger.info("Starting Entity Statement Request to {}", url);
 
-		return doHttpGet(url);
+		return doHttpGet(url, ResolutionBudget.unlimited());
+	}
+
+	/**
+	 * @return the counters of the coalesced downloads
+	 */
+	public static Map<String, Object> getDownloadStats() {
+		return downloads.getStats();
 	}
 
 	public EntityHelper(GlobalOptions<?> options) {
@@ -61,38 +101,74 @@ public class EntityHelper {
 	}
 
 	/**
+	 * The download is shared with the concurrent requests of the same url, but each
+	 * of them takes a request and the downloaded bytes from its own budget, and
+	 * waits for the download until its own deadline. A caller giving up does not
+	 * interrupt the download for the others.
 	 *
 	 * @param url
+	 * @param budget
 	 * @return
 	 * @throws OIDCException
 	 */
-	private static String doHttpGet(String url) throws OIDCException {
-		try {
-			HttpRequest request = HttpRequest.newBuilder()
-				.uri(new URI(url))
-				.GET()
-				.build();
+	private static String doHttpGet(String url, ResolutionBudget budget)
+		throws OIDCException {
 
-			HttpResponse<String> response = HttpClient.newBuilder()
-				.followRedirects(HttpClient.Redirect.NORMAL)
-				.build()
-				.send(request, BodyHandlers.ofString());
+		budget.acquireRequest(url);
 
-			logger.debug("{} --> {}", url, response.statusCode());
+		FederationHttpClient client = FederationHttpClient.getInstance();
 
-			if (response.statusCode() != 200) {
-				throw new EntityException.Generic(url + " gets " + response.statusCode());
-			}
+		CompletableFuture<String> download = downloads.submit(
+			url, () -> client.get(url, ResolutionBudget.newDefault()),
+			client.getFetchExecutor());
 
-			return response.body();
+		String body;
+
+		try {
+			long remainingMillis = budget.getRemainingMillis();
+
+			if (remainingMillis == Long.MAX_VALUE) {
+				body = download.get();
+			}
+			else {
+				body = download.get(remainingMillis, TimeUnit.MILLISECONDS);
+			}
 		}
-		catch (EntityException e) {
-			throw e;
+		catch (TimeoutException e) {
+			download.cancel(false);
+			budget.expire();
+
+			throw new TrustChainException.BudgetExhausted(
+				budget.getExhausted(), url + " not downloaded in time");
 		}
-		catch (Exception e) {
-			logger.error(url);
+		catch (InterruptedException e) {
+			download.cancel(false);
+			Thread.currentThread().interrupt();
+
 			throw new EntityException.Generic(e);
 		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			if (cause instanceof OIDCException) {
+				throw (OIDCException)cause;
+			}
+			else if (cause instanceof RejectedExecutionException) {
+				throw new EntityException.Unavailable(
+					"every fetch thread is busy, " + url + " not downloaded");
+			}
+			else if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+
+			throw new EntityException.Generic(cause);
+		}
+
+		if (body != null) {
+			budget.addBytes(body.getBytes(StandardCharsets.UTF_8).length);
+		}
+
+		return body;
 	}
 
 }
@@ -0,0 +1,200 @@
+package it.ipzs.fedauthority.oidclib.helper;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.ipzs.fedauthority.oidclib.exception.OIDCException;
+import it.ipzs.fedauthority.oidclib.model.ResolutionBudget;
+import it.ipzs.fedauthority.oidclib.util.ExpiringCache;
+import it.ipzs.fedauthority.oidclib.util.SharedInstance;
+import it.ipzs.fedauthority.util.StringUtil;
+
+/**
+ * Process-wide cache of the subordinate entity statements fetched from the superiors
+ * during trust chain builds, keyed by the (iss, sub) pair.
+ * <br/>
+ * A statement is kept until its own {@code exp}. Once older than the revalidation
+ * interval it is revalidated against the superior's fetch endpoint with
+ * {@code If-None-Match}, so that a statement that has not changed costs a
+ * {@code 304} instead of a full download. Statements served without an ETag are
+ * downloaded again.
+ */
+public class EntityStatementCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(
+		EntityStatementCache.class);
+
+	private static final SharedInstance<EntityStatementCache> shared =
+		SharedInstance.register(
+			"entity_statement_cache", () -> new EntityStatementCache(10000, 0),
+			EntityStatementCache::getStats);
+
+	private final ExpiringCache<StatementKey, CachedStatement> cache;
+	private final long revalidateMillis;
+	private final AtomicLong fresh = new AtomicLong();
+	private final AtomicLong notModified = new AtomicLong();
+	private final AtomicLong downloads = new AtomicLong();
+
+	/**
+	 * @return the shared cache, built with the default settings if
+	 * {@link #configure(int, long)} has not been called
+	 */
+	public static EntityStatementCache getInstance() {
+		return shared.get();
+	}
+
+	/**
+	 * Replaces the shared cache, dropping its content
+	 *
+	 * @param maxEntries
+	 * @param revalidateSeconds how long a statement is served without contacting its
+	 * issuer, {@code 0} to revalidate it on every use
+	 */
+	public static void configure(int maxEntries, long revalidateSeconds) {
+		shared.set(
+			new EntityStatementCache(maxEntries, revalidateSeconds), String.format(
+				"%d entries, revalidate after %d s", maxEntries, revalidateSeconds));
+	}
+
+	private EntityStatementCache(int maxEntries, long revalidateSeconds) {
+		this.cache = new ExpiringCache<>("entity_statement", maxEntries);
+		this.revalidateMillis = Math.max(0, revalidateSeconds) * 1000;
+	}
+
+	/**
+	 * Gets the statement issued by {@code iss} about {@code sub}, from the cache if
+	 * still current
+	 *
+	 * @param iss the superior
+	 * @param sub the subject of the statement
+	 * @param url the superior's fetch endpoint for {@code sub}
+	 * @return the JWT of the statement
+	 * @throws OIDCException
+	 */
+	public String getEntityStatement(String iss, String sub, String url)
+		throws OIDCException {
+
+		return getEntityStatement(iss, sub, url, ResolutionBudget.unlimited());
+	}
+
+	/**
+	 * @param iss the superior
+	 * @param sub the subject of the statement
+	 * @param url the superior's fetch endpoint for {@code sub}
+	 * @param budget the budget the request is taken from, if one is needed
+	 * @return the JWT of the statement
+	 * @throws OIDCException
+	 * @see #getEntityStatement(String, String, String)
+	 */
+	public String getEntityStatement(
+			String iss, String sub, String url, ResolutionBudget budget)
+		throws OIDCException {
+
+		StatementKey key = StatementKey.of(iss, sub);
+
+		CachedStatement cached = cache.get(key);
+
+		long now = System.currentTimeMillis();
+
+		if (cached != null && now - cached.checkedAt < revalidateMillis) {
+			fresh.incrementAndGet();
+
+			return cached.jwt;
+		}
+
+		logger.info("Starting Entity Statement Request to {}", url);
+
+		FederationHttpClient.ConditionalResponse response =
+			FederationHttpClient.getInstance().get(
+				url, cached != null ? cached.etag : null, budget);
+
+		if (response.notModified()) {
+			notModified.incrementAndGet();
+
+			cached.checkedAt = now;
+
+			return cached.jwt;
+		}
+
+		downloads.incrementAndGet();
+
+		put(key, response.body(), response.etag(), now);
+
+		return response.body();
+	}
+
+	/**
+	 * @param iss
+	 * @param sub
+	 * @return {@code true} if the statement would be served without contacting its
+	 * issuer
+	 */
+	public boolean isFresh(String iss, String sub) {
+		CachedStatement cached = cache.get(StatementKey.of(iss, sub));
+
+		return cached != null &&
+			System.currentTimeMillis() - cached.checkedAt < revalidateMillis;
+	}
+
+	/**
+	 * Drops a statement that failed validation
+	 *
+	 * @param iss
+	 * @param sub
+	 */
+	public void invalidate(String iss, String sub) {
+		cache.invalidate(StatementKey.of(iss, sub));
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = cache.getStats();
+
+		stats.put("revalidate_seconds", revalidateMillis / 1000);
+		stats.put("fresh", fresh.get());
+		stats.put("not_modified", notModified.get());
+		stats.put("downloads", downloads.get());
+
+		return stats;
+	}
+
+	private void put(StatementKey key, String jwt, String etag, long now) {
+		try {
+			long exp = JWTHelper.fastParsePayload(jwt).getLong("exp");
+
+			cache.put(key, new CachedStatement(jwt, etag, now), exp * 1000);
+		}
+		catch (Exception e) {
+
+			// not cached, it will fail validation anyway
+
+			logger.debug("Entity statement {} not cached: {}", key, e.getMessage());
+		}
+	}
+
+	private static final class CachedStatement {
+
+		private final String jwt;
+		private final String etag;
+		private volatile long checkedAt;
+
+		private CachedStatement(String jwt, String etag, long checkedAt) {
+			this.jwt = jwt;
+			this.etag = etag;
+			this.checkedAt = checkedAt;
+		}
+
+	}
+
+	private record StatementKey(String iss, String sub) {
+
+		static StatementKey of(String iss, String sub) {
+			return new StatementKey(
+				StringUtil.canonicalizeUrl(iss), StringUtil.canonicalizeUrl(sub));
+		}
+
+	}
+
+}
@@ -0,0 +1,930 @@
+package it.ipzs.fedauthority.oidclib.helper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.ipzs.fedauthority.oidclib.exception.EntityException;
+import it.ipzs.fedauthority.oidclib.exception.OIDCException;
+import it.ipzs.fedauthority.oidclib.exception.TrustChainException;
+import it.ipzs.fedauthority.oidclib.model.ResolutionBudget;
+import it.ipzs.fedauthority.oidclib.util.ExpiringCache;
+
+/**
+ * The HTTP client used for every outbound federation request: entity configurations,
+ * entity statements and remote JWKS.
+ * <br/>
+ * A single {@link HttpClient} is shared so that connections, HTTP/2 streams and TLS
+ * sessions are reused during trust chain walks. The requests in flight towards each
+ * host are bounded, and the latency of each host is tracked. Independent fetches can
+ * be run concurrently with {@link #invokeAll(List)}: the threads are shared by all
+ * the callers, but each call runs at most {@code fetch-parallelism} of its fetches at
+ * a time and none of them waits in a queue behind the fetches of other callers. The
+ * fetches never run on the calling thread: when all the {@code fetch-threads} are
+ * busy they fail at once with {@link EntityException.Unavailable}.
+ * <br/>
+ * Each host has a {@link CircuitBreaker}, so that a host that keeps failing is not
+ * contacted until its open period ends, and each failed url is remembered for a
+ * short time: in both cases the request fails at once with
+ * {@link EntityException.Unavailable} instead of waiting for the timeouts again.
+ */
+public class FederationHttpClient {
+
+	private static final Logger logger = LoggerFactory.getLogger(
+		FederationHttpClient.class);
+
+	private static volatile FederationHttpClient instance;
+
+	private final HttpClient client;
+	private final ExecutorService executor;
+	private final ExecutorService fetchExecutor;
+	private final Duration requestTimeout;
+	private final int maxConnectionsPerHost;
+	private final Settings settings;
+	private final ExpiringCache<String, String> failedUrls;
+	private final Map<String, HostStats> hosts = new ConcurrentHashMap<>();
+
+	/**
+	 * @return the shared client, built with the default settings if
+	 * {@link #configure(Settings)} has not been called
+	 */
+	public static FederationHttpClient getInstance() {
+		FederationHttpClient current = instance;
+
+		if (current == null) {
+			synchronized (FederationHttpClient.class) {
+				current = instance;
+
+				if (current == null) {
+					current = new FederationHttpClient(new Settings());
+					instance = current;
+				}
+			}
+		}
+
+		return current;
+	}
+
+	/**
+	 * Replaces the shared client. The previous one is shut down: the requests and the
+	 * fetches in flight on it are completed, then its threads terminate.
+	 *
+	 * @param settings
+	 */
+	public static synchronized void configure(Settings settings) {
+		FederationHttpClient previous = instance;
+
+		instance = new FederationHttpClient(settings);
+
+		if (previous != null) {
+			previous.shutdown();
+		}
+
+		logger.info("federation http client configured: {}", settings);
+	}
+
+	private FederationHttpClient(Settings settings) {
+		ExecutorService pool = newPool(settings.executorThreads, "federation-http-");
+
+		this.executor = pool;
+		this.fetchExecutor = newFetchPool(settings.fetchThreads);
+		this.requestTimeout = Duration.ofMillis(settings.requestTimeoutMillis);
+		this.maxConnectionsPerHost = Math.max(1, settings.maxConnectionsPerHost);
+		this.settings = settings;
+		this.failedUrls = new ExpiringCache<>(
+			"failed_fetch", settings.negativeCacheMaxEntries);
+		this.client = HttpClient.newBuilder()
+			.version(settings.http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+			.connectTimeout(Duration.ofMillis(settings.connectTimeoutMillis))
+			.followRedirects(HttpClient.Redirect.NORMAL)
+			.executor(pool)
+			.build();
+	}
+
+	/**
+	 * @param url
+	 * @return the body of the response
+	 * @throws OIDCException if the request fails or the response status is not 200
+	 */
+	public String get(String url) throws OIDCException {
+		return get(url, ResolutionBudget.unlimited());
+	}
+
+	/**
+	 * @param url
+	 * @param budget the budget the request is taken from
+	 * @return the body of the response
+	 * @throws OIDCException if the request fails, the response status is not 200 or
+	 * the budget is exhausted
+	 */
+	public String get(String url, ResolutionBudget budget) throws OIDCException {
+		return send(url, null, budget).body();
+	}
+
+	/**
+	 * Revalidates a cached representation with {@code If-None-Match}
+	 *
+	 * @param url
+	 * @param etag the entity tag of the cached representation, {@code null} to make
+	 * an unconditional request
+	 * @return the response, not modified only if {@code etag} is not {@code null}
+	 * @throws OIDCException if the request fails or the response status is neither
+	 * 200 nor 304
+	 */
+	public ConditionalResponse get(String url, String etag) throws OIDCException {
+		return get(url, etag, ResolutionBudget.unlimited());
+	}
+
+	/**
+	 * @param url
+	 * @param etag
+	 * @param budget the budget the request is taken from
+	 * @return the response, not modified only if {@code etag} is not {@code null}
+	 * @throws OIDCException if the request fails, the response status is neither 200
+	 * nor 304 or the budget is exhausted
+	 * @see #get(String, String)
+	 */
+	public ConditionalResponse get(String url, String etag, ResolutionBudget budget)
+		throws OIDCException {
+
+		HttpResponse<String> response = send(url, etag, budget);
+
+		if (response.statusCode() == 304) {
+			return new ConditionalResponse(true, null, etag);
+		}
+
+		return new ConditionalResponse(
+			false, response.body(), response.headers().firstValue("ETag").orElse(null));
+	}
+
+	private HttpResponse<String> send(
+			String url, String etag, ResolutionBudget budget)
+		throws OIDCException {
+
+		URI uri;
+
+		try {
+			uri = new URI(url);
+		}
+		catch (Exception e) {
+			logger.error(url);
+			throw new EntityException.Generic(e);
+		}
+
+		String failure = failedUrls.get(url);
+
+		if (failure != null) {
+			throw new EntityException.Unavailable(url + " recently failed: " + failure);
+		}
+
+		budget.acquireRequest(url);
+
+		HostStats stats = getHostStats(uri.getHost());
+
+		if (!stats.breaker.tryAcquire()) {
+			throw new EntityException.Unavailable(
+				"circuit open for " + uri.getHost() + ", " + url + " not requested");
+		}
+
+		boolean acquired = false;
+		long start = System.nanoTime();
+		boolean success = false;
+		boolean hostFailure = false;
+		boolean aborted = false;
+		int status = -1;
+		String error = null;
+
+		// the deadline of the budget shortens the timeout
+
+		long timeoutMillis = requestTimeout.toMillis();
+
+		if (budget.getRemainingMillis() < timeoutMillis) {
+			timeoutMillis = Math.max(1, budget.getRemainingMillis());
+		}
+
+		try {
+			acquired = stats.permits.tryAcquire(
+				timeoutMillis, TimeUnit.MILLISECONDS);
+
+			// the wait for a permit is part of the request timeout
+
+			long leftMillis = timeoutMillis - TimeUnit.NANOSECONDS.toMillis(
+				System.nanoTime() - start);
+
+			if (acquired && leftMillis <= 0) {
+				stats.permits.release();
+				acquired = false;
+			}
+
+			if (!acquired) {
+				throw new EntityException.Generic(
+					"too many concurrent requests to " + uri.getHost());
+			}
+
+			HttpRequest.Builder builder = HttpRequest.newBuilder()
+				.uri(uri)
+				.timeout(Duration.ofMillis(leftMillis))
+				.GET();
+
+			if (etag != null) {
+				builder.header("If-None-Match", etag);
+			}
+
+			HttpResponse<String> response = client.send(
+				builder.build(), getBodyHandler(budget));
+
+			status = response.statusCode();
+
+			if (response.body() == null) {
+
+				// not downloaded, its declared length exceeds the budget
+
+				budget.addBytes(response.headers()
+					.firstValueAsLong("Content-Length").orElse(0));
+			}
+
+			logger.debug("{} --> {}", url, status);
+
+			if (etag != null && status == 304) {
+				stats.notModified.incrementAndGet();
+			}
+			else if (status != 200) {
+				hostFailure = status == 429 || status >= 500;
+
+				throw new EntityException.Generic(url + " gets " + status);
+			}
+
+			success = true;
+
+			return response;
+		}
+		catch (EntityException e) {
+			error = e.getMessage();
+			throw e;
+		}
+		catch (TrustChainException.BudgetExhausted e) {
+			aborted = true;
+			throw e;
+		}
+		catch (IOException e) {
+			if (e instanceof HttpTimeoutException) {
+				if (budget.getRemainingMillis() == 0) {
+
+					// cut by the deadline, the host may be just slow
+
+					aborted = true;
+					budget.expire();
+				}
+				else {
+					hostFailure = true;
+					error = e.toString();
+				}
+			}
+			else if (getBudgetExhausted(e) != null) {
+
+				// the body has been cut while downloaded
+
+				aborted = true;
+				throw getBudgetExhausted(e);
+			}
+			else {
+				hostFailure = true;
+				error = e.toString();
+			}
+
+			logger.error(url);
+			throw new EntityException.Generic(e);
+		}
+		catch (InterruptedException e) {
+			aborted = true;
+			Thread.currentThread().interrupt();
+			logger.error(url);
+			throw new EntityException.Generic(e);
+		}
+		catch (Exception e) {
+			hostFailure = true;
+			error = e.toString();
+			logger.error(url);
+			throw new EntityException.Generic(e);
+		}
+		finally {
+			if (acquired) {
+				stats.permits.release();
+				stats.record(System.nanoTime() - start, success);
+			}
+			else {
+				stats.rejected.incrementAndGet();
+			}
+
+			if (hostFailure) {
+				stats.breaker.onFailure();
+			}
+			else if (status >= 0 && !aborted) {
+				stats.breaker.onSuccess();
+			}
+			else {
+				stats.breaker.onCancel();
+			}
+
+			if (!success && acquired && !aborted &&
+					settings.negativeTtlSeconds > 0) {
+
+				failedUrls.put(
+					url, error, System.currentTimeMillis() +
+						settings.negativeTtlSeconds * 1000);
+			}
+		}
+	}
+
+	/**
+	 * @param url
+	 * @return {@code false} if a request to the url would be rejected at once, because
+	 * its host circuit is open or it has just failed
+	 */
+	public boolean isAvailable(String url) {
+		try {
+			String host = new URI(url).getHost();
+
+			HostStats stats = hosts.get(String.valueOf(host));
+
+			if (stats != null && !stats.breaker.isAllowing()) {
+				return false;
+			}
+		}
+		catch (Exception e) {
+			return true;
+		}
+
+		return failedUrls.get(url) == null;
+	}
+
+	/**
+	 * @return the circuit breaker of each contacted host, and the recently failed urls
+	 */
+	public Map<String, Object> getCircuitBreakers() {
+		Map<String, Object> result = new LinkedHashMap<>();
+		Map<String, Object> breakers = new TreeMap<>();
+
+		hosts.forEach((host, stats) -> breakers.put(host, stats.breaker.toMap()));
+
+		result.put("hosts", breakers);
+		result.put("failed_urls", failedUrls.getStats());
+
+		return result;
+	}
+
+	/**
+	 * Runs the tasks concurrently, at most {@code fetch-parallelism} at a time, and
+	 * waits for all of them. A single task is run on the calling thread.
+	 *
+	 * @param <T>
+	 * @param tasks usually outbound requests and the parsing of their responses
+	 * @return the completed futures, in the same order of {@code tasks}
+	 * @throws InterruptedException
+	 */
+	public <T> List<Future<T>> invokeAll(List<? extends Callable<T>> tasks)
+		throws InterruptedException {
+
+		if (tasks.size() == 1) {
+
+			// no point in handing a single task over to another thread
+
+			FutureTask<T> task = new FutureTask<>(tasks.get(0));
+
+			task.run();
+
+			return List.of(task);
+		}
+
+		List<Future<T>> futures = submitAll(tasks, null);
+
+		try {
+			for (Future<T> future : futures) {
+				try {
+					future.get();
+				}
+				catch (ExecutionException | CancellationException e) {
+
+					// reported by the future itself
+
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			futures.forEach(future -> future.cancel(true));
+
+			throw e;
+		}
+
+		return futures;
+	}
+
+	/**
+	 * Runs the tasks concurrently, as {@link #invokeAll(List)}, within the budget:
+	 * the tasks still running when the deadline passes or when a limit is exhausted
+	 * are cancelled. The tasks are tracked by the budget before any of them starts,
+	 * and none of them runs on the calling thread, so that all of them can be
+	 * cancelled.
+	 *
+	 * @param <T>
+	 * @param tasks usually outbound requests taken from the same budget
+	 * @param budget
+	 * @return the futures, in the same order of {@code tasks}, done or cancelled
+	 * @throws InterruptedException
+	 */
+	public <T> List<Future<T>> invokeAll(
+			List<? extends Callable<T>> tasks, ResolutionBudget budget)
+		throws InterruptedException {
+
+		List<Future<T>> futures = submitAll(tasks, budget);
+
+		try {
+			for (Future<T> future : futures) {
+				try {
+					future.get(budget.getRemainingMillis(), TimeUnit.MILLISECONDS);
+				}
+				catch (ExecutionException | CancellationException e) {
+
+					// reported by the future itself
+
+				}
+				catch (TimeoutException e) {
+					budget.expire();
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			futures.forEach(future -> future.cancel(true));
+
+			throw e;
+		}
+		finally {
+			budget.untrack(futures);
+		}
+
+		return futures;
+	}
+
+	/**
+	 * @return the threads the fetches of {@link #invokeAll(List)} run on, also used to
+	 * run a fetch apart from the thread waiting for it
+	 */
+	public Executor getFetchExecutor() {
+		return fetchExecutor;
+	}
+
+	/**
+	 * Hands the tasks over to at most {@code fetch-parallelism} workers, each running
+	 * them one after another from a queue of this call only. If no worker can be
+	 * started, because every fetch thread is busy, the tasks fail at once.
+	 *
+	 * @param <T>
+	 * @param tasks
+	 * @param budget tracks the futures before the workers start, may be {@code null}
+	 * @return the futures, in the same order of {@code tasks}
+	 */
+	private <T> List<Future<T>> submitAll(
+		List<? extends Callable<T>> tasks, ResolutionBudget budget) {
+
+		List<Future<T>> futures = new ArrayList<>(tasks.size());
+		Queue<FetchTask<T>> pending = new ConcurrentLinkedQueue<>();
+
+		for (Callable<T> task : tasks) {
+			FetchTask<T> future = new FetchTask<>(task);
+
+			futures.add(future);
+			pending.add(future);
+		}
+
+		if (budget != null) {
+			budget.track(futures);
+		}
+
+		int workers = Math.min(settings.fetchParallelism, tasks.size());
+		int started = 0;
+
+		for (int x = 0; x < workers; x++) {
+			try {
+				fetchExecutor.execute(() -> {
+					FetchTask<T> future;
+
+					while ((future = pending.poll()) != null) {
+
+						// a previous task may have been cancelled while running
+
+						Thread.interrupted();
+
+						future.run();
+					}
+				});
+
+				started++;
+			}
+			catch (RejectedExecutionException e) {
+
+				// the workers already started run the remaining tasks
+
+				break;
+			}
+		}
+
+		if (started == 0) {
+			logger.warn(
+				"every fetch thread is busy, {} fetches rejected", pending.size());
+
+			FetchTask<T> future;
+
+			while ((future = pending.poll()) != null) {
+				future.reject(new EntityException.Unavailable(
+					"every fetch thread is busy"));
+			}
+		}
+
+		return futures;
+	}
+
+	private void shutdown() {
+		fetchExecutor.shutdown();
+		executor.shutdown();
+	}
+
+	/**
+	 * @return latency and outcome counters of each contacted host
+	 */
+	public Map<String, Object> getStats() {
+		Map<String, Object> result = new TreeMap<>();
+
+		hosts.forEach((host, stats) -> result.put(host, stats.toMap()));
+
+		return result;
+	}
+
+	/**
+	 * @param budget
+	 * @return a handler that does not read a body whose declared length exceeds the
+	 * bytes left in the budget, and that takes the bytes of the other bodies from the
+	 * budget while they are read, so that a chunked body is cut once it exceeds it
+	 */
+	private static BodyHandler<String> getBodyHandler(ResolutionBudget budget) {
+		return responseInfo -> {
+			long length = responseInfo.headers()
+				.firstValueAsLong("Content-Length").orElse(-1);
+
+			if (length > budget.getRemainingBytes()) {
+				return BodySubscribers.replacing(null);
+			}
+
+			return new CountingBodySubscriber<>(
+				BodyHandlers.ofString().apply(responseInfo), budget);
+		};
+	}
+
+	private static TrustChainException.BudgetExhausted getBudgetExhausted(
+		Throwable t) {
+
+		for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+			if (cause instanceof TrustChainException.BudgetExhausted) {
+				return (TrustChainException.BudgetExhausted)cause;
+			}
+		}
+
+		return null;
+	}
+
+	private HostStats getHostStats(String host) {
+		return hosts.computeIfAbsent(
+			String.valueOf(host), h -> new HostStats(
+				maxConnectionsPerHost, new CircuitBreaker(
+					settings.failureThreshold, settings.openSeconds * 1000,
+					settings.maxOpenSeconds * 1000, settings.halfOpenProbes)));
+	}
+
+	/**
+	 * The threads of {@link #submitAll(List, ResolutionBudget)}: created when needed
+	 * up to {@code fetch-threads} and released when idle, without a queue. A task
+	 * submitted while all of them are busy is rejected.
+	 */
+	private static ExecutorService newFetchPool(int threads) {
+		AtomicInteger threadCount = new AtomicInteger();
+
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(
+			0, threads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+				Thread thread = new Thread(
+					r, "federation-fetch-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}, new ThreadPoolExecutor.AbortPolicy());
+
+		return pool;
+	}
+
+	private static ExecutorService newPool(int threads, String namePrefix) {
+		AtomicInteger threadCount = new AtomicInteger();
+
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(
+			threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+				Thread thread = new Thread(
+					r, namePrefix + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+
+		pool.allowCoreThreadTimeOut(true);
+
+		return pool;
+	}
+
+	/**
+	 * A fetch of {@link #submitAll(List, ResolutionBudget)}, which can be failed
+	 * without being run
+	 */
+	private static final class FetchTask<T> extends FutureTask<T> {
+
+		private FetchTask(Callable<T> callable) {
+			super(callable);
+		}
+
+		private void reject(Exception e) {
+			setException(e);
+		}
+
+	}
+
+	/**
+	 * Takes the bytes of a body from the budget as they arrive, and cancels the
+	 * download once the budget is exhausted
+	 */
+	private static final class CountingBodySubscriber<T>
+		implements HttpResponse.BodySubscriber<T> {
+
+		private final HttpResponse.BodySubscriber<T> delegate;
+		private final ResolutionBudget budget;
+		private Flow.Subscription subscription;
+		private boolean exhausted;
+
+		private CountingBodySubscriber(
+			HttpResponse.BodySubscriber<T> delegate, ResolutionBudget budget) {
+
+			this.delegate = delegate;
+			this.budget = budget;
+		}
+
+		@Override
+		public CompletionStage<T> getBody() {
+			return delegate.getBody();
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+
+			delegate.onSubscribe(subscription);
+		}
+
+		@Override
+		public void onNext(List<ByteBuffer> items) {
+			if (exhausted) {
+				return;
+			}
+
+			long count = 0;
+
+			for (ByteBuffer item : items) {
+				count += item.remaining();
+			}
+
+			try {
+				budget.addBytes(count);
+			}
+			catch (TrustChainException.BudgetExhausted e) {
+				exhausted = true;
+
+				subscription.cancel();
+				delegate.onError(e);
+
+				return;
+			}
+
+			delegate.onNext(items);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			if (!exhausted) {
+				delegate.onError(throwable);
+			}
+		}
+
+		@Override
+		public void onComplete() {
+			if (!exhausted) {
+				delegate.onComplete();
+			}
+		}
+
+	}
+
+	private static final class HostStats {
+
+		private final Semaphore permits;
+		private final CircuitBreaker breaker;
+		private final AtomicLong requests = new AtomicLong();
+		private final AtomicLong errors = new AtomicLong();
+		private final AtomicLong rejected = new AtomicLong();
+		private final AtomicLong notModified = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+		private final AtomicLong maxNanos = new AtomicLong();
+		private volatile long lastNanos;
+
+		private HostStats(int maxConnections, CircuitBreaker breaker) {
+			this.permits = new Semaphore(maxConnections);
+			this.breaker = breaker;
+		}
+
+		private void record(long nanos, boolean success) {
+			requests.incrementAndGet();
+
+			if (!success) {
+				errors.incrementAndGet();
+			}
+
+			totalNanos.addAndGet(nanos);
+			maxNanos.accumulateAndGet(nanos, Math::max);
+			lastNanos = nanos;
+		}
+
+		private Map<String, Object> toMap() {
+			Map<String, Object> map = new LinkedHashMap<>();
+			long count = requests.get();
+
+			map.put("requests", count);
+			map.put("errors", errors.get());
+			map.put("rejected", rejected.get());
+			map.put("not_modified", notModified.get());
+			map.put("avg_ms", count > 0 ? totalNanos.get() / count / 1_000_000d : 0d);
+			map.put("max_ms", maxNanos.get() / 1_000_000d);
+			map.put("last_ms", lastNanos / 1_000_000d);
+			map.put("circuit", breaker.getState().name().toLowerCase());
+
+			return map;
+		}
+
+	}
+
+	/**
+	 * The outcome of a conditional request
+	 *
+	 * @param notModified {@code true} if the cached representation is still current
+	 * @param body the new representation, {@code null} if not modified
+	 * @param etag the entity tag of the current representation, if any
+	 */
+	public record ConditionalResponse(boolean notModified, String body, String etag) {
+	}
+
+	public static class Settings {
+
+		private long connectTimeoutMillis = 5000;
+		private long requestTimeoutMillis = 10000;
+		private int maxConnectionsPerHost = 8;
+		private int executorThreads = 16;
+		private int fetchParallelism = 8;
+		private int fetchThreads = 64;
+		private boolean http2 = true;
+		private int failureThreshold = 5;
+		private long openSeconds = 30;
+		private long maxOpenSeconds = 300;
+		private int halfOpenProbes = 1;
+		private long negativeTtlSeconds = 10;
+		private int negativeCacheMaxEntries = 10000;
+
+		public Settings setConnectTimeoutMillis(long connectTimeoutMillis) {
+			this.connectTimeoutMillis = connectTimeoutMillis;
+
+			return this;
+		}
+
+		public Settings setRequestTimeoutMillis(long requestTimeoutMillis) {
+			this.requestTimeoutMillis = requestTimeoutMillis;
+
+			return this;
+		}
+
+		public Settings setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+			this.maxConnectionsPerHost = maxConnectionsPerHost;
+
+			return this;
+		}
+
+		public Settings setExecutorThreads(int executorThreads) {
+			this.executorThreads = Math.max(1, executorThreads);
+
+			return this;
+		}
+
+		public Settings setFetchParallelism(int fetchParallelism) {
+			this.fetchParallelism = Math.max(1, fetchParallelism);
+
+			return this;
+		}
+
+		public Settings setFetchThreads(int fetchThreads) {
+			this.fetchThreads = Math.max(1, fetchThreads);
+
+			return this;
+		}
+
+		public Settings setHttp2(boolean http2) {
+			this.http2 = http2;
+
+			return this;
+		}
+
+		public Settings setFailureThreshold(int failureThreshold) {
+			this.failureThreshold = Math.max(1, failureThreshold);
+
+			return this;
+		}
+
+		public Settings setOpenSeconds(long openSeconds) {
+			this.openSeconds = Math.max(1, openSeconds);
+
+			return this;
+		}
+
+		public Settings setMaxOpenSeconds(long maxOpenSeconds) {
+			this.maxOpenSeconds = Math.max(1, maxOpenSeconds);
+
+			return this;
+		}
+
+		public Settings setHalfOpenProbes(int halfOpenProbes) {
+			this.halfOpenProbes = Math.max(1, halfOpenProbes);
+
+			return this;
+		}
+
+		public Settings setNegativeTtlSeconds(long negativeTtlSeconds) {
+			this.negativeTtlSeconds = Math.max(0, negativeTtlSeconds);
+
+			return this;
+		}
+
+		public Settings setNegativeCacheMaxEntries(int negativeCacheMaxEntries) {
+			this.negativeCacheMaxEntries = Math.max(1, negativeCacheMaxEntries);
+
+			return this;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+				"connect timeout %d ms, request timeout %d ms, %d connections per host, " +
+				"%d threads, %d parallel fetches per call on %d threads, http2 %s, " +
+				"circuit opens after %d failures for %d-%d s with %d probes, " +
+				"failed urls remembered %d s",
+				connectTimeoutMillis, requestTimeoutMillis, maxConnectionsPerHost,
+				executorThreads, fetchParallelism, fetchThreads, http2,
+				failureThreshold, openSeconds, maxOpenSeconds, halfOpenProbes,
+				negativeTtlSeconds);
+		}
+
+	}
+
+}
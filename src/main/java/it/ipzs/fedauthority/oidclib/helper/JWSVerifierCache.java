@@ -0,0 +1,174 @@
+package it.ipzs.fedauthority.oidclib.helper;
+
+import java.util.Map;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.crypto.bc.BouncyCastleProviderSingleton;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.RSAKey;
+
+import it.ipzs.fedauthority.oidclib.exception.JWTException;
+import it.ipzs.fedauthority.oidclib.exception.OIDCException;
+import it.ipzs.fedauthority.oidclib.util.ExpiringCache;
+import it.ipzs.fedauthority.oidclib.util.SharedInstance;
+
+/**
+ * Process-wide cache of the {@link JWSVerifier}s used by {@link JWTHelper}, keyed by
+ * the thumbprint of the public key and by the algorithm.
+ * <br/>
+ * The conversion of a JWK into a JCA public key, and the checks done by the verifier
+ * constructors, run once per key instead of once per verification. RSA keys are
+ * used for the RS* and PS* algorithms, EC keys for the ES* algorithm matching their
+ * curve. The verifiers use the default JCA providers, or BouncyCastle when
+ * configured with {@link Provider#BOUNCY_CASTLE}.
+ * <br/>
+ * A verifier is dropped after a maximum age, so that the ones of keys rotated out of
+ * the federation do not stay in memory until evicted by newer keys.
+ */
+public class JWSVerifierCache {
+
+	private static final SharedInstance<JWSVerifierCache> shared =
+		SharedInstance.register(
+			"jws_verifier_cache",
+			() -> new JWSVerifierCache(Provider.DEFAULT, 1000, 3600),
+			JWSVerifierCache::getStats);
+
+	private final Provider provider;
+	private final long maxAgeMillis;
+	private final ExpiringCache<VerifierKey, JWSVerifier> cache;
+
+	/**
+	 * The JCA provider backing the verifiers
+	 */
+	public enum Provider {
+
+		DEFAULT, BOUNCY_CASTLE;
+
+		/**
+		 * @param value the configured name, {@code default} or {@code bouncy-castle}
+		 * @return the matching provider, {@link #DEFAULT} if {@code null} or empty
+		 */
+		public static Provider parse(String value) {
+			if (value == null || value.isBlank()) {
+				return DEFAULT;
+			}
+
+			return valueOf(value.trim().toUpperCase().replace('-', '_'));
+		}
+
+	}
+
+	/**
+	 * @return the shared cache, built with the default settings if
+	 * {@link #configure(Provider, int, long)} has not been called
+	 */
+	public static JWSVerifierCache getInstance() {
+		return shared.get();
+	}
+
+	/**
+	 * Replaces the shared cache, dropping its content
+	 *
+	 * @param provider
+	 * @param maxEntries
+	 * @param maxAgeSeconds how long a verifier is kept after its creation
+	 */
+	public static void configure(
+		Provider provider, int maxEntries, long maxAgeSeconds) {
+
+		shared.set(
+			new JWSVerifierCache(provider, maxEntries, maxAgeSeconds), String.format(
+				"provider %s, %d entries, max age %d s", provider, maxEntries,
+				maxAgeSeconds));
+	}
+
+	JWSVerifierCache(Provider provider, int maxEntries, long maxAgeSeconds) {
+		this.provider = provider;
+		this.maxAgeMillis = Math.max(1, maxAgeSeconds) * 1000;
+		this.cache = new ExpiringCache<>("jws_verifier", maxEntries);
+	}
+
+	/**
+	 * @param alg the algorithm in the header of the JWS
+	 * @param jwk the public key referenced by the JWS
+	 * @return a verifier for the key, to be used with {@code alg}
+	 * @throws OIDCException if the key type does not fit the algorithm, or the
+	 * algorithm is not supported
+	 */
+	public JWSVerifier getVerifier(JWSAlgorithm alg, JWK jwk) throws OIDCException {
+		VerifierKey key;
+
+		try {
+			key = new VerifierKey(jwk.computeThumbprint().toString(), alg);
+		}
+		catch (JOSEException e) {
+			throw new JWTException.Generic(e);
+		}
+
+		JWSVerifier verifier = cache.get(key);
+
+		if (verifier == null) {
+			verifier = createVerifier(alg, jwk);
+
+			cache.put(key, verifier, System.currentTimeMillis() + maxAgeMillis);
+		}
+
+		return verifier;
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = cache.getStats();
+
+		stats.put("provider", provider.name());
+		stats.put("max_age_seconds", maxAgeMillis / 1000);
+
+		return stats;
+	}
+
+	private JWSVerifier createVerifier(JWSAlgorithm alg, JWK jwk) throws OIDCException {
+		JWSVerifier verifier;
+
+		try {
+			if (RSASSAVerifier.SUPPORTED_ALGORITHMS.contains(alg)) {
+				if (!(jwk instanceof RSAKey rsaKey)) {
+					throw new JWTException.Generic("Not RSA key " + jwk.toString());
+				}
+
+				verifier = new RSASSAVerifier(rsaKey.toRSAPublicKey());
+			}
+			else if (ECDSAVerifier.SUPPORTED_ALGORITHMS.contains(alg)) {
+				if (!(jwk instanceof ECKey ecKey)) {
+					throw new JWTException.Generic("Not EC key " + jwk.toString());
+				}
+
+				verifier = new ECDSAVerifier(ecKey.toECPublicKey());
+
+				if (!verifier.supportedJWSAlgorithms().contains(alg)) {
+					throw new JWTException.Generic(
+						"Curve " + ecKey.getCurve() + " does not match alg " + alg);
+				}
+			}
+			else {
+				throw new JWTException.Generic("Unsupported or unimplemented alg " + alg);
+			}
+		}
+		catch (JOSEException e) {
+			throw new JWTException.Generic(e);
+		}
+
+		if (provider == Provider.BOUNCY_CASTLE) {
+			verifier.getJCAContext().setProvider(BouncyCastleProviderSingleton.getInstance());
+		}
+
+		return verifier;
+	}
+
+	private record VerifierKey(String thumbprint, JWSAlgorithm alg) {
+	}
+
+}
@@ -1,8 +1,6 @@
 package it.ipzs.fedauthority.oidclib.helper;
 
-import java.net.URL;
 import java.security.PrivateKey;
-import java.security.interfaces.RSAPublicKey;
 import java.text.ParseException;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
@@ -28,7 +26,6 @@ import com.nimbusds.jose.Payload;
 import com.nimbusds.jose.crypto.ECDSASigner;
 import com.nimbusds.jose.crypto.RSADecrypter;
 import com.nimbusds.jose.crypto.RSASSASigner;
-import com.nimbusds.jose.crypto.RSASSAVerifier;
 import com.nimbusds.jose.jwk.ECKey;
 import com.nimbusds.jose.jwk.JWK;
 import com.nimbusds.jose.jwk.JWKSet;
@@ -88,16 +85,10 @@ public class JWTHelper {
 	 * @return
 	 */
 	public static JSONObject fastParse(String jwt) {
-		String[] parts = jwt.split("\\.");
-
 		JSONObject result = new JSONObject();
 
-		result.put("header", new JSONObject(decodeBase64(parts[0])));
-		result.put("payload", new JSONObject(decodeBase64(parts[1])));
-
-		//if (parts.length == 3) {
-		//	result.put("signature", new JSONObject(decodeBase64(parts[1])));
-		//}
+		result.put("header", fastParseHeader(jwt));
+		result.put("payload", fastParsePayload(jwt));
 
 		return result;
 	}
@@ -110,9 +101,7 @@ public class JWTHelper {
 	 * @return
 	 */
 	public static JSONObject fastParseHeader(String jwt) {
-		String[] parts = jwt.split("\\.");
-
-		return new JSONObject(decodeBase64(parts[0]));
+		return new JSONObject(decodeBase64(getPart(jwt, 0)));
 	}
 
 	/**
@@ -123,9 +112,7 @@ public class JWTHelper {
 	 * @return
 	 */
 	public static JSONObject fastParsePayload(String jwt) {
-		String[] parts = jwt.split("\\.");
-
-		return new JSONObject(decodeBase64(parts[1]));
+		return new JSONObject(decodeBase64(getPart(jwt, 1)));
 	}
 
 	/**
@@ -357,11 +344,24 @@ public class JWTHelper {
 	 */
 	public static JWKSet getJWKSetFromJWT(String jwt) throws OIDCException {
 		try {
-			JSONObject token = fastParse(jwt);
-
-			JSONObject payload = token.getJSONObject("payload");
+			return getJWKSet(fastParsePayload(jwt));
+		}
+		catch (Exception e) {
+			throw new JWTException.Parse(e);
+		}
+	}
 
-			return getJWKSet(payload);
+	/**
+	 * Get the JSON Web Key (JWK) set from the payload of the provided token, or null if
+	 * not present
+	 *
+	 * @param jws
+	 * @return
+	 * @throws OIDCException
+	 */
+	public static JWKSet getJWKSetFromJWT(ParsedJWS jws) throws OIDCException {
+		try {
+			return getJWKSet(jws.getPayload());
 		}
 		catch (Exception e) {
 			throw new JWTException.Parse(e);
@@ -389,7 +389,7 @@ public class JWTHelper {
 			String url = metadata.getString("jwks_uri");
 
 			try {
-				return JWKSet.load(new URL(url));
+				return JWKSet.parse(FederationHttpClient.getInstance().get(url));
 			}
 			catch (Exception e) {
 				throw new JWTException.Generic("Failed to download jwks from " + url);
@@ -505,8 +505,8 @@ public class JWTHelper {
 		return options.getAllowedSigningAlgs().contains(alg.toString());
 	}
 
-	public boolean verifyJWS(SignedJWT jws, JWKSet jwkSet) throws OIDCException {
-		String kid = jws.getHeader().getKeyID();
+	public boolean verifyJWS(ParsedJWS jws, JWKSet jwkSet) throws OIDCException {
+		String kid = jws.getKeyID();
 
 		JWK jwk = jwkSet.getKeyByKeyId(kid);
 
@@ -514,33 +514,53 @@ public class JWTHelper {
 			throw new JWTException.UnknownKid(kid, jwkSet.toString());
 		}
 
-		JWSAlgorithm alg = jws.getHeader().getAlgorithm();
+		JWSAlgorithm alg = jws.getAlgorithm();
 
 		if (!isValidAlgorithm(alg)) {
 			throw new JWTException.UnsupportedAlgorithm(alg.toString());
 		}
 
+		VerifiedSignatureCache verified = VerifiedSignatureCache.getInstance();
+
+		if (verified.isVerified(jws, jwk)) {
+			return true;
+		}
+
 		try {
 			JWSVerifier verifier = getJWSVerifier(alg, jwk);
 
-			return jws.verify(verifier);
+			if (verifier.verify(
+					jws.getHeader(), jws.signingInput(), jws.getSignature())) {
+
+				verified.putVerified(jws, jwk);
+
+				return true;
+			}
+
+			return false;
 		}
 		catch (Exception e) {
 			throw new JWTException.Verifier(e);
 		}
 	}
 
-	public boolean verifyJWS(String jws, JWKSet jwkSet) throws OIDCException {
-		SignedJWT jwsObject;
+	public boolean verifyJWS(SignedJWT jws, JWKSet jwkSet) throws OIDCException {
+		String compact = jws.getParsedString();
 
-		try {
-			jwsObject = SignedJWT.parse(jws);
-		}
-		catch (Exception e) {
-			throw new JWTException.Parse(e);
+		if (compact == null) {
+			try {
+				compact = jws.serialize();
+			}
+			catch (Exception e) {
+				throw new JWTException.Parse(e);
+			}
 		}
 
-		return verifyJWS(jwsObject, jwkSet);
+		return verifyJWS(ParsedJWS.parse(compact), jwkSet);
+	}
+
+	public boolean verifyJWS(String jws, JWKSet jwkSet) throws OIDCException {
+		return verifyJWS(ParsedJWS.parse(jws), jwkSet);
 	}
 
 	private static JWEDecrypter getJWEDecrypter(
@@ -589,28 +609,31 @@ public class JWTHelper {
 		return null;
 	}
 
-	private static JWSVerifier getJWSVerifier(JWSAlgorithm alg, JWK jwk)
-		throws OIDCException {
+	/**
+	 * @param jwt
+	 * @param index
+	 * @return the index-th dot separated part of the token
+	 */
+	private static String getPart(String jwt, int index) {
+		int start = 0;
 
-		if (RSASSAVerifier.SUPPORTED_ALGORITHMS.contains(alg)) {
-			if (!KeyType.RSA.equals(jwk.getKeyType())) {
-				throw new JWTException.Generic("Not RSA key " + jwk.toString());
-			}
+		for (int x = 0; x < index; x++) {
+			start = jwt.indexOf('.', start) + 1;
 
-			RSAKey rsaKey = (RSAKey)jwk;
+			if (start == 0) {
+				throw new IllegalArgumentException("Missing part " + index + " in JWT");
+			}
+		}
 
+		int end = jwt.indexOf('.', start);
 
-			try {
-				RSAPublicKey publicKey = rsaKey.toRSAPublicKey();
+		return end < 0 ? jwt.substring(start) : jwt.substring(start, end);
+	}
 
-				return new RSASSAVerifier(publicKey);
-			}
-			catch (JOSEException e) {
-				throw new JWTException.Generic(e);
-			}
-		}
+	private static JWSVerifier getJWSVerifier(JWSAlgorithm alg, JWK jwk)
+		throws OIDCException {
 
-		throw new JWTException.Generic("Unsupported or unimplemented alg " + alg);
+		return JWSVerifierCache.getInstance().getVerifier(alg, jwk);
 	}
 
 }
@@ -0,0 +1,157 @@
+package it.ipzs.fedauthority.oidclib.helper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+import it.ipzs.fedauthority.oidclib.model.MetadataPolicy;
+import it.ipzs.fedauthority.oidclib.util.ExpiringCache;
+import it.ipzs.fedauthority.oidclib.util.SharedInstance;
+
+/**
+ * Process-wide cache of the compiled metadata policies.
+ * <br/>
+ * The policy of every statement is compiled once, and the policies of the
+ * statements along a trust path are merged once, so that resolving the final
+ * metadata of an entity is a single pass over its metadata. Both are keyed by the
+ * signatures of the statements, which identify their content without serializing
+ * the policies again, and kept until the earliest {@code exp} of the statements
+ * they come from.
+ */
+public class MetadataPolicyCache {
+
+	private static final SharedInstance<MetadataPolicyCache> shared =
+		SharedInstance.register(
+			"metadata_policy_cache", () -> new MetadataPolicyCache(10000),
+			MetadataPolicyCache::getStats);
+
+	private final ExpiringCache<PolicyKey, MetadataPolicy> compiled;
+	private final ExpiringCache<PathKey, MetadataPolicy> merged;
+	private final AtomicLong compilations = new AtomicLong();
+	private final AtomicLong merges = new AtomicLong();
+
+	/**
+	 * @return the shared cache, built with the default settings if
+	 * {@link #configure(int)} has not been called
+	 */
+	public static MetadataPolicyCache getInstance() {
+		return shared.get();
+	}
+
+	/**
+	 * Replaces the shared cache, dropping its content
+	 *
+	 * @param maxEntries the size of the compiled and of the merged policies caches
+	 */
+	public static void configure(int maxEntries) {
+		shared.set(new MetadataPolicyCache(maxEntries), maxEntries + " entries");
+	}
+
+	private MetadataPolicyCache(int maxEntries) {
+		this.compiled = new ExpiringCache<>("compiled_metadata_policy", maxEntries);
+		this.merged = new ExpiringCache<>("merged_metadata_policy", maxEntries);
+	}
+
+	/**
+	 * @param metadataType
+	 * @param statements the payloads of the statements along a trust path, starting
+	 * from the one issued by the trust anchor
+	 * @param jwts the compact serializations of the same statements, in the same
+	 * order
+	 * @return the policies of {@code metadataType} in the statements, merged in
+	 * their order
+	 * @throws org.json.JSONException if a policy is malformed
+	 */
+	public MetadataPolicy getMergedPolicy(
+		String metadataType, List<JSONObject> statements, List<String> jwts) {
+
+		if (statements.size() != jwts.size()) {
+			throw new IllegalArgumentException(
+				statements.size() + " statements but " + jwts.size() + " jwts");
+		}
+
+		List<String> signatures = new ArrayList<>(jwts.size());
+		long expiresAt = Long.MAX_VALUE;
+
+		for (int x = 0; x < statements.size(); x++) {
+			signatures.add(getSignature(jwts.get(x)));
+
+			expiresAt = Math.min(expiresAt, statements.get(x).optLong("exp", 0) * 1000);
+		}
+
+		PathKey key = new PathKey(metadataType, signatures);
+
+		MetadataPolicy result = merged.get(key);
+
+		if (result != null) {
+			return result;
+		}
+
+		result = MetadataPolicy.empty();
+
+		for (int x = 0; x < statements.size(); x++) {
+			JSONObject policy = statements.get(x).optJSONObject(
+				"metadata_policy", new JSONObject()
+			).optJSONObject(metadataType);
+
+			if (policy != null) {
+				result = result.merge(getCompiledPolicy(
+					new PolicyKey(metadataType, signatures.get(x)), policy, expiresAt));
+			}
+		}
+
+		merges.incrementAndGet();
+
+		merged.put(key, result, expiresAt);
+
+		return result;
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = merged.getStats();
+
+		stats.put("merges", merges.get());
+		stats.put("compilations", compilations.get());
+		stats.put("compiled", compiled.getStats());
+
+		return stats;
+	}
+
+	private MetadataPolicy getCompiledPolicy(
+		PolicyKey key, JSONObject policy, long expiresAt) {
+
+		MetadataPolicy result = compiled.get(key);
+
+		if (result == null) {
+			result = MetadataPolicy.compile(policy);
+
+			compilations.incrementAndGet();
+
+			compiled.put(key, result, expiresAt);
+		}
+
+		return result;
+	}
+
+	/**
+	 * @param jwt a compact JWS
+	 * @return its signature part, which changes with the header and the payload
+	 */
+	private static String getSignature(String jwt) {
+		if (jwt == null) {
+			throw new IllegalArgumentException("null statement jwt");
+		}
+
+		return jwt.substring(jwt.lastIndexOf('.') + 1);
+	}
+
+	private record PathKey(String metadataType, List<String> signatures) {
+	}
+
+	private record PolicyKey(String metadataType, String signature) {
+	}
+
+}
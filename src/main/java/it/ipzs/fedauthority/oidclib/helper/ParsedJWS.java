@@ -0,0 +1,137 @@
+package it.ipzs.fedauthority.oidclib.helper;
+
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONObject;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.util.Base64URL;
+
+import it.ipzs.fedauthority.oidclib.exception.JWTException;
+import it.ipzs.fedauthority.oidclib.exception.OIDCException;
+
+/**
+ * A compact JWS decoded once and shared by every consumer of the same token: the
+ * entity configuration or statement models, the trust marks and
+ * {@link JWTHelper#verifyJWS(ParsedJWS, com.nimbusds.jose.jwk.JWKSet)}.
+ * <br/>
+ * The header is decoded when the token is parsed, the payload claims on first
+ * access. The signing input and the signature are kept as they are to be verified,
+ * so that no further parsing is needed. The returned payload is shared by all the
+ * consumers and must not be modified: the models hand out copies of the parts their
+ * callers may change, such as
+ * {@link it.ipzs.fedauthority.oidclib.model.EntityConfiguration#getPayloadMetadata()}.
+ */
+public final class ParsedJWS {
+
+	private final String compact;
+	private final JWSHeader header;
+	private final Base64URL payloadPart;
+	private final byte[] signingInput;
+	private final Base64URL signature;
+	private volatile JSONObject payload;
+
+	private ParsedJWS(
+		String compact, JWSHeader header, Base64URL payloadPart, byte[] signingInput,
+		Base64URL signature) {
+
+		this.compact = compact;
+		this.header = header;
+		this.payloadPart = payloadPart;
+		this.signingInput = signingInput;
+		this.signature = signature;
+	}
+
+	/**
+	 * @param compact the compact serialization of a JWS
+	 * @return the parsed token
+	 * @throws OIDCException if it is not a signed compact JWS or its header is not
+	 * valid
+	 */
+	public static ParsedJWS parse(String compact) throws OIDCException {
+		if (compact == null) {
+			throw new JWTException.Parse(new IllegalArgumentException("null JWS"));
+		}
+
+		int firstDot = compact.indexOf('.');
+		int secondDot = firstDot < 0 ? -1 : compact.indexOf('.', firstDot + 1);
+
+		if (secondDot < 0 || compact.indexOf('.', secondDot + 1) >= 0 ||
+			secondDot == compact.length() - 1) {
+
+			throw new JWTException.Parse(
+				new IllegalArgumentException("Not a signed compact JWS"));
+		}
+
+		try {
+			JWSHeader header = JWSHeader.parse(
+				new Base64URL(compact.substring(0, firstDot)));
+
+			return new ParsedJWS(
+				compact, header,
+				new Base64URL(compact.substring(firstDot + 1, secondDot)),
+				compact.substring(0, secondDot).getBytes(StandardCharsets.US_ASCII),
+				new Base64URL(compact.substring(secondDot + 1)));
+		}
+		catch (Exception e) {
+			throw new JWTException.Parse(e);
+		}
+	}
+
+	public String getCompact() {
+		return compact;
+	}
+
+	public JWSHeader getHeader() {
+		return header;
+	}
+
+	public JWSAlgorithm getAlgorithm() {
+		return header.getAlgorithm();
+	}
+
+	public String getKeyID() {
+		return header.getKeyID();
+	}
+
+	/**
+	 * @return the decoded payload claims
+	 * @throws org.json.JSONException if the payload is not a JSON object
+	 */
+	public JSONObject getPayload() {
+		JSONObject result = payload;
+
+		if (result == null) {
+			result = new JSONObject(payloadPart.decodeToString());
+			payload = result;
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return the ASCII bytes of the encoded header and payload, as signed
+	 */
+	public byte[] getSigningInput() {
+		return signingInput.clone();
+	}
+
+	public Base64URL getSignature() {
+		return signature;
+	}
+
+	public byte[] getSignatureBytes() {
+		return signature.decode();
+	}
+
+	@Override
+	public String toString() {
+		return compact;
+	}
+
+	byte[] signingInput() {
+		return signingInput;
+	}
+
+}
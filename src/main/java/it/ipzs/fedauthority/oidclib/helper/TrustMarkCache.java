@@ -0,0 +1,133 @@
+package it.ipzs.fedauthority.oidclib.helper;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.nimbusds.jose.util.Base64URL;
+
+import it.ipzs.fedauthority.oidclib.exception.OIDCException;
+import it.ipzs.fedauthority.oidclib.model.EntityConfiguration;
+import it.ipzs.fedauthority.oidclib.util.ExpiringCache;
+import it.ipzs.fedauthority.oidclib.util.SharedInstance;
+import it.ipzs.fedauthority.oidclib.util.SingleFlight;
+
+/**
+ * Process-wide cache of the trust mark validations.
+ * <br/>
+ * The entity configurations of the trust mark issuers are taken from
+ * {@link EntityConfigurationCache}, so the marks of many entities from the same
+ * issuer need one fetch of the issuer, and the concurrent fetches of the same issuer
+ * are coalesced. Only the outcome of each validation is kept here, keyed by the
+ * SHA-256 digest of the trust mark and by the entity that validated it, until the
+ * earliest of the {@code exp} of the trust mark and of that entity's configuration.
+ */
+public class TrustMarkCache {
+
+	private static final SharedInstance<TrustMarkCache> shared =
+		SharedInstance.register(
+			"trust_mark_cache", () -> new TrustMarkCache(10000),
+			TrustMarkCache::getStats);
+
+	private final ExpiringCache<ValidationKey, Boolean> results;
+	private final SingleFlight<String, ParsedJWS> issuerFetches =
+		new SingleFlight<>("trust_mark_issuer");
+	private final AtomicLong fetches = new AtomicLong();
+
+	/**
+	 * @return the shared cache, built with the default settings if
+	 * {@link #configure(int)} has not been called
+	 */
+	public static TrustMarkCache getInstance() {
+		return shared.get();
+	}
+
+	/**
+	 * Replaces the shared cache, dropping its content
+	 *
+	 * @param maxEntries the size of the validations cache
+	 */
+	public static void configure(int maxEntries) {
+		shared.set(new TrustMarkCache(maxEntries), maxEntries + " entries");
+	}
+
+	private TrustMarkCache(int maxEntries) {
+		this.results = new ExpiringCache<>("trust_mark_validation", maxEntries);
+	}
+
+	/**
+	 * @param iss the subject of the trust mark issuer
+	 * @param jwtHelper
+	 * @return a new entity configuration of the issuer, owned by the caller and not
+	 * validated yet
+	 * @throws OIDCException if it cannot be fetched or parsed
+	 */
+	public EntityConfiguration getIssuer(String iss, JWTHelper jwtHelper)
+		throws OIDCException {
+
+		ParsedJWS token = EntityConfigurationCache.getInstance().get(iss);
+
+		if (token == null) {
+
+			// only the immutable token is shared with the concurrent callers
+
+			token = issuerFetches.execute(iss, () -> {
+				fetches.incrementAndGet();
+
+				return EntityConfiguration.fetch(iss, null, jwtHelper).getToken();
+			});
+		}
+
+		return new EntityConfiguration(token, null, jwtHelper);
+	}
+
+	/**
+	 * @param trustMark the compact trust mark
+	 * @param validator the subject of the entity whose keys validate it
+	 * @return the outcome of a previous validation, {@code null} if unknown
+	 */
+	public Boolean getResult(String trustMark, String validator) {
+		return results.get(new ValidationKey(digest(trustMark), validator));
+	}
+
+	/**
+	 * @param trustMark the compact trust mark
+	 * @param validator the subject of the entity whose keys validate it
+	 * @param valid the outcome of the validation
+	 * @param expiresAt epoch seconds after which the outcome is not served
+	 */
+	public void putResult(
+		String trustMark, String validator, boolean valid, long expiresAt) {
+
+		results.put(
+			new ValidationKey(digest(trustMark), validator), valid, expiresAt * 1000);
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = results.getStats();
+
+		stats.put("issuer_fetches", fetches.get());
+		stats.put("issuer_downloads", issuerFetches.getStats());
+
+		return stats;
+	}
+
+	private static String digest(String trustMark) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+			return Base64URL.encode(
+				digest.digest(trustMark.getBytes(StandardCharsets.US_ASCII))
+			).toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private record ValidationKey(String digest, String validator) {
+	}
+
+}
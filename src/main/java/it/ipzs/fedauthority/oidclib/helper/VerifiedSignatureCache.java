@@ -0,0 +1,131 @@
+package it.ipzs.fedauthority.oidclib.helper;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.util.Base64URL;
+
+import it.ipzs.fedauthority.oidclib.util.ExpiringCache;
+import it.ipzs.fedauthority.oidclib.util.SharedInstance;
+
+/**
+ * Process-wide record of the successful signature verifications done by
+ * {@link JWTHelper#verifyJWS(ParsedJWS, com.nimbusds.jose.jwk.JWKSet)}.
+ * <br/>
+ * An entry is keyed by the SHA-256 digest of the compact JWS and by the thumbprint of
+ * the key that verified it, and it is kept until the {@code exp} of the token, so a
+ * token verified again with the same key skips the RSA/EC math. Tokens without
+ * {@code exp} and failed verifications are never recorded.
+ */
+public class VerifiedSignatureCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(
+		VerifiedSignatureCache.class);
+
+	private static final SharedInstance<VerifiedSignatureCache> shared =
+		SharedInstance.register(
+			"verified_signature_cache", () -> new VerifiedSignatureCache(true, 50000),
+			VerifiedSignatureCache::getStats);
+
+	private final boolean enabled;
+	private final ExpiringCache<VerificationKey, Boolean> cache;
+
+	/**
+	 * @return the shared cache, built with the default settings if
+	 * {@link #configure(boolean, int)} has not been called
+	 */
+	public static VerifiedSignatureCache getInstance() {
+		return shared.get();
+	}
+
+	/**
+	 * Replaces the shared cache, dropping its content
+	 *
+	 * @param enabled {@code false} to verify every signature
+	 * @param maxEntries
+	 */
+	public static void configure(boolean enabled, int maxEntries) {
+		shared.set(
+			new VerifiedSignatureCache(enabled, maxEntries),
+			String.format("enabled %s, %d entries", enabled, maxEntries));
+	}
+
+	private VerifiedSignatureCache(boolean enabled, int maxEntries) {
+		this.enabled = enabled;
+		this.cache = new ExpiringCache<>("verified_signature", maxEntries);
+	}
+
+	/**
+	 * @param jws
+	 * @param jwk
+	 * @return {@code true} if the token has already been verified with the key and
+	 * has not expired
+	 */
+	public boolean isVerified(ParsedJWS jws, JWK jwk) {
+		VerificationKey key = toKey(jws, jwk);
+
+		return key != null && cache.get(key) != null;
+	}
+
+	/**
+	 * Records a successful verification
+	 *
+	 * @param jws
+	 * @param jwk
+	 */
+	public void putVerified(ParsedJWS jws, JWK jwk) {
+		VerificationKey key = toKey(jws, jwk);
+
+		if (key == null) {
+			return;
+		}
+
+		try {
+			long exp = jws.getPayload().optLong("exp");
+
+			if (exp > 0) {
+				cache.put(key, Boolean.TRUE, exp * 1000);
+			}
+		}
+		catch (Exception e) {
+			logger.debug("Verification not recorded: {}", e.getMessage());
+		}
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = cache.getStats();
+
+		stats.put("enabled", enabled);
+
+		return stats;
+	}
+
+	private VerificationKey toKey(ParsedJWS jws, JWK jwk) {
+		if (!enabled) {
+			return null;
+		}
+
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+			return new VerificationKey(
+				Base64URL.encode(digest.digest(
+					jws.getCompact().getBytes(StandardCharsets.US_ASCII))).toString(),
+				jwk.computeThumbprint().toString());
+		}
+		catch (Exception e) {
+			logger.debug("Verification key not computed: {}", e.getMessage());
+
+			return null;
+		}
+	}
+
+	private record VerificationKey(String digest, String thumbprint) {
+	}
+
+}
@@ -12,6 +12,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -25,8 +28,12 @@ import it.ipzs.fedauthority.oidclib.exception.EntityException;
 import it.ipzs.fedauthority.oidclib.exception.JWTException;
 import it.ipzs.fedauthority.oidclib.exception.OIDCException;
 import it.ipzs.fedauthority.oidclib.exception.TrustChainException;
+import it.ipzs.fedauthority.oidclib.helper.EntityConfigurationCache;
 import it.ipzs.fedauthority.oidclib.helper.EntityHelper;
+import it.ipzs.fedauthority.oidclib.helper.EntityStatementCache;
+import it.ipzs.fedauthority.oidclib.helper.FederationHttpClient;
 import it.ipzs.fedauthority.oidclib.helper.JWTHelper;
+import it.ipzs.fedauthority.oidclib.helper.ParsedJWS;
 import it.ipzs.fedauthority.oidclib.util.ListUtil;
 import it.ipzs.fedauthority.oidclib.util.Validator;
 import it.ipzs.fedauthority.util.StringUtil;
@@ -37,6 +44,7 @@ public class EntityConfiguration {
 		EntityConfiguration.class);
 
 	private final String jwt;
+	private final ParsedJWS token;
 	private final JWTHelper jwtHelper;
 	private EntityConfiguration trustAnchor;
 	//private JSONObject header;
@@ -54,6 +62,7 @@ public class EntityConfiguration {
 	private Map<String, EntityConfiguration> verifiedSuperiors = new HashMap<>();
 	private Map<String, JSONObject> failedDescendantStatements = new HashMap<>();
 	private Map<String, JSONObject> verifiedDescendantStatements = new HashMap<>();
+	private Map<String, String> verifiedDescendantStatementJwts = new HashMap<>();
 	private List<String> allowedTrustMarks = new ArrayList<>();
 	private Set<TrustMark> verifiedTrustMarks = new HashSet<>();
 
@@ -77,17 +86,27 @@ public class EntityConfiguration {
 			String jwt, EntityConfiguration trustAnchor, JWTHelper jwtHelper)
 		throws OIDCException {
 
-		this.jwt = jwt;
+		this(ParsedJWS.parse(jwt), trustAnchor, jwtHelper);
+	}
+
+	public EntityConfiguration(
+			ParsedJWS token, EntityConfiguration trustAnchor, JWTHelper jwtHelper)
+		throws OIDCException {
+
+		this.jwt = token.getCompact();
+		this.token = token;
 		this.jwtHelper = jwtHelper;
 		this.trustAnchor = trustAnchor;
 
-		JSONObject token = JWTHelper.fastParse(jwt);
-
-		//this.header = token.getJSONObject("header");
-		this.payload = token.getJSONObject("payload");
+		try {
+			this.payload = token.getPayload();
+		}
+		catch (Exception e) {
+			throw new JWTException.Parse(e);
+		}
 
 		if (logger.isDebugEnabled()) {
-			logger.debug("fastParse=" + token.toString());
+			logger.debug("header={} payload={}", token.getHeader(), payload);
 		}
 
 		this.sub = payload.getString("sub");
@@ -105,6 +124,10 @@ public class EntityConfiguration {
 		this.verifiedDescendantStatements.put(key, value);
 	}
 
+	void addVerifiedDescendantStatementJwt(String key, String jwt) {
+		this.verifiedDescendantStatementJwts.put(key, jwt);
+	}
+
 	public int getConstraint(String key, int defaultValue) {
 		JSONObject json = payload.optJSONObject("constraints");
 
@@ -158,12 +181,22 @@ public class EntityConfiguration {
 		return jwt;
 	}
 
+	public ParsedJWS getToken() {
+		return token;
+	}
+
 	public String getPayload() {
 		return payload.toString();
 	}
 
+	/**
+	 * @return a copy of the metadata, free to be modified: the payload is shared by
+	 * every model built from the same cached token
+	 */
 	public JSONObject getPayloadMetadata() {
-		return payload.optJSONObject("metadata", new JSONObject());
+		JSONObject metadata = payload.optJSONObject("metadata");
+
+		return metadata != null ? new JSONObject(metadata.toString()) : new JSONObject();
 	}
 
 	public String getSubject() {
@@ -171,7 +204,8 @@ public class EntityConfiguration {
 	}
 
 	/**
-	 * Get superiors entity configurations
+	 * Get superiors entity configurations. The entity configurations of the authority
+	 * hints are fetched concurrently.
 	 *
 	 * @param maxAuthorityHints
 	 * @param superiorHints
@@ -182,6 +216,75 @@ public class EntityConfiguration {
 			int maxAuthorityHints, List<EntityConfiguration> superiorHints)
 		throws OIDCException {
 
+		return getSuperiors(
+			maxAuthorityHints, superiorHints, ResolutionBudget.unlimited());
+	}
+
+	/**
+	 * Get superiors entity configurations within a budget. The fetches still running
+	 * when the budget is exhausted are cancelled.
+	 *
+	 * @param maxAuthorityHints
+	 * @param superiorHints
+	 * @param budget
+	 * @return
+	 * @throws OIDCException
+	 */
+	public Map<String, EntityConfiguration> getSuperiors(
+			int maxAuthorityHints, List<EntityConfiguration> superiorHints,
+			ResolutionBudget budget)
+		throws OIDCException {
+
+		List<String> authorityHints = getAuthorityHintsToFetch(
+			maxAuthorityHints, superiorHints);
+
+		List<Callable<EntityConfiguration>> tasks = new ArrayList<>();
+
+		for (String authorityHint : authorityHints) {
+			tasks.add(() -> fetchSuperior(authorityHint, jwtHelper, budget));
+		}
+
+		try {
+			for (Future<EntityConfiguration> future :
+					FederationHttpClient.getInstance().invokeAll(tasks, budget)) {
+
+				EntityConfiguration ec = getResultOrNull(future);
+
+				if (ec != null) {
+					addSuperior(ec);
+				}
+			}
+		}
+		catch (OIDCException e) {
+			throw e;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+
+			throw new EntityException.Generic(e);
+		}
+		catch (Exception e) {
+			throw new EntityException.Generic(e);
+		}
+
+		warnUnavailableSuperiors(authorityHints);
+
+		budget.check();
+
+		return this.verifiedSuperiors;
+	}
+
+	/**
+	 * Applies the limit on the authority hints and takes the superiors already
+	 * available in {@code superiorHints}
+	 *
+	 * @param maxAuthorityHints
+	 * @param superiorHints
+	 * @return the authority hints whose entity configuration has to be fetched
+	 */
+	List<String> getAuthorityHintsToFetch(
+		int maxAuthorityHints, List<EntityConfiguration> superiorHints) {
+
 		List<String> authorityHints = getPayloadStringArray("authority_hints");
 
 		// Apply limits on hints per hop if defined
@@ -213,29 +316,122 @@ public class EntityConfiguration {
 				"Getting Entity Configurations for {}", StringUtil.merge(authorityHints));
 		}
 
-		for (String authorityHint : authorityHints) {
-			EntityConfiguration ec;
+		return authorityHints;
+	}
 
+	/**
+	 * Fetches and self validates the entity configuration of an authority hint. It
+	 * does not change the state of any existing entity configuration, so it can be
+	 * run concurrently.
+	 *
+	 * @param authorityHint
+	 * @param jwtHelper
+	 * @param budget
+	 * @return the entity configuration, {@code null} if it cannot be fetched or parsed
+	 */
+	static EntityConfiguration fetchSuperior(
+		String authorityHint, JWTHelper jwtHelper, ResolutionBudget budget) {
+
+		try {
+			return fetch(authorityHint, null, jwtHelper, budget);
+		}
+		catch (Exception e) {
+			logger.warn("Get Entity Configuration for {}: {}", authorityHint, e);
+
+			return null;
+		}
+	}
+
+	/**
+	 * @param subject
+	 * @return {@code true} if the entity configuration of the subject is not cached
+	 * and its download would be rejected at once, see
+	 * {@link FederationHttpClient#isAvailable(String)}
+	 */
+	static boolean isKnownUnreachable(String subject) {
+		return !FederationHttpClient.getInstance().isAvailable(
+				EntityHelper.getEntityConfigurationURL(subject)) &&
+			EntityConfigurationCache.getInstance().get(subject) == null;
+	}
+
+	/**
+	 * Gets the entity configuration of a subject from {@link EntityConfigurationCache}
+	 * or from its ".well-known" endpoint, and validates it by itself. If valid, a
+	 * fetched entity configuration is added to the cache.
+	 *
+	 * @param subject
+	 * @param trustAnchor the trust anchor entity configuration, may be {@code null}
+	 * @param jwtHelper
+	 * @return a new entity configuration, valid or not
+	 * @throws OIDCException if it cannot be fetched or parsed
+	 */
+	public static EntityConfiguration fetch(
+			String subject, EntityConfiguration trustAnchor, JWTHelper jwtHelper)
+		throws OIDCException {
+
+		return fetch(subject, trustAnchor, jwtHelper, ResolutionBudget.unlimited());
+	}
+
+	/**
+	 * @param subject
+	 * @param trustAnchor the trust anchor entity configuration, may be {@code null}
+	 * @param jwtHelper
+	 * @param budget the budget the download is taken from, if one is needed
+	 * @return a new entity configuration, valid or not
+	 * @throws OIDCException if it cannot be fetched or parsed, or the budget is
+	 * exhausted
+	 * @see #fetch(String, EntityConfiguration, JWTHelper)
+	 */
+	public static EntityConfiguration fetch(
+			String subject, EntityConfiguration trustAnchor, JWTHelper jwtHelper,
+			ResolutionBudget budget)
+		throws OIDCException {
+
+		EntityConfigurationCache cache = EntityConfigurationCache.getInstance();
+
+		ParsedJWS token = cache.get(subject);
+
+		if (token != null) {
 			try {
-				String jwt = EntityHelper.getEntityConfiguration(
-					authorityHint);
+				EntityConfiguration ec = new EntityConfiguration(
+					token, trustAnchor, jwtHelper);
 
-				ec = new EntityConfiguration(jwt, jwtHelper);
+				if (ec.validateItself()) {
+					return ec;
+				}
 			}
 			catch (Exception e) {
-				logger.warn("Get Entity Configuration for {}: {}", jwt, e);
-
-				continue;
+				logger.warn("Cached Entity Configuration for {}: {}", subject, e);
 			}
 
-			if (ec.validateItself()) {
-				this.verifiedSuperiors.put(ec.getSubject(), ec);
-			}
-			else {
-				this.failedSuperiors.put(ec.getSubject(), ec);
-			}
+			cache.invalidate(subject);
 		}
 
+		String jwt = EntityHelper.getEntityConfiguration(subject, budget);
+
+		EntityConfiguration ec = new EntityConfiguration(jwt, trustAnchor, jwtHelper);
+
+		ec.validateItself();
+
+		cache.put(subject, ec);
+
+		return ec;
+	}
+
+	/**
+	 * @param ec a superior returned by
+	 * {@link #fetchSuperior(String, JWTHelper, ResolutionBudget)}
+	 */
+	void addSuperior(EntityConfiguration ec) {
+		if (ec.isValid()) {
+			this.verifiedSuperiors.put(ec.getSubject(), ec);
+		}
+		else {
+			this.failedSuperiors.put(ec.getSubject(), ec);
+		}
+	}
+
+	void warnUnavailableSuperiors(List<String> authorityHints) {
 		if (logger.isWarnEnabled()) {
 			for (String authorityHint : authorityHints) {
 				if (!this.verifiedBySuperiors.containsKey(authorityHint)) {
@@ -245,8 +441,10 @@ public class EntityConfiguration {
 				}
 			}
 		}
+	}
 
-		return this.verifiedSuperiors;
+	Collection<EntityConfiguration> getVerifiedSuperiors() {
+		return Collections.unmodifiableCollection(this.verifiedSuperiors.values());
 	}
 
 	public Map<String, Set<String>> getTrustMarksIssuers() {
@@ -284,6 +482,22 @@ public class EntityConfiguration {
 	}
 
 	public JSONObject getVerifiedDescendantPayloadMetadataPolicy(String metadataType) {
+		JSONObject value = getVerifiedDescendantPayload();
+
+		if (value == null) {
+			return null;
+		}
+
+		return value.optJSONObject(
+				"metadata_policy", new JSONObject()
+			).optJSONObject(metadataType);
+	}
+
+	/**
+	 * @return the payload of the verified statement about this entity's descendant,
+	 * {@code null} if none
+	 */
+	public JSONObject getVerifiedDescendantPayload() {
 		// TODO: What if we have more than one entry?
 		Iterator<JSONObject> itr = this.verifiedDescendantStatements.values().iterator();
 
@@ -291,11 +505,25 @@ public class EntityConfiguration {
 			return null;
 		}
 
-		JSONObject value = itr.next();
+		return itr.next();
+	}
 
-		return value.optJSONObject(
-				"metadata_policy", new JSONObject()
-			).optJSONObject(metadataType);
+	/**
+	 * @param descendant the subject of the descendant
+	 * @return the payload of the verified statement about the descendant,
+	 * {@code null} if none
+	 */
+	public JSONObject getVerifiedDescendantPayload(String descendant) {
+		return this.verifiedDescendantStatements.get(descendant);
+	}
+
+	/**
+	 * @param descendant the subject of the descendant
+	 * @return the JWT of the verified statement about the descendant, {@code null}
+	 * if none
+	 */
+	public String getVerifiedDescendantStatementJwt(String descendant) {
+		return this.verifiedDescendantStatementJwts.get(descendant);
 	}
 
 	public List<String> getVerifiedDescendantStatement() {
@@ -473,15 +701,17 @@ public class EntityConfiguration {
 		JSONObject payload = null;
 
 		try {
-			payload = JWTHelper.fastParsePayload(jwt);
+			ParsedJWS statement = ParsedJWS.parse(jwt);
+
+			payload = statement.getPayload();
 
-			if (ec.validateItself(false) && ec.validateDescendant(jwt)) {
+			if (ec.validateItself(false) && ec.validateDescendant(statement)) {
 
 				// Validate entity JWS using superior JWKSet
 
-				JWKSet jwkSet = JWTHelper.getJWKSetFromJWT(jwt);
+				JWKSet jwkSet = JWTHelper.getJWKSetFromJWT(statement);
 
-				valid = jwtHelper.verifyJWS(this.jwt, jwkSet);
+				valid = jwtHelper.verifyJWS(this.token, jwkSet);
 			}
 		}
 		catch (Exception e) {
@@ -514,11 +744,14 @@ public class EntityConfiguration {
 
 		if (valid) {
 			ec.addVerifiedDescendantStatement(getSubject(), payload);
+			ec.addVerifiedDescendantStatementJwt(getSubject(), jwt);
 
 			this.verifiedBySuperiors.put(payload.getString("iss"), ec);
 			this.valid = true;
 		}
 		else if (ec != null && payload != null) {
+			EntityStatementCache.getInstance().invalidate(ec.getSubject(), getSubject());
+
 			ec.addFailedDescendantStatement(getSubject(), payload);
 
 			this.failedBySuperiors.put(payload.getString("iss"), ec);
@@ -528,7 +761,8 @@ public class EntityConfiguration {
 	}
 	/**
 	 * Validates this entity configuration with the entity statements issued by
-	 * its superiors.
+	 * its superiors. The statements are fetched concurrently and validated in the
+	 * order of {@code superiors}.
 	 * <br/>
 	 * This method fills the following internal properties:
 	 * <ul>
@@ -546,6 +780,48 @@ public class EntityConfiguration {
 			Collection<EntityConfiguration> superiors)
 		throws Exception {
 
+		return validateBySuperiors(superiors, ResolutionBudget.unlimited());
+	}
+
+	/**
+	 * Validates this entity configuration with the entity statements issued by its
+	 * superiors, within a budget. The fetches still running when the budget is
+	 * exhausted are cancelled.
+	 *
+	 * @param superiors
+	 * @param budget
+	 * @return the verifiedSuperiors property
+	 * @throws Exception
+	 * @see #validateBySuperiors(Collection)
+	 */
+	public Map<String, EntityConfiguration> validateBySuperiors(
+			Collection<EntityConfiguration> superiors, ResolutionBudget budget)
+		throws Exception {
+
+		List<StatementRequest> requests = getStatementRequests(superiors);
+
+		List<Future<String>> results = FederationHttpClient.getInstance().invokeAll(
+			toTasks(requests, budget), budget);
+
+		budget.check();
+
+		for (int x = 0; x < requests.size(); x++) {
+			validateBySuperior(getResult(results.get(x)), requests.get(x).superior());
+		}
+
+		return Collections.unmodifiableMap(this.verifiedBySuperiors);
+	}
+
+	/**
+	 * @param superiors
+	 * @return the statements about this entity to be fetched from the superiors not
+	 * yet verified
+	 */
+	List<StatementRequest> getStatementRequests(
+		Collection<EntityConfiguration> superiors) {
+
+		List<StatementRequest> result = new ArrayList<>();
+
 		for (EntityConfiguration ec : superiors) {
 			if (this.verifiedBySuperiors.containsKey(ec.getSubject())) {
 				continue;
@@ -567,12 +843,74 @@ public class EntityConfiguration {
 
 			logger.info("Getting entity statements from {}", url);
 
-			String jwt = EntityHelper.getEntityStatement(url);
+			result.add(new StatementRequest(ec, getSubject(), url));
+		}
+
+		return result;
+	}
+
+	static List<Callable<String>> toTasks(
+		List<StatementRequest> requests, ResolutionBudget budget) {
 
-			validateBySuperior(jwt, ec);
+		List<Callable<String>> tasks = new ArrayList<>(requests.size());
+
+		for (StatementRequest request : requests) {
+			tasks.add(() -> EntityStatementCache.getInstance().getEntityStatement(
+				request.superior().getSubject(), request.subject(), request.url(),
+				budget));
+		}
+
+		return tasks;
+	}
+
+	/**
+	 * @param <T>
+	 * @param future a completed future
+	 * @return its result
+	 * @throws Exception the exception thrown by the task
+	 */
+	static <T> T getResult(Future<T> future) throws Exception {
+		try {
+			return future.get();
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception cause) {
+				throw cause;
+			}
+
+			throw e;
+		}
+	}
+
+	/**
+	 * @param <T>
+	 * @param future a done or cancelled future
+	 * @return its result, {@code null} if it has been cancelled
+	 * @throws Exception the exception thrown by the task
+	 */
+	static <T> T getResultOrNull(Future<T> future) throws Exception {
+		if (future.isCancelled()) {
+			return null;
+		}
+
+		return getResult(future);
+	}
+
+	/**
+	 * A statement about an entity to be fetched from a superior
+	 */
+	record StatementRequest(EntityConfiguration superior, String subject, String url) {
+
+		/**
+		 * @return {@code true} if the statement is not fresh in
+		 * {@link EntityStatementCache} and its request would be rejected at once
+		 */
+		boolean isKnownUnreachable() {
+			return !FederationHttpClient.getInstance().isAvailable(url) &&
+				!EntityStatementCache.getInstance().isFresh(
+					superior.getSubject(), subject);
 		}
 
-		return Collections.unmodifiableMap(this.verifiedBySuperiors);
 	}
 
 	/**
@@ -582,26 +920,29 @@ public class EntityConfiguration {
 	 * @throws Exception
 	 */
 	public boolean validateDescendant(String jwt) throws OIDCException {
+		return validateDescendant(ParsedJWS.parse(jwt));
+	}
 
-		// Fast decode JWT token
-
-		JSONObject token = JWTHelper.fastParse(jwt);
-
-		JSONObject header = token.getJSONObject("header");
-
+	/**
+	 *
+	 * @param jws a descendant entity statement issued by this
+	 * @return
+	 * @throws Exception
+	 */
+	public boolean validateDescendant(ParsedJWS jws) throws OIDCException {
 		if (logger.isDebugEnabled()) {
-			logger.debug("validateDescendant " + token.toString());
+			logger.debug("validateDescendant {} {}", jws.getHeader(), jws.getPayload());
 		}
 
 		// Check kid coherence
 
-		String kid = header.optString("kid");
+		String kid = jws.getKeyID();
 
 		if (!this.jwksKids.contains(kid)) {
 			throw new JWTException.UnknownKid(kid, jwkSet.toString());
 		}
 
-		if (jwtHelper.verifyJWS(jwt, this.jwkSet)) {
+		if (jwtHelper.verifyJWS(jws, this.jwkSet)) {
 			return true;
 		}
 
@@ -632,7 +973,7 @@ public class EntityConfiguration {
 	 */
 	public boolean validateItself(boolean silentMode) throws OIDCException {
 		try {
-			this.valid = jwtHelper.verifyJWS(this.jwt, this.jwkSet);
+			this.valid = jwtHelper.verifyJWS(this.token, this.jwkSet);
 
 			return this.valid;
 		}
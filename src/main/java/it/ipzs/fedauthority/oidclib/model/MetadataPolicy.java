@@ -0,0 +1,353 @@
+package it.ipzs.fedauthority.oidclib.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import it.ipzs.fedauthority.oidclib.exception.TrustChainBuilderException;
+
+/**
+ * A metadata policy compiled into a pipeline of operators, one chain per claim.
+ * <br/>
+ * The operators of a claim only read and write that claim, so the policies of the
+ * statements along a trust path can be merged by chaining their operators claim by
+ * claim: applying the merged policy once gives the same metadata as applying the
+ * policies one after another, as {@link TrustChainBuilder#applyPolicy} does. The
+ * sets used by {@code one_of}, {@code add}, {@code subset_of} and
+ * {@code superset_of} are built when the policy is compiled.
+ * <br/>
+ * Instances are immutable and can be shared between threads.
+ */
+public final class MetadataPolicy {
+
+	private static final MetadataPolicy EMPTY = new MetadataPolicy(
+		Collections.emptyMap());
+
+	private final Map<String, List<Operator>> operators;
+
+	private MetadataPolicy(Map<String, List<Operator>> operators) {
+		this.operators = operators;
+	}
+
+	/**
+	 * @return a policy that leaves the metadata unchanged
+	 */
+	public static MetadataPolicy empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * @param policy the policy of a metadata type, as found in a statement
+	 * @return the compiled policy
+	 * @throws org.json.JSONException if the policy of a claim is not an object
+	 */
+	public static MetadataPolicy compile(JSONObject policy) {
+		if (policy == null || policy.isEmpty()) {
+			return EMPTY;
+		}
+
+		Map<String, List<Operator>> operators = new LinkedHashMap<>();
+
+		for (String key : policy.keySet()) {
+			operators.put(key, List.of(Operator.compile(policy.getJSONObject(key))));
+		}
+
+		return new MetadataPolicy(operators);
+	}
+
+	/**
+	 * @param next the policy to be applied after this one
+	 * @return a policy equivalent to applying this one and then {@code next}
+	 */
+	public MetadataPolicy merge(MetadataPolicy next) {
+		if (next.operators.isEmpty()) {
+			return this;
+		}
+		else if (operators.isEmpty()) {
+			return next;
+		}
+
+		Map<String, List<Operator>> merged = new LinkedHashMap<>();
+
+		for (Map.Entry<String, List<Operator>> entry : operators.entrySet()) {
+			merged.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+		}
+
+		for (Map.Entry<String, List<Operator>> entry : next.operators.entrySet()) {
+			merged.computeIfAbsent(
+				entry.getKey(), k -> new ArrayList<>()).addAll(entry.getValue());
+		}
+
+		return new MetadataPolicy(merged);
+	}
+
+	/**
+	 * @param metadata the metadata of the leaf entity, not modified
+	 * @return a new object with the policy applied
+	 * @throws TrustChainBuilderException if the metadata does not satisfy the policy
+	 */
+	public JSONObject apply(JSONObject metadata) throws TrustChainBuilderException {
+		JSONObject result = copyOf(metadata);
+
+		for (Map.Entry<String, List<Operator>> entry : operators.entrySet()) {
+			for (Operator operator : entry.getValue()) {
+				operator.apply(result, entry.getKey());
+			}
+		}
+
+		return result;
+	}
+
+	public boolean isEmpty() {
+		return operators.isEmpty();
+	}
+
+	/**
+	 * The policy of a claim in a statement: the value set when the claim is missing
+	 * and the check or change made when it is present
+	 */
+	private static final class Operator {
+
+		private enum Kind { NONE, VALUE, ONE_OF, ADD, SUBSET_OF, SUPERSET_OF }
+
+		private final Object missingValue;
+		private final Kind kind;
+		private final Object operand;
+		private final Set<Object> operandSet;
+
+		private Operator(
+			Object missingValue, Kind kind, Object operand, Set<Object> operandSet) {
+
+			this.missingValue = missingValue;
+			this.kind = kind;
+			this.operand = operand;
+			this.operandSet = operandSet;
+		}
+
+		/**
+		 * Follows the precedence of the operators of
+		 * {@link TrustChainBuilder#applyPolicy}
+		 */
+		private static Operator compile(JSONObject p) {
+			Object missingValue = null;
+
+			if (p.has("value")) {
+				missingValue = p.get("value");
+			}
+			else if (p.has("add")) {
+				missingValue = p.get("add");
+			}
+			else if (p.has("default")) {
+				missingValue = p.get("default");
+			}
+
+			if (p.has("value")) {
+				return new Operator(missingValue, Kind.VALUE, p.get("value"), null);
+			}
+			else if (p.has("one_of")) {
+				JSONArray oneOf = p.getJSONArray("one_of");
+				Set<Object> set = new HashSet<>();
+
+				for (int x = 0; x < oneOf.length(); x++) {
+					set.add(oneOf.get(x));
+				}
+
+				return new Operator(missingValue, Kind.ONE_OF, oneOf, set);
+			}
+			else if (p.has("add")) {
+				return new Operator(
+					missingValue, Kind.ADD, p.get("add"), toSet(p.get("add")));
+			}
+			else if (p.has("subset_of")) {
+				return new Operator(
+					missingValue, Kind.SUBSET_OF, p.get("subset_of"),
+					toSet(p.get("subset_of")));
+			}
+			else if (p.has("superset_of")) {
+				return new Operator(
+					missingValue, Kind.SUPERSET_OF, p.get("superset_of"),
+					toSet(p.get("superset_of")));
+			}
+
+			return new Operator(missingValue, Kind.NONE, null, null);
+		}
+
+		private void apply(JSONObject metadata, String key)
+			throws TrustChainBuilderException {
+
+			if (!metadata.has(key)) {
+				if (missingValue != null) {
+					metadata.put(key, copyOf(missingValue));
+				}
+
+				return;
+			}
+
+			switch (kind) {
+				case VALUE:
+					metadata.put(key, copyOf(operand));
+					break;
+				case ONE_OF:
+					applyOneOf(metadata, key);
+					break;
+				case ADD:
+					applyAdd(metadata, key);
+					break;
+				case SUBSET_OF:
+					applySubsetOf(metadata, key);
+					break;
+				case SUPERSET_OF:
+					applySupersetOf(metadata, key);
+					break;
+				default:
+					break;
+			}
+		}
+
+		private void applyOneOf(JSONObject metadata, String key)
+			throws TrustChainBuilderException {
+
+			JSONArray ar = metadata.optJSONArray(key);
+
+			if (ar != null) {
+				for (int x = 0; x < ar.length(); x++) {
+					if (operandSet.contains(ar.get(x))) {
+						metadata.put(key, ar.get(x));
+
+						return;
+					}
+				}
+
+				throw new TrustChainBuilderException(
+					String.format("%s: None of %s among %s", key, ar, operand));
+			}
+
+			Object o = metadata.get(key);
+
+			if (!operandSet.contains(o)) {
+				throw new TrustChainBuilderException(
+					String.format("%s: %s not among %s", key, o, operand));
+			}
+		}
+
+		private void applyAdd(JSONObject metadata, String key) {
+			Set<Object> result = toHashSet(metadata.get(key));
+
+			result.addAll(operandSet);
+
+			metadata.put(key, new JSONArray(result));
+		}
+
+		private void applySubsetOf(JSONObject metadata, String key)
+			throws TrustChainBuilderException {
+
+			Set<Object> values = toHashSet(metadata.get(key));
+			Set<Object> result = toHashSet(operandSet);
+
+			result.retainAll(values);
+
+			if (result.isEmpty()) {
+				throw new TrustChainBuilderException(
+					String.format(
+						"%s: %s not subset of %s", key, metadata.get(key), operand));
+			}
+
+			metadata.put(key, new JSONArray(result));
+		}
+
+		private void applySupersetOf(JSONObject metadata, String key)
+			throws TrustChainBuilderException {
+
+			Set<Object> values = toHashSet(metadata.get(key));
+			Set<Object> result = toHashSet(operandSet);
+
+			result.removeAll(values);
+
+			if (result.isEmpty()) {
+				throw new TrustChainBuilderException(
+					String.format(
+						"%s: %s not superset of %s", key, metadata.get(key), operand));
+			}
+
+			metadata.put(key, new JSONArray(result));
+		}
+
+		/**
+		 * @param o an array or a single value
+		 * @return its distinct elements, in order, the nested objects and arrays as
+		 * maps and lists
+		 */
+		private static Set<Object> toSet(Object o) {
+			Set<Object> result = new LinkedHashSet<>();
+
+			if (o instanceof JSONArray) {
+				result.addAll(((JSONArray)o).toList());
+			}
+			else {
+				result.add(o);
+			}
+
+			return result;
+		}
+
+		/**
+		 * The arrays built by {@code add}, {@code subset_of} and {@code superset_of}
+		 * keep the iteration order of a {@link HashSet} filled in the same order as
+		 * {@link TrustChainBuilder#applyPolicy} does, since a later {@code one_of}
+		 * picks the first allowed element of an array
+		 */
+		private static Set<Object> toHashSet(Object o) {
+			Set<Object> result = new HashSet<>();
+
+			if (o instanceof Set) {
+				result.addAll((Set<?>)o);
+			}
+			else if (o instanceof JSONArray) {
+				result.addAll(((JSONArray)o).toList());
+			}
+			else {
+				result.add(o);
+			}
+
+			return result;
+		}
+
+		/**
+		 * The compiled policies are shared, the metadata gets its own copy of the
+		 * objects and arrays
+		 */
+		private static Object copyOf(Object o) {
+			if (o instanceof JSONArray) {
+				return new JSONArray((JSONArray)o);
+			}
+			else if (o instanceof JSONObject) {
+				return MetadataPolicy.copyOf((JSONObject)o);
+			}
+
+			return o;
+		}
+
+	}
+
+	/**
+	 * @return a shallow copy, keeping the {@code null} values
+	 */
+	private static JSONObject copyOf(JSONObject json) {
+		JSONObject result = new JSONObject();
+
+		for (String key : json.keySet()) {
+			result.put(key, json.opt(key));
+		}
+
+		return result;
+	}
+
+}
@@ -0,0 +1,284 @@
+package it.ipzs.fedauthority.oidclib.model;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.ipzs.fedauthority.oidclib.exception.TrustChainException;
+
+/**
+ * The resources a trust chain resolution may use: a total deadline, a number of
+ * outbound requests and a number of downloaded bytes.
+ * <br/>
+ * A budget is created when a resolution starts and passed along to every fetch it
+ * makes. Once a limit is exhausted the following fetches fail with
+ * {@link TrustChainException.BudgetExhausted} and the fetches still outstanding
+ * are cancelled, so that a hostile or misconfigured topology cannot hold a request
+ * thread. The limits set to {@code 0} are not enforced.
+ */
+public class ResolutionBudget {
+
+	private static final Logger logger = LoggerFactory.getLogger(
+		ResolutionBudget.class);
+
+	private static volatile Settings defaults = new Settings();
+
+	private static final Map<Limit, AtomicLong> exhaustions = Map.of(
+		Limit.DEADLINE, new AtomicLong(), Limit.REQUESTS, new AtomicLong(),
+		Limit.BYTES, new AtomicLong());
+
+	private static final AtomicLong budgets = new AtomicLong();
+
+	private final long deadlineMillis;
+	private final long deadlineNanos;
+	private final int maxRequests;
+	private final long maxBytes;
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicReference<Limit> exhausted = new AtomicReference<>();
+	private final List<Future<?>> outstanding = new CopyOnWriteArrayList<>();
+
+	public enum Limit { DEADLINE, REQUESTS, BYTES }
+
+	/**
+	 * Sets the limits of the budgets created by {@link #newDefault()}
+	 *
+	 * @param settings
+	 */
+	public static void configure(Settings settings) {
+		defaults = settings;
+
+		logger.info("resolution budget configured: {}", settings);
+	}
+
+	/**
+	 * @return a budget with the configured limits, starting now
+	 */
+	public static ResolutionBudget newDefault() {
+		return new ResolutionBudget(defaults);
+	}
+
+	/**
+	 * @return the deadline of the budgets created by {@link #newDefault()}, {@code 0}
+	 * if there is none
+	 */
+	public static long getDefaultDeadlineMillis() {
+		return defaults.deadlineMillis;
+	}
+
+	/**
+	 * @return a budget without limits
+	 */
+	public static ResolutionBudget unlimited() {
+		return new ResolutionBudget(0, 0, 0);
+	}
+
+	/**
+	 * @return how many budgets have been created and exhausted, by limit
+	 */
+	public static Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+
+		stats.put("deadline_millis", defaults.deadlineMillis);
+		stats.put("max_requests", defaults.maxRequests);
+		stats.put("max_bytes", defaults.maxBytes);
+		stats.put("budgets", budgets.get());
+
+		for (Limit limit : Limit.values()) {
+			stats.put(
+				"exhausted_" + limit.name().toLowerCase(), exhaustions.get(limit).get());
+		}
+
+		return stats;
+	}
+
+	public ResolutionBudget(Settings settings) {
+		this(settings.deadlineMillis, settings.maxRequests, settings.maxBytes);
+
+		budgets.incrementAndGet();
+	}
+
+	private ResolutionBudget(long deadlineMillis, int maxRequests, long maxBytes) {
+		this.deadlineMillis = deadlineMillis;
+		this.deadlineNanos = System.nanoTime() + deadlineMillis * 1_000_000;
+		this.maxRequests = maxRequests;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Takes an outbound request from the budget
+	 *
+	 * @param url
+	 * @throws TrustChainException.BudgetExhausted if a limit is exhausted
+	 */
+	public void acquireRequest(String url) throws TrustChainException.BudgetExhausted {
+		check();
+
+		if (maxRequests > 0 && requests.incrementAndGet() > maxRequests) {
+			throw exhaust(Limit.REQUESTS, url + " not requested");
+		}
+	}
+
+	/**
+	 * Takes downloaded bytes from the budget
+	 *
+	 * @param count
+	 * @throws TrustChainException.BudgetExhausted if the bytes are exhausted
+	 */
+	public void addBytes(long count) throws TrustChainException.BudgetExhausted {
+		if (maxBytes > 0 && bytes.addAndGet(count) > maxBytes) {
+			throw exhaust(Limit.BYTES, count + " bytes downloaded");
+		}
+	}
+
+	/**
+	 * @throws TrustChainException.BudgetExhausted if a limit has been exhausted or the
+	 * deadline has passed
+	 */
+	public void check() throws TrustChainException.BudgetExhausted {
+		Limit limit = exhausted.get();
+
+		if (limit != null) {
+			throw new TrustChainException.BudgetExhausted(limit, toString());
+		}
+
+		if (deadlineMillis > 0 && System.nanoTime() - deadlineNanos >= 0) {
+			throw exhaust(Limit.DEADLINE, "deadline passed");
+		}
+	}
+
+	/**
+	 * Exhausts the deadline, called when it has passed while waiting for fetches
+	 */
+	public void expire() {
+		exhaust(Limit.DEADLINE, "deadline passed");
+	}
+
+	public boolean hasDeadline() {
+		return deadlineMillis > 0;
+	}
+
+	/**
+	 * @return the milliseconds left before the deadline, {@link Long#MAX_VALUE} if
+	 * there is no deadline
+	 */
+	public long getRemainingMillis() {
+		if (deadlineMillis <= 0) {
+			return Long.MAX_VALUE;
+		}
+
+		return Math.max(0, (deadlineNanos - System.nanoTime()) / 1_000_000);
+	}
+
+	/**
+	 * @return the bytes that can still be downloaded, {@link Long#MAX_VALUE} if not
+	 * limited
+	 */
+	public long getRemainingBytes() {
+		if (maxBytes <= 0) {
+			return Long.MAX_VALUE;
+		}
+
+		return Math.max(0, maxBytes - bytes.get());
+	}
+
+	/**
+	 * @return the limit that has been exhausted, {@code null} if none
+	 */
+	public Limit getExhausted() {
+		return exhausted.get();
+	}
+
+	public int getRequests() {
+		return requests.get();
+	}
+
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * Registers fetches to be cancelled if a limit is exhausted before they end
+	 *
+	 * @param futures
+	 */
+	public void track(List<? extends Future<?>> futures) {
+		outstanding.addAll(futures);
+
+		if (exhausted.get() != null) {
+			cancelOutstanding();
+		}
+	}
+
+	public void untrack(List<? extends Future<?>> futures) {
+		outstanding.removeAll(futures);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+			"%s exhausted, %d/%d requests, %d/%d bytes, deadline %d ms",
+			exhausted.get() == null ? "nothing" : exhausted.get(), requests.get(),
+			maxRequests, bytes.get(), maxBytes, deadlineMillis);
+	}
+
+	private TrustChainException.BudgetExhausted exhaust(Limit limit, String reason) {
+		if (exhausted.compareAndSet(null, limit)) {
+			exhaustions.get(limit).incrementAndGet();
+
+			logger.warn("Resolution budget exhausted, {}: {}", reason, this);
+
+			cancelOutstanding();
+		}
+
+		return new TrustChainException.BudgetExhausted(exhausted.get(), toString());
+	}
+
+	private void cancelOutstanding() {
+		for (Future<?> future : outstanding) {
+			future.cancel(true);
+		}
+	}
+
+	public static class Settings {
+
+		private long deadlineMillis = 30000;
+		private int maxRequests = 200;
+		private long maxBytes = 10 * 1024 * 1024;
+
+		public Settings setDeadlineMillis(long deadlineMillis) {
+			this.deadlineMillis = Math.max(0, deadlineMillis);
+
+			return this;
+		}
+
+		public Settings setMaxRequests(int maxRequests) {
+			this.maxRequests = Math.max(0, maxRequests);
+
+			return this;
+		}
+
+		public Settings setMaxBytes(long maxBytes) {
+			this.maxBytes = Math.max(0, maxBytes);
+
+			return this;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+				"deadline %d ms, %d requests, %d bytes", deadlineMillis, maxRequests,
+				maxBytes);
+		}
+
+	}
+
+}
@@ -4,13 +4,17 @@ import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.StringJoiner;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -21,8 +25,9 @@ import it.ipzs.fedauthority.oidclib.exception.OIDCException;
 import it.ipzs.fedauthority.oidclib.exception.TrustChainBuilderException;
 import it.ipzs.fedauthority.oidclib.exception.TrustChainException;
 import it.ipzs.fedauthority.oidclib.helper.EntityHelper;
+import it.ipzs.fedauthority.oidclib.helper.FederationHttpClient;
 import it.ipzs.fedauthority.oidclib.helper.JWTHelper;
-import it.ipzs.fedauthority.oidclib.util.ListUtil;
+import it.ipzs.fedauthority.oidclib.helper.MetadataPolicyCache;
 
 /**
  * A trust walker that fetches statements and evaluate the evaluables to create a
@@ -46,9 +51,12 @@ public class TrustChainBuilder {
 	private Map<Integer, List<EntityConfiguration>> trustsTree = new TreeMap<>();
 	private List<EntityConfiguration> trustPath = new ArrayList<>();
 	private long exp = 0;
+	private long trustPathExp = 0;
 	private boolean valid = false;
 	private JSONObject finalMetadata;
 	private Set<TrustMark> verifiedTrustMasks = new HashSet<>();
+	private ResolutionBudget budget;
+	private TrustGraph trustGraph;
 
 	public TrustChainBuilder(String subject, String metadataType, JWTHelper jwtHelper) {
 		this.jwtHelper = jwtHelper;
@@ -56,6 +64,19 @@ public class TrustChainBuilder {
 		this.subject = subject;
 	}
 
+	/**
+	 * @return the paths from the subject to the trust anchor found by the discovery,
+	 * the shortest first, then the ones expiring last, for diagnostics
+	 */
+	public List<TrustGraph.Path> getCandidatePaths() {
+		if (trustGraph == null) {
+			return Collections.emptyList();
+		}
+
+		return trustGraph.getCandidatePaths(
+			trustAnchorConfiguration.getSubject(), maxPathLength);
+	}
+
 	public String getChainAsString() {
 		StringJoiner sj = new StringJoiner(",", "[", "]");
 
@@ -79,6 +100,40 @@ public class TrustChainBuilder {
 		return LocalDateTime.ofEpochSecond(exp, 0, ZoneOffset.UTC);
 	}
 
+	/**
+	 * @return the compact JWTs of the trust chain: the entity configuration of the
+	 * subject, the statements along the trust path and the entity configuration of
+	 * the trust anchor; empty if no trust path has been found
+	 */
+	public List<String> getTrustChain() {
+		if (trustPath.size() < 2) {
+			return Collections.emptyList();
+		}
+
+		List<String> result = new ArrayList<>(trustPath.size() + 1);
+
+		result.add(trustPath.get(0).getJwt());
+
+		for (int x = 1; x < trustPath.size(); x++) {
+			result.add(
+				trustPath.get(x).getVerifiedDescendantStatementJwt(
+					trustPath.get(x - 1).getSubject()));
+		}
+
+		result.add(trustAnchorConfiguration.getJwt());
+
+		return result;
+	}
+
+	/**
+	 * @return the earliest expiration, in epoch seconds, of the entity configurations
+	 * and of the statements of the trust chain; {@code 0} if no trust path has been
+	 * found
+	 */
+	public long getTrustChainExp() {
+		return trustPathExp;
+	}
+
 	public String getFinalMetadata() {
 		if (finalMetadata == null) {
 			return null;
@@ -115,6 +170,34 @@ public class TrustChainBuilder {
 		return this.valid;
 	}
 
+	/**
+	 * @return the budget of the resolution, set or created by {@link #start()}
+	 */
+	public ResolutionBudget getBudget() {
+		return this.budget;
+	}
+
+	/**
+	 * @return the limit of the budget exhausted during the resolution, {@code null}
+	 * if none
+	 */
+	public ResolutionBudget.Limit getExhaustedLimit() {
+		return this.budget != null ? this.budget.getExhausted() : null;
+	}
+
+	/**
+	 * Limits the deadline, the outbound requests and the downloaded bytes of the
+	 * resolution. If not set, {@link ResolutionBudget#newDefault()} is used.
+	 *
+	 * @param budget
+	 * @return
+	 */
+	public TrustChainBuilder setBudget(ResolutionBudget budget) {
+		this.budget = budget;
+
+		return this;
+	}
+
 	/**
 	 * Means how much authorityHints to follow on each hop
 	 *
@@ -160,6 +243,10 @@ public class TrustChainBuilder {
 	}
 
 	public TrustChainBuilder start() throws OIDCException {
+		if (this.budget == null) {
+			this.budget = ResolutionBudget.newDefault();
+		}
+
 		try {
 			processTrustAnchorConfiguration();
 			processSubjectConfiguration();
@@ -182,97 +269,82 @@ public class TrustChainBuilder {
 	}
 
 	/**
-	 * Filters the trust path from subject to trust anchor, apply the metadata
-	 * policies along the path and returns the final metadata
+	 * Selects the trust path from subject to trust anchor, apply the metadata
+	 * policies along the path and sets the final metadata
 	 *
-	 * @throws Exception
+	 * @throws OIDCException
 	 */
 	protected void applyMetadataPolicy() throws OIDCException {
-		if (trustPath.isEmpty()) {
-			trustPath.add(subjectConfiguration);
-		}
-		else {
-			EntityConfiguration ec = ListUtil.getLast(trustPath);
+		final String trustAnchorSubject = trustAnchorConfiguration.getSubject();
 
-			if (trustAnchorConfiguration.getSubject().equals(ec.getSubject())) {
-				return;
-			}
-		}
+		this.trustGraph = TrustGraph.of(subjectConfiguration);
 
-		if (logger.isInfoEnabled()) {
-			logger.info(
-				"Applying metadata policy for {} over {} starting from {}",
-				this.subject, trustAnchorConfiguration.getSubject(),
-				ListUtil.getLast(trustPath));
-		}
+		TrustGraph.Path path = trustGraph.findShortestPath(
+			trustAnchorSubject, maxPathLength);
 
-		List<EntityConfiguration> lastNodeEcs = trustsTree.get(trustPath.size() - 1);
+		if (path == null) {
+			logger.warn(
+				"No trust path from {} to {} within {} intermediates",
+				this.subject, trustAnchorSubject, maxPathLength);
 
-		boolean pathFound = false;
-		final String trustAnchorSubject = trustAnchorConfiguration.getSubject();
+			this.valid = false;
 
-		for (EntityConfiguration ec : lastNodeEcs) {
-			for (EntityConfiguration supEc : ec.getVerifiedBySuperiors()) {
-				while ((trustPath.size() - 2) < maxPathLength) {
-					if (supEc.getSubject().equals(trustAnchorSubject)) {
-						trustPath.add(supEc);
-						pathFound = true;
-						break;
-					}
+			return;
+		}
 
-					if (supEc.hasVerifiedBySuperiors()) {
-						trustPath.add(supEc);
+		this.trustPath = new ArrayList<>(path.getEntities());
+		this.trustPathExp = Math.min(path.getExp(), trustAnchorConfiguration.getExp());
 
-						applyMetadataPolicy();
-					}
-					else {
-						if (logger.isInfoEnabled()) {
-							logger.info(
-								"'Huston, we have a problem' in {} for {} to {}",
-								supEc.getSubject(), this.subject,
-								trustAnchorConfiguration.getSubject());
-						}
+		setExpiration();
 
-						trustPath.add(this.subjectConfiguration);
-						break;
-					}
-				}
-			}
-		}
+		logger.info("Found a trust path: {}", path);
 
-		// once I filtered a concrete and unique trust path I can apply the metadata
-		// policy
+		if (logger.isDebugEnabled()) {
+			logger.debug(
+				"Candidate trust paths for {}: {}", this.subject,
+				trustGraph.getCandidatePaths(trustAnchorSubject, maxPathLength));
+		}
 
-		if (pathFound) {
-			logger.info("Found a trust path: {}", this.trustPath);
+		JSONObject payloadMetadata = this.subjectConfiguration.getPayloadMetadata();
+		JSONObject metadata = payloadMetadata.optJSONObject(metadataType);
 
-			this.finalMetadata = this.subjectConfiguration
-				.getPayloadMetadata()
-				.optJSONObject(metadataType);
+		if (metadata == null) {
+			logger.error("Missing {} in {}", this.metadataType, payloadMetadata);
 
-			if (this.finalMetadata == null) {
-				logger.error(
-					"Missing {} in {}",
-					this.metadataType, this.subjectConfiguration.getPayloadMetadata());
+			return;
+		}
 
-				return;
-			}
+		// the statements from the trust anchor down, their policies are merged
+		// once per trust path and applied to this build's copy of the leaf metadata
 
-			for (int x = trustPath.size(); x > 0; x--) {
-				EntityConfiguration ec = trustPath.get(x - 1);
+		List<JSONObject> statements = new ArrayList<>();
+		List<String> jwts = new ArrayList<>();
 
-				JSONObject pol = ec.getVerifiedDescendantPayloadMetadataPolicy(
-					metadataType);
+		for (int x = trustPath.size() - 1; x > 0; x--) {
+			String descendant = trustPath.get(x - 1).getSubject();
+			JSONObject statement = trustPath.get(x).getVerifiedDescendantPayload(
+				descendant);
 
-				if (pol != null) {
-					this.finalMetadata = applyPolicy(this.finalMetadata, pol);
-				}
+			if (statement != null) {
+				statements.add(statement);
+				jwts.add(trustPath.get(x).getVerifiedDescendantStatementJwt(descendant));
 			}
 		}
 
-		setExpiration();
+		this.finalMetadata = MetadataPolicyCache.getInstance()
+			.getMergedPolicy(metadataType, statements, jwts)
+			.apply(metadata);
 	}
 
+	/**
+	 * Applies a single policy, modifying the metadata. Kept as the reference for
+	 * {@link MetadataPolicy}, which the trust chain builds use.
+	 *
+	 * @param metadata
+	 * @param policy
+	 * @return the metadata
+	 * @throws OIDCException
+	 */
 	protected JSONObject applyPolicy(JSONObject metadata, JSONObject policy)
 		throws OIDCException {
 
@@ -370,6 +442,16 @@ public class TrustChainBuilder {
 	}
 
 	/**
+	 * Walks up the authority hints one level at a time. All the fetches of a level
+	 * are run concurrently, in two rounds: first the entity configurations of the
+	 * superiors, then their statements about the entities of the level. The results
+	 * are applied in the same order of a sequential walk, so the outcome does not
+	 * depend on the response times.
+	 * <br/>
+	 * The walk stops once the budget is exhausted: the fetches still running are
+	 * cancelled and, if no valid chain has been found, the exhausted limit is
+	 * reported with {@link TrustChainException.BudgetExhausted}.
+	 *
 	 * @return return a chain of verified statements from the lower up to the trust anchor
 	 * @throws OIDCException
 	 */
@@ -384,12 +466,19 @@ public class TrustChainBuilder {
 			this.trustAnchorConfiguration);
 
 		while ((trustsTree.size() -2) < maxPathLength) {
+			if (budget.getExhausted() != null) {
+				break;
+			}
+
 			List<EntityConfiguration> entities = trustsTree.get(trustsTree.size() -1);
 
-			List<EntityConfiguration> supEcs = new ArrayList<>();
+			List<EntityConfiguration> level = new ArrayList<>();
+			Set<String> levelSubjects = new HashSet<>();
 
 			for (EntityConfiguration ec : entities) {
-				if (processedSubjects.contains(ec.getSubject())) {
+				if (processedSubjects.contains(ec.getSubject()) ||
+					!levelSubjects.add(ec.getSubject())) {
+
 					logger.warn(
 						"Metadata discovery loop detection for {}. " +
 						"Already present in {}. " +
@@ -399,21 +488,20 @@ public class TrustChainBuilder {
 					continue;
 				}
 
-				try {
-					Map<String, EntityConfiguration> superiors = ec.getSuperiors(
-						this.maxAuthorityHints, superiorHints);
+				level.add(ec);
+			}
+
+			Set<EntityConfiguration> failed = Collections.newSetFromMap(
+				new IdentityHashMap<>());
 
-					Map<String, EntityConfiguration> verifiedSuperiors =
-						ec.validateBySuperiors(superiors.values());
+			fetchSuperiors(level, superiorHints, failed);
 
-					supEcs.addAll(verifiedSuperiors.values());
+			List<EntityConfiguration> supEcs = validateBySuperiors(level, failed);
 
+			for (EntityConfiguration ec : level) {
+				if (!failed.contains(ec)) {
 					processedSubjects.add(ec.getSubject());
 				}
-				catch (Exception e) {
-					logger.error(
-						"Metadata discovery exception for {}: {}", ec.getSubject(), e);
-				}
 			}
 
 			if (!supEcs.isEmpty()) {
@@ -432,9 +520,178 @@ public class TrustChainBuilder {
 			applyMetadataPolicy();
 		}
 
+		if (!this.valid && budget.getExhausted() != null) {
+			throw new TrustChainException.BudgetExhausted(
+				budget.getExhausted(), String.format(
+					"discovery of %s stopped, %s", subject, budget));
+		}
+
 		return this.valid;
 	}
 
+	/**
+	 * Fetches concurrently the entity configurations of the authority hints of all
+	 * the entities of a level
+	 *
+	 * @param level
+	 * @param superiorHints
+	 * @param failed collects the entities whose discovery failed
+	 * @throws OIDCException
+	 */
+	private void fetchSuperiors(
+			List<EntityConfiguration> level, List<EntityConfiguration> superiorHints,
+			Set<EntityConfiguration> failed)
+		throws OIDCException {
+
+		Map<EntityConfiguration, List<String>> hintsByEntity = new IdentityHashMap<>();
+		List<EntityConfiguration> owners = new ArrayList<>();
+		List<Callable<EntityConfiguration>> tasks = new ArrayList<>();
+
+		for (EntityConfiguration ec : level) {
+			try {
+				List<String> authorityHints = ec.getAuthorityHintsToFetch(
+					this.maxAuthorityHints, superiorHints);
+
+				hintsByEntity.put(ec, authorityHints);
+
+				for (String authorityHint : authorityHints) {
+					if (EntityConfiguration.isKnownUnreachable(authorityHint)) {
+						logger.warn(
+							"Skipping authority hint {} of {}: recently unreachable",
+							authorityHint, ec.getSubject());
+
+						continue;
+					}
+
+					owners.add(ec);
+					tasks.add(
+						() -> EntityConfiguration.fetchSuperior(
+							authorityHint, jwtHelper, budget));
+				}
+			}
+			catch (Exception e) {
+				logger.error(
+					"Metadata discovery exception for {}: {}", ec.getSubject(), e);
+
+				failed.add(ec);
+			}
+		}
+
+		List<Future<EntityConfiguration>> results = invokeAll(tasks);
+
+		for (int x = 0; x < results.size(); x++) {
+			EntityConfiguration sup;
+
+			try {
+				sup = EntityConfiguration.getResultOrNull(results.get(x));
+			}
+			catch (Exception e) {
+				logger.warn("Get Entity Configuration failed: {}", e.toString());
+
+				continue;
+			}
+
+			if (sup != null) {
+				owners.get(x).addSuperior(sup);
+			}
+		}
+
+		hintsByEntity.forEach(EntityConfiguration::warnUnavailableSuperiors);
+	}
+
+	/**
+	 * Fetches concurrently the statements issued by the superiors about the entities
+	 * of a level, then validates each entity with them
+	 *
+	 * @param level
+	 * @param failed collects the entities whose discovery failed
+	 * @return the superiors that have validated the entities of the level
+	 * @throws OIDCException
+	 */
+	private List<EntityConfiguration> validateBySuperiors(
+			List<EntityConfiguration> level, Set<EntityConfiguration> failed)
+		throws OIDCException {
+
+		List<EntityConfiguration> owners = new ArrayList<>();
+		List<EntityConfiguration.StatementRequest> requests = new ArrayList<>();
+
+		for (EntityConfiguration ec : level) {
+			if (failed.contains(ec)) {
+				continue;
+			}
+
+			for (EntityConfiguration.StatementRequest request :
+					ec.getStatementRequests(ec.getVerifiedSuperiors())) {
+
+				// a known bad superior does not stop the entity, the others may validate it
+
+				if (request.isKnownUnreachable()) {
+					logger.warn(
+						"Skipping statement about {} by {}: recently unreachable",
+						ec.getSubject(), request.superior().getSubject());
+
+					continue;
+				}
+
+				owners.add(ec);
+				requests.add(request);
+			}
+		}
+
+		List<Future<String>> results = invokeAll(
+			EntityConfiguration.toTasks(requests, budget));
+
+		for (int x = 0; x < results.size(); x++) {
+			EntityConfiguration ec = owners.get(x);
+
+			// as in a sequential walk, the first failed fetch stops the entity
+			if (failed.contains(ec)) {
+				continue;
+			}
+
+			// cancelled by the budget, the entity is not validated by the superior
+
+			if (results.get(x).isCancelled()) {
+				continue;
+			}
+
+			try {
+				ec.validateBySuperior(
+					EntityConfiguration.getResult(results.get(x)),
+					requests.get(x).superior());
+			}
+			catch (Exception e) {
+				logger.error(
+					"Metadata discovery exception for {}: {}", ec.getSubject(), e);
+
+				failed.add(ec);
+			}
+		}
+
+		List<EntityConfiguration> supEcs = new ArrayList<>();
+
+		for (EntityConfiguration ec : level) {
+			if (!failed.contains(ec)) {
+				supEcs.addAll(ec.getVerifiedBySuperiors());
+			}
+		}
+
+		return supEcs;
+	}
+
+	private <T> List<Future<T>> invokeAll(List<Callable<T>> tasks)
+		throws OIDCException {
+
+		try {
+			return FederationHttpClient.getInstance().invokeAll(tasks, budget);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+
+			throw new TrustChainBuilderException("Discovery interrupted for " + subject);
+		}
+	}
+
 	/**
 	 * Ensure the provided Subject Entity Configuration is valid (self validable) and
 	 * complete (at least by required elements)
@@ -449,12 +706,11 @@ public class TrustChainBuilder {
 		}
 
 		try {
-			String jwt = EntityHelper.getEntityConfiguration(subject);
-
-			subjectConfiguration = new EntityConfiguration(
-				jwt, trustAnchorConfiguration, jwtHelper);
-
-			subjectConfiguration.validateItself();
+			subjectConfiguration = EntityConfiguration.fetch(
+				subject, trustAnchorConfiguration, jwtHelper, budget);
+		}
+		catch (TrustChainException.BudgetExhausted e) {
+			throw e;
 		}
 		catch (Exception e) {
 			String msg = String.format(
@@ -0,0 +1,340 @@
+package it.ipzs.fedauthority.oidclib.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+
+import org.json.JSONObject;
+
+/**
+ * The verified superiors found by a trust chain discovery, as a graph: the nodes are
+ * the entities, by subject, and an edge goes from an entity to each superior that has
+ * issued a verified statement about it.
+ * <br/>
+ * The trust path is selected with a breadth-first search, in O(V+E): the shortest
+ * path to the trust anchor wins and, among the shortest ones, the one expiring
+ * last. Entities reached through more than one branch, as in diamond-shaped
+ * federations, are visited once.
+ */
+public final class TrustGraph {
+
+	/**
+	 * Limits the paths listed by {@link #getCandidatePaths(String, int)}, whose number
+	 * can grow exponentially with the levels
+	 */
+	private static final int MAX_CANDIDATES = 100;
+
+	private final Node leaf;
+	private final Map<String, Node> nodes = new LinkedHashMap<>();
+
+	/**
+	 * @param subjectConfiguration the entity configuration of the leaf, once the
+	 * discovery has validated it by its superiors
+	 * @return the graph of the superiors reachable from the leaf
+	 */
+	public static TrustGraph of(EntityConfiguration subjectConfiguration) {
+		return new TrustGraph(subjectConfiguration);
+	}
+
+	private TrustGraph(EntityConfiguration subjectConfiguration) {
+		this.leaf = new Node(subjectConfiguration.getSubject(), subjectConfiguration);
+
+		nodes.put(leaf.subject, leaf);
+
+		// every superior is a distinct instance, holding the statement about the
+		// entity it has been fetched for: each instance is expanded once
+
+		Set<EntityConfiguration> seen = Collections.newSetFromMap(
+			new IdentityHashMap<>());
+		Deque<EntityConfiguration> queue = new ArrayDeque<>();
+
+		seen.add(subjectConfiguration);
+		queue.add(subjectConfiguration);
+
+		while (!queue.isEmpty()) {
+			EntityConfiguration ec = queue.poll();
+
+			Node node = nodes.computeIfAbsent(
+				ec.getSubject(), subject -> new Node(subject, ec));
+
+			for (EntityConfiguration superior : ec.getVerifiedBySuperiors()) {
+				node.addEdge(superior, ec.getSubject());
+
+				nodes.computeIfAbsent(
+					superior.getSubject(), subject -> new Node(subject, superior));
+
+				if (seen.add(superior)) {
+					queue.add(superior);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param trustAnchor the subject of the trust anchor
+	 * @param maxPathLength the maximum number of intermediates between the leaf and
+	 * the trust anchor
+	 * @return the shortest path from the leaf to the trust anchor expiring last,
+	 * {@code null} if there is none
+	 */
+	public Path findShortestPath(String trustAnchor, int maxPathLength) {
+		Map<Node, Integer> distances = new HashMap<>();
+		Map<Node, Long> expirations = new HashMap<>();
+		Map<Node, Edge> parents = new HashMap<>();
+		Deque<Node> queue = new ArrayDeque<>();
+
+		distances.put(leaf, 0);
+		expirations.put(leaf, leaf.entity.getExp());
+		queue.add(leaf);
+
+		while (!queue.isEmpty()) {
+			Node node = queue.poll();
+
+			int distance = distances.get(node);
+
+			// all the nodes one step closer have been dequeued, the expiration of
+			// this one is final
+
+			if (node.subject.equals(trustAnchor)) {
+				break;
+			}
+
+			if (distance > maxPathLength) {
+				continue;
+			}
+
+			for (Edge edge : node.edges) {
+				Node next = nodes.get(edge.superior.getSubject());
+
+				long exp = Math.min(expirations.get(node), edge.exp);
+
+				Integer nextDistance = distances.get(next);
+
+				if (nextDistance == null) {
+					distances.put(next, distance + 1);
+					expirations.put(next, exp);
+					parents.put(next, edge);
+					queue.add(next);
+				}
+				else if (nextDistance == distance + 1 && exp > expirations.get(next)) {
+					expirations.put(next, exp);
+					parents.put(next, edge);
+				}
+			}
+		}
+
+		Node anchor = nodes.get(trustAnchor);
+
+		if (anchor == null || !parents.containsKey(anchor)) {
+			return null;
+		}
+
+		List<EntityConfiguration> entities = new ArrayList<>();
+
+		for (Node node = anchor; node != leaf; ) {
+			Edge edge = parents.get(node);
+
+			entities.add(edge.superior);
+
+			node = nodes.get(edge.descendant);
+		}
+
+		entities.add(leaf.entity);
+
+		Collections.reverse(entities);
+
+		return new Path(entities, expirations.get(anchor));
+	}
+
+	/**
+	 * Lists the paths from the leaf to the trust anchor, for diagnostics, up to
+	 * {@value #MAX_CANDIDATES} of them
+	 *
+	 * @param trustAnchor the subject of the trust anchor
+	 * @param maxPathLength the maximum number of intermediates between the leaf and
+	 * the trust anchor
+	 * @return the paths without loops, the shortest first, then the ones expiring
+	 * last
+	 */
+	public List<Path> getCandidatePaths(String trustAnchor, int maxPathLength) {
+		List<Path> result = new ArrayList<>();
+
+		// depth-first, with an explicit stack of the edges taken and of the next edge
+		// to try at each level
+
+		List<Edge> taken = new ArrayList<>();
+		List<Node> stack = new ArrayList<>();
+		List<Integer> nextEdge = new ArrayList<>();
+		Set<Node> onPath = new HashSet<>();
+
+		stack.add(leaf);
+		nextEdge.add(0);
+		onPath.add(leaf);
+
+		while (!stack.isEmpty() && result.size() < MAX_CANDIDATES) {
+			int top = stack.size() - 1;
+			Node node = stack.get(top);
+			int x = nextEdge.get(top);
+
+			if (x >= node.edges.size() || top > maxPathLength) {
+				stack.remove(top);
+				nextEdge.remove(top);
+				onPath.remove(node);
+
+				if (!taken.isEmpty()) {
+					taken.remove(taken.size() - 1);
+				}
+
+				continue;
+			}
+
+			nextEdge.set(top, x + 1);
+
+			Edge edge = node.edges.get(x);
+			Node next = nodes.get(edge.superior.getSubject());
+
+			if (onPath.contains(next)) {
+				continue;
+			}
+
+			taken.add(edge);
+
+			if (next.subject.equals(trustAnchor)) {
+				result.add(toPath(taken));
+
+				taken.remove(taken.size() - 1);
+
+				continue;
+			}
+
+			stack.add(next);
+			nextEdge.add(0);
+			onPath.add(next);
+		}
+
+		result.sort(
+			Comparator.comparingInt((Path path) -> path.getEntities().size())
+				.thenComparing(Comparator.comparingLong(Path::getExp).reversed()));
+
+		return result;
+	}
+
+	public int getNodeCount() {
+		return nodes.size();
+	}
+
+	private Path toPath(List<Edge> edges) {
+		List<EntityConfiguration> entities = new ArrayList<>(edges.size() + 1);
+		long exp = leaf.entity.getExp();
+
+		entities.add(leaf.entity);
+
+		for (Edge edge : edges) {
+			entities.add(edge.superior);
+
+			exp = Math.min(exp, edge.exp);
+		}
+
+		return new Path(entities, exp);
+	}
+
+	/**
+	 * A path from the leaf to the trust anchor: after the leaf, every entity holds
+	 * the verified statement about the previous one
+	 */
+	public static final class Path {
+
+		private final List<EntityConfiguration> entities;
+		private final long exp;
+
+		private Path(List<EntityConfiguration> entities, long exp) {
+			this.entities = Collections.unmodifiableList(entities);
+			this.exp = exp;
+		}
+
+		public List<EntityConfiguration> getEntities() {
+			return entities;
+		}
+
+		/**
+		 * @return the earliest expiration of the entity configurations and of the
+		 * statements along the path
+		 */
+		public long getExp() {
+			return exp;
+		}
+
+		public List<String> getSubjects() {
+			List<String> result = new ArrayList<>(entities.size());
+
+			for (EntityConfiguration ec : entities) {
+				result.add(ec.getSubject());
+			}
+
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			StringJoiner sj = new StringJoiner(" -> ", "[", "]");
+
+			for (EntityConfiguration ec : entities) {
+				sj.add(ec.getSubject());
+			}
+
+			return sj + " exp " + exp;
+		}
+
+	}
+
+	private static final class Node {
+
+		private final String subject;
+		private final EntityConfiguration entity;
+		private final List<Edge> edges = new ArrayList<>();
+		private final Set<String> superiors = new HashSet<>();
+
+		private Node(String subject, EntityConfiguration entity) {
+			this.subject = subject;
+			this.entity = entity;
+		}
+
+		private void addEdge(EntityConfiguration superior, String descendant) {
+			if (superiors.add(superior.getSubject())) {
+				edges.add(new Edge(superior, descendant));
+			}
+		}
+
+	}
+
+	private static final class Edge {
+
+		private final EntityConfiguration superior;
+		private final String descendant;
+		private final long exp;
+
+		private Edge(EntityConfiguration superior, String descendant) {
+			this.superior = superior;
+			this.descendant = descendant;
+
+			JSONObject statement = superior.getVerifiedDescendantPayload(descendant);
+
+			long statementExp = statement != null ?
+				statement.optLong("exp", Long.MAX_VALUE) : Long.MAX_VALUE;
+
+			this.exp = Math.min(superior.getExp(), statementExp);
+		}
+
+	}
+
+}
@@ -6,8 +6,10 @@ import org.slf4j.LoggerFactory;
 
 import it.ipzs.fedauthority.oidclib.exception.OIDCException;
 import it.ipzs.fedauthority.oidclib.exception.TrustMarkException;
-import it.ipzs.fedauthority.oidclib.helper.EntityHelper;
+import it.ipzs.fedauthority.oidclib.helper.EntityConfigurationCache;
 import it.ipzs.fedauthority.oidclib.helper.JWTHelper;
+import it.ipzs.fedauthority.oidclib.helper.ParsedJWS;
+import it.ipzs.fedauthority.oidclib.helper.TrustMarkCache;
 
 
 public class TrustMark {
@@ -15,26 +17,24 @@ public class TrustMark {
 	private static final Logger logger = LoggerFactory.getLogger(TrustMark.class);
 
 	private final JWTHelper jwtHelper;
-	private final JSONObject header;
+	private final ParsedJWS token;
 	private final String id;
 	private final String iss;
-	private final String jwt;
 	private final String sub;
+	private final long exp;
 	private boolean valid = false;
 	private EntityConfiguration issuerEC;
 
-	public TrustMark(String jwt, JWTHelper jwtHelper) {
-		JSONObject token = JWTHelper.fastParse(jwt);
+	public TrustMark(String jwt, JWTHelper jwtHelper) throws OIDCException {
+		this.token = ParsedJWS.parse(jwt);
 
-		JSONObject header = token.getJSONObject("header");
-		JSONObject payload = token.getJSONObject("payload");
+		JSONObject payload = token.getPayload();
 
 		this.jwtHelper = jwtHelper;
-		this.jwt = jwt;
 		this.id = payload.getString("id");
 		this.iss = payload.getString("iss");
 		this.sub = payload.getString("sub");
-		this.header = header;
+		this.exp = payload.optLong("exp");
 	}
 
 	public String getId() {
@@ -50,26 +50,54 @@ public class TrustMark {
 	}
 
 	public boolean validate(EntityConfiguration ec) throws OIDCException {
-		String kid = header.optString("kid");
+		TrustMarkCache cache = TrustMarkCache.getInstance();
+
+		Boolean cached = cache.getResult(token.getCompact(), ec.getSubject());
+
+		if (cached != null) {
+			valid = cached;
+
+			return valid;
+		}
+
+		String kid = token.getKeyID();
 
 		if (!ec.hasJWK(kid)) {
 			throw new TrustMarkException(
 				"Trust Mark validation failed: %s not found in %s", kid, ec.getJwks());
 		}
 
-		valid = jwtHelper.verifyJWS(jwt, ec.getJWKSet());
+		valid = jwtHelper.verifyJWS(token, ec.getJWKSet());
+
+		cache.putResult(token.getCompact(), ec.getSubject(), valid, getExpiresAt(ec));
 
 		return valid;
 	}
 
+	/**
+	 * Validates the trust mark with the keys of its issuer. The outcome is taken from
+	 * {@link TrustMarkCache} when possible, the issuer entity configuration from
+	 * {@link EntityConfigurationCache}.
+	 *
+	 * @return {@code true} if valid
+	 * @throws OIDCException
+	 */
 	public boolean validateByIssuer() throws OIDCException {
-		if (issuerEC == null) {
-			String ec = EntityHelper.getEntityConfiguration(iss);
+		TrustMarkCache cache = TrustMarkCache.getInstance();
+
+		Boolean cached = cache.getResult(token.getCompact(), iss);
 
-			issuerEC = new EntityConfiguration(ec, jwtHelper);
+		if (cached != null) {
+			valid = cached;
+
+			return valid;
+		}
+
+		if (issuerEC == null) {
+			issuerEC = cache.getIssuer(iss, jwtHelper);
 		}
 
-		if (!issuerEC.validateItself()) {
+		if (!issuerEC.isValid() && !issuerEC.validateItself()) {
 			valid = false;
 
 			logger.warn("Issuer {} of trust mark {} is not valid.", iss, id);
@@ -77,7 +105,7 @@ public class TrustMark {
 			return false;
 		}
 
-		String kid = header.optString("kid");
+		String kid = token.getKeyID();
 
 		if (!issuerEC.hasJWK(kid)) {
 			throw new TrustMarkException(
@@ -85,7 +113,9 @@ public class TrustMark {
 				issuerEC.getJwks());
 		}
 
-		valid = jwtHelper.verifyJWS(jwt, issuerEC.getJWKSet());
+		valid = jwtHelper.verifyJWS(token, issuerEC.getJWKSet());
+
+		cache.putResult(token.getCompact(), iss, valid, getExpiresAt(issuerEC));
 
 		return valid;
 	}
@@ -93,7 +123,15 @@ public class TrustMark {
 	public JSONObject toJSON() {
 		return new JSONObject()
 			.put("id", this.id)
-			.put("trust_mark", this.jwt);
+			.put("trust_mark", token.getCompact());
+	}
+
+	/**
+	 * @return the earliest of the expirations of the trust mark, if any, and of the
+	 * entity configuration that validated it
+	 */
+	private long getExpiresAt(EntityConfiguration ec) {
+		return exp > 0 ? Math.min(exp, ec.getExp()) : ec.getExp();
 	}
 
 	@Override
@@ -202,6 +202,55 @@ public class H2PersistenceImpl implements PersistenceAdapter {
 		}
 	}
 
+	@Override
+	public List<CachedEntityInfo> findEntityConfigurationsExpiringBefore(
+			LocalDateTime before)
+		throws PersistenceException {
+
+		List<CachedEntityInfo> result = new ArrayList<>();
+
+		try {
+			for (EntityInfoRepository.ExpiringEntityConfiguration row :
+					entityInfoRepository.findConfigurationsExpiringBefore(before)) {
+
+				result.add(new CachedEntityInfo()
+					.setSubject(row.getSub())
+					.setIssuer(row.getSub())
+					.setExpiresOn(row.getExp()));
+			}
+
+			return result;
+		}
+		catch (Exception e) {
+			throw new PersistenceException(e);
+		}
+	}
+
+	@Override
+	public List<TrustChain> findTrustChainsExpiringBefore(LocalDateTime before)
+		throws PersistenceException {
+
+		List<TrustChain> result = new ArrayList<>();
+
+		try {
+			for (TrustChainRepository.ExpiringTrustChain row :
+					trustChainRepository.findActiveExpiringBefore(before)) {
+
+				result.add(new TrustChain()
+					.setSubject(row.getSub())
+					.setTrustAnchor(row.getTrustAnchor())
+					.setType(row.getType())
+					.setExpiresOn(row.getExp())
+					.setActive(true));
+			}
+
+			return result;
+		}
+		catch (Exception e) {
+			throw new PersistenceException(e);
+		}
+	}
+
 	@Override
 	public CachedEntityInfo storeEntityInfo(CachedEntityInfo entityInfo)
 		throws PersistenceException {
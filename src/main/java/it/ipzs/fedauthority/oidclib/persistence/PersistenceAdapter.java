@@ -1,5 +1,6 @@
 package it.ipzs.fedauthority.oidclib.persistence;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 import it.ipzs.fedauthority.oidclib.exception.PersistenceException;
@@ -38,6 +39,25 @@ public interface PersistenceAdapter {
 	public List<AuthnToken> findAuthnTokens(String userKey)
 		throws PersistenceException;
 
+	/**
+	 * @param before
+	 * @return the entity configurations expiring before the given time, with only
+	 * their subject, issuer and expiration
+	 * @throws PersistenceException
+	 */
+	public List<CachedEntityInfo> findEntityConfigurationsExpiringBefore(
+			LocalDateTime before)
+		throws PersistenceException;
+
+	/**
+	 * @param before
+	 * @return the active trust chains expiring before the given time, with only their
+	 * subject, trust anchor, metadata type and expiration
+	 * @throws PersistenceException
+	 */
+	public List<TrustChain> findTrustChainsExpiringBefore(LocalDateTime before)
+		throws PersistenceException;
+
 	public CachedEntityInfo storeEntityInfo(CachedEntityInfo entityInfo)
 		throws PersistenceException;
 
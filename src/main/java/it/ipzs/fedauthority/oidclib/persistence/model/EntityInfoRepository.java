@@ -1,5 +1,7 @@
 package it.ipzs.fedauthority.oidclib.persistence.model;
 
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
 
 import org.springframework.data.jpa.repository.Query;
@@ -14,4 +16,23 @@ public interface EntityInfoRepository
 		value = "select * from fetched_entity_statement f where f.sub = ?1 and f.iss = ?2 LIMIT 1", nativeQuery = true)
 	public EntityInfoModel fetchEntity(String sub, String iss);
 
+	/**
+	 * Reads only the subject and the expiration of the entity configurations, not
+	 * their statement and jwt
+	 */
+	@Query(
+		"SELECT f.sub AS sub, f.exp AS exp FROM EntityInfoModel f" +
+		" WHERE f.sub = f.iss AND f.exp < ?1"
+	)
+	public List<ExpiringEntityConfiguration> findConfigurationsExpiringBefore(
+		LocalDateTime before);
+
+	public interface ExpiringEntityConfiguration {
+
+		String getSub();
+
+		LocalDateTime getExp();
+
+	}
+
 }
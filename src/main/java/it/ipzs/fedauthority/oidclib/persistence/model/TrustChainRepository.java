@@ -1,5 +1,7 @@
 package it.ipzs.fedauthority.oidclib.persistence.model;
 
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
 
 import org.springframework.data.jpa.repository.Query;
@@ -38,4 +40,27 @@ public interface TrustChainRepository extends CrudRepository<TrustChainModel, Lo
 	public TrustChainModel fetchBySub_TASub_T(
 		String sub, String trustAnchorSub, String type);
 
+	/**
+	 * Reads only the columns needed to schedule a renewal, not the chain, metadata
+	 * and trust marks
+	 */
+	@Query(
+		"SELECT tc.sub AS sub, fes.sub AS trustAnchor, tc.type AS type, tc.exp AS exp" +
+		" FROM TrustChainModel tc, EntityInfoModel fes" +
+		" WHERE fes.id = tc.trustAnchorId AND tc.active = true AND tc.exp < ?1"
+	)
+	public List<ExpiringTrustChain> findActiveExpiringBefore(LocalDateTime before);
+
+	public interface ExpiringTrustChain {
+
+		String getSub();
+
+		String getTrustAnchor();
+
+		String getType();
+
+		LocalDateTime getExp();
+
+	}
+
 }
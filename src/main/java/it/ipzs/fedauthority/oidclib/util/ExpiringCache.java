@@ -0,0 +1,184 @@
+package it.ipzs.fedauthority.oidclib.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * A thread-safe, size bounded cache whose entries carry their own expiration time.
+ * <br/>
+ * Expired entries are dropped on access; when the cache grows over its maximum size
+ * the expired entries are purged first and then the least recently used ones.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class ExpiringCache<K, V> {
+
+	private final String name;
+	private final int maxSize;
+	private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong expirations = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	public ExpiringCache(String name, int maxSize) {
+		this.name = name;
+		this.maxSize = Math.max(1, maxSize);
+	}
+
+	/**
+	 * @param key
+	 * @return the cached value, or {@code null} if missing or expired
+	 */
+	public V get(K key) {
+		Entry<V> entry = entries.get(key);
+
+		if (entry == null) {
+			misses.incrementAndGet();
+
+			return null;
+		}
+
+		long now = System.currentTimeMillis();
+
+		if (entry.isExpired(now)) {
+			if (entries.remove(key, entry)) {
+				expirations.incrementAndGet();
+			}
+
+			misses.incrementAndGet();
+
+			return null;
+		}
+
+		entry.lastAccess = now;
+		hits.incrementAndGet();
+
+		return entry.value;
+	}
+
+	/**
+	 * @param key
+	 * @param value
+	 * @param expiresAtMillis epoch milliseconds after which the entry is not served
+	 */
+	public void put(K key, V value, long expiresAtMillis) {
+		if (expiresAtMillis <= System.currentTimeMillis()) {
+			return;
+		}
+
+		entries.put(key, new Entry<>(value, expiresAtMillis));
+
+		if (entries.size() > maxSize) {
+			evict();
+		}
+	}
+
+	public void invalidate(K key) {
+		if (entries.remove(key) != null) {
+			invalidations.incrementAndGet();
+		}
+	}
+
+	public void invalidateIf(Predicate<K> predicate) {
+		entries.keySet().removeIf(key -> {
+			if (predicate.test(key)) {
+				invalidations.incrementAndGet();
+				return true;
+			}
+			return false;
+		});
+	}
+
+	public void clear() {
+		invalidations.addAndGet(entries.size());
+		entries.clear();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+
+		stats.put("size", entries.size());
+		stats.put("max_size", maxSize);
+		stats.put("hits", hits.get());
+		stats.put("misses", misses.get());
+		stats.put("evictions", evictions.get());
+		stats.put("expirations", expirations.get());
+		stats.put("invalidations", invalidations.get());
+
+		return stats;
+	}
+
+	private synchronized void evict() {
+		if (entries.size() <= maxSize) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+
+		entries.entrySet().removeIf(e -> {
+			if (e.getValue().isExpired(now)) {
+				expirations.incrementAndGet();
+				return true;
+			}
+			return false;
+		});
+
+		// drop a little more than needed so that eviction is not run on every put
+
+		int target = maxSize - Math.max(1, maxSize / 10);
+
+		if (entries.size() <= target) {
+			return;
+		}
+
+		List<Map.Entry<K, Entry<V>>> candidates = new ArrayList<>(entries.entrySet());
+
+		candidates.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+
+		int toRemove = entries.size() - target;
+
+		for (int x = 0; x < toRemove && x < candidates.size(); x++) {
+			Map.Entry<K, Entry<V>> candidate = candidates.get(x);
+
+			if (entries.remove(candidate.getKey(), candidate.getValue())) {
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	private static final class Entry<V> {
+
+		private final V value;
+		private final long expiresAt;
+		private volatile long lastAccess;
+
+		private Entry(V value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+			this.lastAccess = System.currentTimeMillis();
+		}
+
+		private boolean isExpired(long now) {
+			return expiresAt <= now;
+		}
+
+	}
+
+}
@@ -0,0 +1,110 @@
+package it.ipzs.fedauthority.oidclib.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A process-wide instance, such as one of the caches shared by the trust chain
+ * builds: it is built with its default settings on first use, and replaced, dropping
+ * its state, when the settings are configured.
+ * <br/>
+ * Every shared instance is registered by name, so that {@link #getAllStats()}
+ * reports all of them.
+ *
+ * @param <T> type of the instance
+ */
+public final class SharedInstance<T> {
+
+	private static final Logger logger = LoggerFactory.getLogger(SharedInstance.class);
+
+	private static final Map<String, SharedInstance<?>> registry =
+		new ConcurrentSkipListMap<>();
+
+	private final String name;
+	private final Supplier<T> defaults;
+	private final Function<T, Map<String, Object>> stats;
+	private volatile T instance;
+
+	/**
+	 * @param <T>
+	 * @param name the key of its statistics, such as {@code trust_mark_cache}
+	 * @param defaults builds the instance with the default settings
+	 * @param stats reads the statistics of an instance
+	 * @return the shared instance, not built yet
+	 * @throws IllegalStateException if the name is already registered
+	 */
+	public static <T> SharedInstance<T> register(
+		String name, Supplier<T> defaults, Function<T, Map<String, Object>> stats) {
+
+		SharedInstance<T> result = new SharedInstance<>(name, defaults, stats);
+
+		if (registry.putIfAbsent(name, result) != null) {
+			throw new IllegalStateException(name + " is already registered");
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return the statistics of every registered instance, by name
+	 */
+	public static Map<String, Object> getAllStats() {
+		Map<String, Object> result = new LinkedHashMap<>();
+
+		registry.forEach((name, shared) -> result.put(name, shared.getStats()));
+
+		return result;
+	}
+
+	private SharedInstance(
+		String name, Supplier<T> defaults, Function<T, Map<String, Object>> stats) {
+
+		this.name = name;
+		this.defaults = defaults;
+		this.stats = stats;
+	}
+
+	/**
+	 * @return the current instance, built with the default settings if
+	 * {@link #set(Object, String)} has not been called
+	 */
+	public T get() {
+		T current = instance;
+
+		if (current == null) {
+			synchronized (this) {
+				current = instance;
+
+				if (current == null) {
+					current = defaults.get();
+					instance = current;
+				}
+			}
+		}
+
+		return current;
+	}
+
+	/**
+	 * Replaces the current instance, which is dropped
+	 *
+	 * @param instance
+	 * @param settings the settings of the instance, to be logged
+	 */
+	public synchronized void set(T instance, String settings) {
+		this.instance = instance;
+
+		logger.info("{} configured: {}", name.replace('_', ' '), settings);
+	}
+
+	public Map<String, Object> getStats() {
+		return stats.apply(get());
+	}
+
+}
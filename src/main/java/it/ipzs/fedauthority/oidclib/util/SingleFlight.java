@@ -0,0 +1,236 @@
+package it.ipzs.fedauthority.oidclib.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces the concurrent computations of the same key: the first caller runs the
+ * computation while the ones arriving before it ends wait for it and share its
+ * result, or its exception. With {@link #submit} the computation runs on an
+ * executor instead, so that each caller can wait for it as long as it likes and
+ * give up without affecting the others.
+ * <br/>
+ * Nothing is kept once a computation ends, the next caller runs a new one. Every
+ * computation of the same key must throw the same type of checked exception.
+ *
+ * @param <K> key type
+ * @param <V> result type, {@code null} results are shared as well
+ */
+public class SingleFlight<K, V> {
+
+	private final String name;
+	private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+	private final AtomicLong executions = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+
+	/**
+	 * A computation that can throw a checked exception
+	 *
+	 * @param <V> result type
+	 * @param <E> exception type
+	 */
+	@FunctionalInterface
+	public interface Computation<V, E extends Exception> {
+
+		V compute() throws E;
+
+	}
+
+	public SingleFlight(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @param key
+	 * @param computation run only if no computation of the key is in flight
+	 * @return the result of the computation of the key in flight, or of this one
+	 * @throws E the exception thrown by the computation
+	 */
+	@SuppressWarnings("unchecked")
+	public <E extends Exception> V execute(K key, Computation<V, E> computation)
+		throws E {
+
+		CompletableFuture<V> future = new CompletableFuture<>();
+
+		CompletableFuture<V> current = inFlight.putIfAbsent(key, future);
+
+		if (current != null) {
+			coalesced.incrementAndGet();
+
+			try {
+				return current.join();
+			}
+			catch (CompletionException e) {
+				throw (E)unwrap(e.getCause());
+			}
+		}
+
+		return run(key, future, computation);
+	}
+
+	/**
+	 * As {@link #execute(Object, Computation)}, but a caller joining the computation
+	 * in flight waits for it at most {@code maxWaitMillis}, and stops waiting if it is
+	 * interrupted
+	 *
+	 * @param key
+	 * @param computation run only if no computation of the key is in flight
+	 * @param maxWaitMillis {@code 0} to wait as long as the computation in flight
+	 * lasts
+	 * @param onTimeout the exception thrown to a caller that stops waiting
+	 * @return the result of the computation of the key in flight, or of this one
+	 * @throws E the exception thrown by the computation, or by {@code onTimeout}
+	 */
+	@SuppressWarnings("unchecked")
+	public <E extends Exception> V execute(
+			K key, Computation<V, E> computation, long maxWaitMillis,
+			Supplier<? extends E> onTimeout)
+		throws E {
+
+		CompletableFuture<V> future = new CompletableFuture<>();
+
+		CompletableFuture<V> current = inFlight.putIfAbsent(key, future);
+
+		if (current != null) {
+			coalesced.incrementAndGet();
+
+			try {
+				return maxWaitMillis > 0
+					? current.get(maxWaitMillis, TimeUnit.MILLISECONDS)
+					: current.get();
+			}
+			catch (ExecutionException e) {
+				throw (E)unwrap(e.getCause());
+			}
+			catch (TimeoutException e) {
+				timeouts.incrementAndGet();
+
+				throw onTimeout.get();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+
+				throw onTimeout.get();
+			}
+		}
+
+		return run(key, future, computation);
+	}
+
+	private <E extends Exception> V run(
+			K key, CompletableFuture<V> future, Computation<V, E> computation)
+		throws E {
+
+		executions.incrementAndGet();
+
+		try {
+			V result = computation.compute();
+
+			future.complete(result);
+
+			return result;
+		}
+		catch (Exception | Error e) {
+			failures.incrementAndGet();
+
+			future.completeExceptionally(e);
+
+			throw e;
+		}
+		finally {
+			inFlight.remove(key, future);
+		}
+	}
+
+	/**
+	 * @param key
+	 * @param computation run on the executor only if no computation of the key is in
+	 * flight
+	 * @param executor
+	 * @return a future of the computation of the key in flight, or of this one, of
+	 * this caller only: cancelling it neither cancels nor interrupts the computation
+	 */
+	public CompletableFuture<V> submit(
+		K key, Computation<V, ?> computation, Executor executor) {
+
+		CompletableFuture<V> future = new CompletableFuture<>();
+
+		CompletableFuture<V> current = inFlight.putIfAbsent(key, future);
+
+		if (current != null) {
+			coalesced.incrementAndGet();
+
+			return current.copy();
+		}
+
+		executions.incrementAndGet();
+
+		Runnable task = () -> {
+			try {
+				future.complete(computation.compute());
+			}
+			catch (Exception | Error e) {
+				failures.incrementAndGet();
+
+				future.completeExceptionally(e);
+			}
+			finally {
+				inFlight.remove(key, future);
+			}
+		};
+
+		try {
+			executor.execute(task);
+		}
+		catch (RuntimeException e) {
+			failures.incrementAndGet();
+
+			future.completeExceptionally(e);
+			inFlight.remove(key, future);
+		}
+
+		return future.copy();
+	}
+
+	/**
+	 * @return the exception of a computation, thrown as it is if unchecked
+	 */
+	private static Throwable unwrap(Throwable cause) {
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException)cause;
+		}
+		else if (cause instanceof Error) {
+			throw (Error)cause;
+		}
+
+		return cause;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+
+		stats.put("in_flight", inFlight.size());
+		stats.put("executions", executions.get());
+		stats.put("coalesced", coalesced.get());
+		stats.put("failures", failures.get());
+		stats.put("timeouts", timeouts.get());
+
+		return stats;
+	}
+
+}
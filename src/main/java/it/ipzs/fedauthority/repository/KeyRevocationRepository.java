@@ -0,0 +1,9 @@
+package it.ipzs.fedauthority.repository;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import it.ipzs.fedauthority.model.KeyRevocation;
+
+public interface KeyRevocationRepository extends MongoRepository<KeyRevocation, String> {
+
+}
@@ -1,17 +1,40 @@
 package it.ipzs.fedauthority.repository;
 
-import java.util.List;
 import java.util.Optional;
 
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 
 import it.ipzs.fedauthority.model.OnboardEntity;
 
-public interface OnboardEntityRepository extends MongoRepository<OnboardEntity, String> {
-
-	public List<OnboardEntity> findByActiveTrue();
-
-	public Optional<OnboardEntity> findByUrl(String sub);
-
-
-}
\ No newline at end of file
+/**
+ * The lookups by url are served by the unique {@code url} index created by
+ * {@link it.ipzs.fedauthority.config.MongoIndexManager}; the hot paths read only the
+ * fields they need.
+ */
+public interface OnboardEntityRepository
+		extends MongoRepository<OnboardEntity, String>, OnboardEntityRepositoryCustom {
+
+	/**
+	 * fields needed to issue a subordinate statement ({@code /fetch})
+	 */
+	@Query(value = "{ 'url' : ?0 }", fields = "{ 'url' : 1, 'role' : 1, 'email' : 1, 'jwk' : 1 }")
+	public Optional<OnboardEntity> findStatementSubjectByUrl(String url);
+
+	/**
+	 * fields needed to answer a resolve request ({@code /resolve}): only the url, the
+	 * rest is read from the federation
+	 */
+	@Query(value = "{ 'url' : ?0 }", fields = "{ 'url' : 1 }")
+	public Optional<OnboardEntity> findResolveSubjectByUrl(String url);
+
+	/**
+	 * fields needed to issue a trust mark ({@code /trust_mark})
+	 */
+	@Query(value = "{ 'url' : ?0 }", fields = "{ 'url' : 1, 'trustMark' : 1 }")
+	public Optional<OnboardEntity> findTrustMarkSubjectByUrl(String url);
+
+	@Query(value = "{ '_id' : ?0 }", fields = "{ 'url' : 1 }")
+	public Optional<OnboardEntity> findUrlById(String id);
+
+}
@@ -0,0 +1,55 @@
+package it.ipzs.fedauthority.repository;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import it.ipzs.fedauthority.dto.SubordinateFilter;
+import it.ipzs.fedauthority.dto.SubordinatePage;
+
+/**
+ * Projected queries on the onboarded entities that return only the url, without
+ * mapping the whole documents.
+ */
+public interface OnboardEntityRepositoryCustom {
+
+	/**
+	 * @param filter
+	 * @return the urls of the active entities matching the filter, in {@code _id}
+	 * order, read lazily from a database cursor. The stream must be closed.
+	 */
+	public Stream<String> streamActiveUrls(SubordinateFilter filter);
+
+	/**
+	 * @param filter
+	 * @return the number of active entities matching the filter and the greatest of
+	 * their ids, which change when one of them is added, removed, activated or
+	 * deactivated
+	 */
+	public String summarizeActiveUrls(SubordinateFilter filter);
+
+	/**
+	 * @return the urls of all the onboarded entities, active or not, read lazily from a
+	 * database cursor. The stream must be closed.
+	 */
+	public Stream<String> streamUrls();
+
+	/**
+	 * @param filter
+	 * @param cursor the cursor returned with the previous page, {@code null} for the
+	 * first page
+	 * @param limit the page size
+	 * @return a page of urls of the active entities matching the filter
+	 * @throws IllegalArgumentException if the cursor is not valid
+	 */
+	public SubordinatePage findActiveUrls(SubordinateFilter filter, String cursor, int limit);
+
+	/**
+	 * Looks up many entities with a single {@code $in} query on the {@code url} index
+	 *
+	 * @param urls
+	 * @return the urls that are onboarded
+	 */
+	public Set<String> findExistingUrls(Collection<String> urls);
+
+}
@@ -0,0 +1,195 @@
+package it.ipzs.fedauthority.repository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import it.ipzs.fedauthority.dto.SubordinateFilter;
+import it.ipzs.fedauthority.dto.SubordinatePage;
+import it.ipzs.fedauthority.model.OnboardEntity;
+import lombok.RequiredArgsConstructor;
+
+@RequiredArgsConstructor
+public class OnboardEntityRepositoryImpl implements OnboardEntityRepositoryCustom {
+
+	private static final String ID = "_id";
+
+	private static final String URL = "url";
+
+	private static final String TRUST_MARK = "trustMark";
+
+	/**
+	 * prefix of the cursors after an id that is not an ObjectId, followed by the id
+	 * in base64url
+	 */
+	private static final String STRING_CURSOR = "s.";
+
+	private final MongoTemplate mongoTemplate;
+
+	@Override
+	public Stream<String> streamActiveUrls(SubordinateFilter filter) {
+		// the same order as the pages, so that the list does not depend on the query plan
+		Query query = projectedQuery(activeCriteria(filter))
+				.with(Sort.by(Sort.Direction.ASC, ID));
+
+		return mongoTemplate.stream(query, Document.class, collectionName())
+				.map(doc -> doc.getString(URL))
+				.filter(Objects::nonNull);
+	}
+
+	@Override
+	public String summarizeActiveUrls(SubordinateFilter filter) {
+		long count = mongoTemplate.count(new Query(activeCriteria(filter)), collectionName());
+
+		Query last = new Query(activeCriteria(filter))
+				.with(Sort.by(Sort.Direction.DESC, ID))
+				.limit(1);
+		last.fields().include(ID);
+
+		Document doc = mongoTemplate.findOne(last, Document.class, collectionName());
+
+		return count + ":" + (doc != null ? doc.get(ID) : "");
+	}
+
+	@Override
+	public Stream<String> streamUrls() {
+		Query query = projectedQuery(new Criteria());
+		query.fields().exclude(ID);
+
+		return mongoTemplate.stream(query, Document.class, collectionName())
+				.map(doc -> doc.getString(URL))
+				.filter(Objects::nonNull);
+	}
+
+	@Override
+	public SubordinatePage findActiveUrls(SubordinateFilter filter, String cursor, int limit) {
+		Criteria criteria = activeCriteria(filter);
+		if (cursor != null) {
+			criteria = new Criteria().andOperator(criteria, afterCursor(cursor));
+		}
+
+		// one more than requested tells whether there is a next page
+		Query query = projectedQuery(criteria)
+				.with(Sort.by(Sort.Direction.ASC, ID))
+				.limit(limit + 1);
+
+		List<Document> docs = mongoTemplate.find(query, Document.class, collectionName());
+
+		List<String> urls = new ArrayList<>(Math.min(limit, docs.size()));
+		for (int x = 0; x < docs.size() && x < limit; x++) {
+			String url = docs.get(x).getString(URL);
+			if (url != null) {
+				urls.add(url);
+			}
+		}
+
+		String nextCursor = null;
+		if (docs.size() > limit) {
+			nextCursor = toCursor(docs.get(limit - 1).get(ID));
+		}
+
+		return new SubordinatePage(urls, nextCursor);
+	}
+
+	@Override
+	public Set<String> findExistingUrls(Collection<String> urls) {
+		Set<String> result = new HashSet<>(urls.size() * 2);
+		if (urls.isEmpty()) {
+			return result;
+		}
+
+		Query query = projectedQuery(Criteria.where(URL).in(urls));
+		query.fields().exclude(ID);
+
+		for (Document doc : mongoTemplate.find(query, Document.class, collectionName())) {
+			String url = doc.getString(URL);
+			if (url != null) {
+				result.add(url);
+			}
+		}
+
+		return result;
+	}
+
+	private Criteria activeCriteria(SubordinateFilter filter) {
+		Criteria criteria = Criteria.where("active").is(true);
+
+		if (filter == null) {
+			return criteria;
+		}
+		if (filter.getEntityType() != null) {
+			criteria = criteria.and("role").is(filter.getEntityType().name());
+		}
+		if (filter.getTrustMarkId() != null) {
+			criteria = criteria.and(TRUST_MARK).is(filter.getTrustMarkId());
+		} else if (Boolean.TRUE.equals(filter.getTrustMarked())) {
+			criteria = criteria.and(TRUST_MARK).exists(true).nin(null, "");
+		} else if (Boolean.FALSE.equals(filter.getTrustMarked())) {
+			criteria = criteria.and(TRUST_MARK).in(null, "");
+		}
+
+		return criteria;
+	}
+
+	private Query projectedQuery(Criteria criteria) {
+		Query query = new Query(criteria);
+		query.fields().include(URL);
+
+		return query;
+	}
+
+	/**
+	 * The ids are ObjectIds, unless an entity has been saved with an id that is not a
+	 * valid ObjectId: such ids are strings, sorted before all the ObjectIds
+	 */
+	private String toCursor(Object id) {
+		if (id instanceof ObjectId objectId) {
+			return objectId.toHexString();
+		}
+		if (id instanceof String string) {
+			return STRING_CURSOR + Base64.getUrlEncoder().withoutPadding()
+					.encodeToString(string.getBytes(StandardCharsets.UTF_8));
+		}
+
+		throw new IllegalStateException("unsupported id type " + id.getClass().getName());
+	}
+
+	private Criteria afterCursor(String cursor) {
+		if (ObjectId.isValid(cursor)) {
+			return Criteria.where(ID).gt(new ObjectId(cursor));
+		}
+
+		if (cursor.startsWith(STRING_CURSOR)) {
+			String id;
+			try {
+				id = new String(Base64.getUrlDecoder().decode(cursor.substring(STRING_CURSOR.length())),
+						StandardCharsets.UTF_8);
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("invalid cursor: " + cursor, e);
+			}
+
+			// $gt on a string matches strings only, the ObjectIds follow them
+			return new Criteria().orOperator(Criteria.where(ID).gt(id), Criteria.where(ID).type(7));
+		}
+
+		throw new IllegalArgumentException("invalid cursor: " + cursor);
+	}
+
+	private String collectionName() {
+		return mongoTemplate.getCollectionName(OnboardEntity.class);
+	}
+
+}
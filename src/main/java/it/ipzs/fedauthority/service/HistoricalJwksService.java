@@ -1,21 +1,35 @@
 package it.ipzs.fedauthority.service;
 
-import java.util.Calendar;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.jwk.JWK;
 
 import it.ipzs.fedauthority.config.KeyStoreConfig;
+import it.ipzs.fedauthority.config.SigningKeySnapshot;
+import it.ipzs.fedauthority.dto.SignedStatement;
+import it.ipzs.fedauthority.model.KeyRevocation;
+import it.ipzs.fedauthority.repository.KeyRevocationRepository;
 import it.ipzs.fedauthority.util.JwtUtil;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Builds the signed historical JWKS once per key set: the response is computed on the
+ * first request after {@link KeyStoreConfig} publishes new keys and then served from
+ * memory.
+ * <br/>
+ * The stored revocations may be amended, e.g. their reason: they are read again every
+ * {@code keys.revocation.recheck-seconds} and the response is rebuilt if they changed.
+ */
 @Slf4j
 @Service
 @RequiredArgsConstructor
@@ -25,24 +39,143 @@ public class HistoricalJwksService {
 
 	private final JwtUtil jwtUtil;
 
-	public String generateHistoricalJwksResponse() {
+	private final KeyRevocationRepository revocationRepository;
+
+	@Value("${keys.revocation.default-reason:unspecified}")
+	private String defaultReason;
+
+	@Value("${keys.revocation.recheck-seconds:60}")
+	private long recheckSeconds;
+
+	private volatile HistoricalJwks current;
+
+	/**
+	 * @return the signed historical JWKS of the current key set, {@code null} if it
+	 * cannot be built
+	 */
+	public SignedStatement getHistoricalJwks() {
+		HistoricalJwks response = getResponse();
+
+		return response != null ? response.statement : null;
+	}
+
+	private HistoricalJwks getResponse() {
+		SigningKeySnapshot snapshot = keyConfig.getSnapshot();
+		HistoricalJwks response = current;
+		if (response != null && response.snapshot == snapshot && !response.isRecheckDue()) {
+			return response;
+		}
+
+		synchronized (this) {
+			response = current;
+			if (response != null && response.snapshot == snapshot && !response.isRecheckDue()) {
+				return response;
+			}
+
+			try {
+				Map<String, KeyRevocation> revocations = loadRevocations(snapshot.getRevokedKeys());
+				if (response != null && response.snapshot == snapshot
+						&& response.revocations.equals(revocations)) {
+					response.checkedAt = System.currentTimeMillis();
+					return response;
+				}
+
+				String jwt = generateHistoricalJwksResponse(snapshot, revocations);
+				if (jwt == null) {
+					return null;
+				}
+
+				response = new HistoricalJwks(snapshot, revocations, SignedStatement.of(jwt));
+				current = response;
+
+				return response;
+			} catch (RuntimeException | JOSEException e) {
+				log.error("cannot build historical jwks", e);
+
+				return null;
+			}
+		}
+	}
+
+	private String generateHistoricalJwksResponse(SigningKeySnapshot snapshot,
+			Map<String, KeyRevocation> revocations) throws JOSEException {
 		log.debug("generate historical jwks response");
-		JWK actualSignKey = keyConfig.loadKey();
-		List<JWK> revokedKeys = keyConfig.loadRevokedKeys();
-		JSONObject actualJwk = new JSONObject(actualSignKey.toPublicJWK().toJSONObject());
-		JSONArray keysArray = new JSONArray();
-		keysArray.put(actualJwk);
-		// TODO revoked info for testing purpose
+		JWK actualSignKey = snapshot.getSigningKey();
+		List<JWK> revokedKeys = snapshot.getRevokedKeys();
+
+		List<Map<String, Object>> keysArray = new ArrayList<>(revokedKeys.size() + 1);
+		keysArray.add(actualSignKey.toPublicJWK().toJSONObject());
 		for (JWK revKey : revokedKeys) {
+			KeyRevocation revocation = revocations.get(revocationId(revKey));
 			Map<String, Object> revokedMap = new HashMap<>();
-			revokedMap.put("revoked_at", Calendar.getInstance().getTimeInMillis() / 1000);
-			revokedMap.put("reason", "unspecified");
-			JSONObject tmpKey = new JSONObject(revKey.toPublicJWK().toJSONObject());
+			revokedMap.put("revoked_at", revocation.getRevokedAt());
+			revokedMap.put("reason", revocation.getReason());
+			Map<String, Object> tmpKey = revKey.toPublicJWK().toJSONObject();
 			tmpKey.put("revoked", revokedMap);
-			keysArray.put(tmpKey);
+			keysArray.add(tmpKey);
 		}
 
 		return jwtUtil.generateHistoricalJwksJwt(keysArray);
 	}
 
+	/**
+	 * @param revokedKeys
+	 * @return the stored revocation of each key, recording now the ones seen for the
+	 * first time
+	 * @throws JOSEException
+	 */
+	private Map<String, KeyRevocation> loadRevocations(List<JWK> revokedKeys) throws JOSEException {
+		Map<String, KeyRevocation> result = new LinkedHashMap<>();
+		if (revokedKeys.isEmpty()) {
+			return result;
+		}
+
+		List<String> ids = new ArrayList<>(revokedKeys.size());
+		for (JWK revKey : revokedKeys) {
+			ids.add(revocationId(revKey));
+		}
+
+		revocationRepository.findAllById(ids).forEach(r -> result.put(r.getKid(), r));
+
+		List<KeyRevocation> recorded = new ArrayList<>();
+		long now = Instant.now().getEpochSecond();
+		for (String id : ids) {
+			if (!result.containsKey(id)) {
+				KeyRevocation revocation = new KeyRevocation(id, now, defaultReason);
+				recorded.add(revocation);
+				result.put(id, revocation);
+				log.info("recording revocation of key {}", id);
+			}
+		}
+		if (!recorded.isEmpty()) {
+			revocationRepository.saveAll(recorded);
+		}
+
+		return result;
+	}
+
+	private static String revocationId(JWK jwk) throws JOSEException {
+		return jwk.getKeyID() != null ? jwk.getKeyID() : jwk.computeThumbprint().toString();
+	}
+
+	private final class HistoricalJwks {
+
+		private final SigningKeySnapshot snapshot;
+		private final Map<String, KeyRevocation> revocations;
+		private final SignedStatement statement;
+		private volatile long checkedAt = System.currentTimeMillis();
+
+		private HistoricalJwks(SigningKeySnapshot snapshot, Map<String, KeyRevocation> revocations,
+				SignedStatement statement) {
+			this.snapshot = snapshot;
+			this.revocations = revocations;
+			this.statement = statement;
+		}
+
+		private boolean isRecheckDue() {
+			return recheckSeconds > 0 && System.currentTimeMillis() - checkedAt >= recheckSeconds * 1000;
+		}
+
+	}
+
 }
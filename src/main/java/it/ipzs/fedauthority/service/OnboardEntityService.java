@@ -1,8 +1,19 @@
 package it.ipzs.fedauthority.service;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -10,9 +21,19 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.nimbusds.jose.util.Base64URL;
+
 import it.ipzs.fedauthority.dto.EntityConfigurationDto;
+import it.ipzs.fedauthority.dto.SignedStatement;
+import it.ipzs.fedauthority.dto.SubordinateFilter;
+import it.ipzs.fedauthority.dto.SubordinatePage;
 import it.ipzs.fedauthority.model.RoleEnum;
 import it.ipzs.fedauthority.model.OnboardEntity;
+import it.ipzs.fedauthority.oidclib.OidWrapper;
+import it.ipzs.fedauthority.oidclib.exception.OIDCException;
+import it.ipzs.fedauthority.oidclib.model.TrustChainBuilder;
 import it.ipzs.fedauthority.repository.OnboardEntityRepository;
 import it.ipzs.fedauthority.util.JwtUtil;
 import it.ipzs.fedauthority.util.StringUtil;
@@ -27,54 +48,160 @@ public class OnboardEntityService {
 	@Autowired
 	JwtUtil jwtUtil;
 
+	@Autowired
+	SubordinateStatementCache statementCache;
+
+	@Autowired
+	SubordinateUrlFilter urlFilter;
+
+	@Autowired
+	ResolveResponseCache resolveCache;
+
+	@Autowired
+	TrustMarkResponseCache trustMarkCache;
+
+	@Autowired
+	OidWrapper oidWrapper;
+
 	@Value("${fed-config.hosts.trust-anchor}")
 	private String sourceEndpointBasePath;
 
+	@Value("${fed-config.relying-party.client-id}")
+	private String entityId;
+
+	@Value("${list.max-page-size:1000}")
+	private int maxPageSize;
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	// bumped on every save, part of the validator of the streamed list
+	private final AtomicLong listVersion = new AtomicLong();
+
 	public OnboardEntity save(OnboardEntity onboardEntity) {
-		return onboardEntityRepository.save(onboardEntity);
+		if (onboardEntity.getId() != null) {
+			// the url may have changed, drop the statements issued for the previous one
+			onboardEntityRepository.findUrlById(onboardEntity.getId())
+					.ifPresent(previous -> {
+						statementCache.invalidateSubject(previous.getUrl());
+						resolveCache.invalidateSubject(previous.getUrl());
+						trustMarkCache.invalidateSubject(previous.getUrl());
+					});
+		}
+
+		OnboardEntity saved = onboardEntityRepository.save(onboardEntity);
+		listVersion.incrementAndGet();
+		statementCache.invalidateSubject(saved.getUrl());
+		resolveCache.invalidateSubject(saved.getUrl());
+		trustMarkCache.invalidateSubject(saved.getUrl());
+		urlFilter.add(saved.getUrl());
+
+		return saved;
+	}
+
+	/**
+	 * Writes the JSON array of the active subordinates matching the filter, reading
+	 * them from a database cursor so that memory does not grow with their number
+	 *
+	 * @param filter
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeSubordinates(SubordinateFilter filter, OutputStream out) throws IOException {
+		log.debug("streaming subordinates where flag active true, filter {}", filter);
+		long count = 0;
+		try (Stream<String> urls = onboardEntityRepository.streamActiveUrls(filter);
+				JsonGenerator json = JSON_FACTORY.createGenerator(out)) {
+			json.writeStartArray();
+			Iterator<String> it = urls.iterator();
+			while (it.hasNext()) {
+				json.writeString(it.next());
+				count++;
+			}
+			json.writeEndArray();
+		}
+		log.debug("streamed {} subordinates", count);
 	}
 
-	public List<String> listSubordinates() {
-		log.debug("listing subordinates where flag active true...");
-		return onboardEntityRepository.findByActiveTrue().stream().map(OnboardEntity::getUrl).toList();
+	/**
+	 * Computes the validator of the list written by
+	 * {@link #writeSubordinates(SubordinateFilter, OutputStream)} without reading it:
+	 * from the number of matching entities, the greatest of their ids and the count of
+	 * the saves made through this instance.
+	 * <br/>
+	 * A url changed outside of this instance, with neither the number nor the greatest
+	 * id changing, is not seen until the next save.
+	 *
+	 * @param filter
+	 * @return a weak entity tag, since the list may change before it is written
+	 */
+	public String subordinatesEtag(SubordinateFilter filter) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		String summary = listVersion.get() + ":" + onboardEntityRepository.summarizeActiveUrls(filter);
+
+		return "W/\"" + Base64URL.encode(digest.digest(summary.getBytes(StandardCharsets.UTF_8))) + "\"";
+	}
 
+	/**
+	 * @param filter
+	 * @param cursor the cursor of the previous page, {@code null} for the first one
+	 * @param limit the page size, capped by {@code list.max-page-size}
+	 * @return a page of active subordinates matching the filter
+	 * @throws IllegalArgumentException if the cursor is not valid
+	 */
+	public SubordinatePage listSubordinates(SubordinateFilter filter, String cursor, Integer limit) {
+		int pageSize = limit == null || limit <= 0 ? maxPageSize : Math.min(limit, maxPageSize);
+		log.debug("listing subordinates where flag active true, filter {} cursor {} limit {}", filter, cursor,
+				pageSize);
+		return onboardEntityRepository.findActiveUrls(filter, cursor, pageSize);
 	}
 
-	public String fetchByIssAndSub(String iss, String sub) {
+	public SignedStatement fetchByIssAndSub(String iss, String sub) {
 		validateParams(iss);
-		String result = null;
-		String subUsed = sub;
-		if (StringUtil.isBlank(subUsed)) {
+		if (StringUtil.isBlank(sub)) {
 			log.debug(
 					"no sub, considered to be the same as the issuer and indicates a request for a self-signed Entity Configuration.");
-			subUsed = iss;
 		}
+		String subUsed = StringUtil.isBlank(sub) ? iss : sub;
 
-		Optional<OnboardEntity> optional = onboardEntityRepository.findByUrl(subUsed);
+		// concurrent requests of the same statement wait for a single signing; the
+		// statements are keyed and issued by this authority, whatever the iss spelling
+		return statementCache.getOrSign(entityId, subUsed, () -> signStatement(entityId, subUsed));
+	}
+
+	private SignedStatement signStatement(String iss, String subUsed) {
+		SignedStatement result = null;
+		if (!urlFilter.mightContain(subUsed)) {
+			log.info("No entity found for url {}", subUsed);
+			return null;
+		}
+
+		long cacheGeneration = statementCache.generation();
+		Optional<OnboardEntity> optional = onboardEntityRepository.findStatementSubjectByUrl(subUsed);
 		if (optional.isPresent()) {
 			OnboardEntity subEntity = optional.get();
 			EntityConfigurationDto ec = new EntityConfigurationDto();
+			// iat/exp are aligned to the cache bucket so that the statement is stable within it
 			Calendar instance = Calendar.getInstance();
+			instance.setTimeInMillis(statementCache.currentBucketStart());
 			ec.setIss(iss);
 			ec.setSub(subEntity.getUrl());
 			ec.setIat(instance.getTimeInMillis() / 1000);
 			instance.add(Calendar.YEAR, 1);
 			ec.setExp(instance.getTimeInMillis() / 1000);
 			ec.setSourceEndpoint(StringUtil.concat("http://", sourceEndpointBasePath, "/fetch"));
-			String jwkString = new JSONObject(subEntity.getJwk()).toString();
-			JSONObject jwks = new JSONObject(jwkString);
-			ec.setJwks(jwks);
-			JSONObject metadataPolicy = new JSONObject();
-			JSONObject contacts = new JSONObject();
-			JSONArray add = new JSONArray();
-			add.put(subEntity.getEmail());
-			contacts.put("add", add);
+			ec.setJwks(subEntity.getJwk());
+			Map<String, Object> metadataPolicy = new HashMap<>();
+			Map<String, Object> contacts = Map.of("add", Collections.singletonList(subEntity.getEmail()));
 			switch(subEntity.getRole()) {
 			case RELYING_PARTY: {
 					if (subEntity.getEmail() != null) {
-						JSONObject wrp = new JSONObject();
-						wrp.put("contacts", contacts);
-						metadataPolicy.put(RoleEnum.RELYING_PARTY.getDescription(), wrp);
+						metadataPolicy.put(RoleEnum.RELYING_PARTY.getDescription(), Map.of("contacts", contacts));
 						ec.setMetadataPolicy(metadataPolicy);
 
 					}
@@ -82,9 +209,7 @@ public class OnboardEntityService {
 				}
 				case CREDENTIAL_ISSUER: {
 					if (subEntity.getEmail() != null) {
-						JSONObject wrp = new JSONObject();
-						wrp.put("contacts", contacts);
-						metadataPolicy.put(RoleEnum.CREDENTIAL_ISSUER.getDescription(), wrp);
+						metadataPolicy.put(RoleEnum.CREDENTIAL_ISSUER.getDescription(), Map.of("contacts", contacts));
 						ec.setMetadataPolicy(metadataPolicy);
 
 					}
@@ -103,10 +228,14 @@ public class OnboardEntityService {
 
 			log.info("{}", ec);
 
-			result = jwtUtil.generateECJwt(ec);
+			result = SignedStatement.of(jwtUtil.generateECJwt(ec));
+			if (result != null) {
+				statementCache.put(iss, subUsed, result, cacheGeneration);
+			}
 
 		} else {
-			log.info("No entity found for url {}", sub);
+			urlFilter.recordFalsePositive();
+			log.info("No entity found for url {}", subUsed);
 
 		}
 
@@ -118,120 +247,78 @@ public class OnboardEntityService {
 			log.error("iss param is empty");
 			throw new RuntimeException("iss param is empty");
 		}
-
+		if (!canonicalEntityId(iss).equals(canonicalEntityId(entityId))) {
+			log.debug("iss {} is not this authority", iss);
+			throw new RuntimeException("iss is not this authority");
+		}
 	}
 
-	public String resolveBySubTypeAndAnchor(String sub, String type, String anchor) {
-		String result = null;
-		Optional<OnboardEntity> optional = onboardEntityRepository.findByUrl(sub);
-		if (optional.isPresent()) {
-			OnboardEntity oe = optional.get();
-			EntityConfigurationDto ec = new EntityConfigurationDto();
-			Calendar instance = Calendar.getInstance();
-			ec.setIss(StringUtil.concat("http://", sourceEndpointBasePath));
-			ec.setSub(oe.getUrl());
-			ec.setIat(instance.getTimeInMillis() / 1000);
-			instance.add(Calendar.YEAR, 1);
-			ec.setExp(instance.getTimeInMillis() / 1000);
-			String jwkString = new JSONObject(oe.getJwk()).toString();
-			JSONObject jwks = new JSONObject(jwkString);
-			ec.setJwks(jwks);
-			JSONObject metadataPolicy = null;
-			
-			switch(RoleEnum.of(type)) {
-				case CREDENTIAL_ISSUER: {
-					metadataPolicy = resolveMetadataForCredentialIssuer(oe);
-					break;
-				}
-				case PROVIDER: {
-					metadataPolicy = resolveMetadataForOidcProvider(oe);
-					break;
-				}
-				case RELYING_PARTY: {
-					metadataPolicy = resolveMetadataForOidcRelyingParty(oe);
-					break;
-				}
-				default: {
-					metadataPolicy = resolveMetadata(oe);
-					break;
-				}
-			}
-			
-			ec.setMetadataPolicy(metadataPolicy);
+	private static String canonicalEntityId(String url) {
+		return StringUtil.ensureTrailingSlash(StringUtil.canonicalizeUrl(url));
+	}
 
-			log.info("{}", ec);
+	/**
+	 * @param anchor
+	 * @return the configured trust anchor matching the given one, {@code null} if it
+	 * is not a trust anchor of this authority
+	 */
+	public String findTrustAnchor(String anchor) {
+		return oidWrapper.findTrustAnchor(anchor);
+	}
 
-			result = jwtUtil.generateResolveECJwt(ec);
+	/**
+	 * Resolves an onboarded subject through the federation: its trust chain is built
+	 * up to the anchor and the metadata policies along it are applied. The signed
+	 * response is cached until the earliest exp of the chain and refreshed in the
+	 * background before it expires.
+	 * <br/>
+	 * The anchor is checked against the configured ones before the cache is looked
+	 * up, and the configured spelling is resolved.
+	 *
+	 * @param sub
+	 * @param type the metadata type
+	 * @param anchor the trust anchor
+	 * @return the signed resolve response, {@code null} if the anchor or the subject
+	 * is unknown or the subject cannot be resolved
+	 */
+	public SignedStatement resolveBySubTypeAndAnchor(String sub, String type, String anchor) {
+		String trustAnchor = findTrustAnchor(anchor);
+		if (trustAnchor == null) {
+			log.info("{} is not a trust anchor", anchor);
+			return null;
+		}
 
+		if (!urlFilter.mightContain(sub)) {
+			return null;
 		}
 
-		return result;
+		return resolveCache.getOrResolve(sub, type, trustAnchor,
+				() -> signResolveResponse(sub, type, trustAnchor));
 	}
 
-	private JSONObject resolveMetadata(OnboardEntity oe) {
-		// put all metadata for this entity
-		// TODO stub for testing purpose, retrieve from EC
-		JSONObject result = new JSONObject();
-		String jwkString = new JSONObject(oe.getJwk()).toString();
-		JSONObject jwks = new JSONObject(jwkString);
-		result.put("jwks", jwks);
-		return result;
-	}
+	private SignedStatement signResolveResponse(String sub, String type, String anchor) {
+		Optional<OnboardEntity> optional = onboardEntityRepository.findResolveSubjectByUrl(sub);
+		if (optional.isEmpty()) {
+			urlFilter.recordFalsePositive();
+			log.info("No entity found for url {}", sub);
+			return null;
+		}
 
-	private JSONObject resolveMetadataForOidcProvider(OnboardEntity oe) {
-		// filter metadata only for OIDC Provider
-		// TODO stub for testing purpose, retrieve from EC
-		JSONObject result = new JSONObject();
-		String jwkString = new JSONObject(oe.getJwk()).toString();
-		JSONObject jwks = new JSONObject(jwkString);
-		result.put("jwks", jwks);
-		result.put("issuer", oe.getUrl());
-		result.put("authorization_endpoint", StringUtil.concat("/authorize"));
-		result.put("token_endpoint", StringUtil.concat("/token"));
-		result.put("scopes_supported", List.of("openid"));
-		result.put("response_types", List.of("code", "id_token", "token id_token"));
-		result.put("grant_types", List.of("authorization_code", "implicit"));
-		result.put("id_token_signed_response_alg", List.of("RS256"));
+		String subject = optional.get().getUrl();
+		TrustChainBuilder tcb;
+		try {
+			tcb = oidWrapper.resolve(subject, anchor, type);
+		} catch (OIDCException e) {
+			log.warn("resolve of {} as {} to {} failed: {}", subject, type, anchor, e.getMessage());
+			return null;
+		}
 
-		return result;
-	}
+		Map<String, Object> metadata = Map.of(type, new JSONObject(tcb.getFinalMetadata()).toMap());
+		List<Object> trustMarks = new JSONArray(tcb.getVerifiedTrustMarksAsString()).toList();
 
-	private JSONObject resolveMetadataForOidcRelyingParty(OnboardEntity oe) {
-		// filter metadata only for OIDC RP
-		// TODO stub for testing purpose, retrieve from EC
-		JSONObject result = new JSONObject();
-		String jwkString = new JSONObject(oe.getJwk()).toString();
-		JSONObject jwks = new JSONObject(jwkString);
-		result.put("jwks", jwks);
-		result.put("redirect_uris", List.of(StringUtil.concat(oe.getUrl(), "/callback")));
-		result.put("response_types", List.of("code", "id_token", "token id_token"));
-		result.put("application_type", "web");
-		result.put("client_name", oe.getId());
-		result.put("contacts", List.of(oe.getEmail()));
-		result.put("id_token_signed_response_alg", "RS256");
-		result.put("token_endpoint_auth_method", "client_secret_basic");
-		result.put("grant_types", List.of("authorization_code", "implicit"));
-		result.put("subject_types_supported", List.of("public", "pairwise"));
-		return result;
+		return SignedStatement.of(jwtUtil.generateResolveResponse(StringUtil.concat("http://", sourceEndpointBasePath),
+				subject, System.currentTimeMillis() / 1000, tcb.getTrustChainExp(), metadata, trustMarks,
+				tcb.getTrustChain()));
 	}
 
-	private JSONObject resolveMetadataForCredentialIssuer(OnboardEntity oe) {
-		// filter metadata only for OIDC Credential Issuer
-		// TODO stub for testing purpose, retrieve from EC
-		JSONObject result = new JSONObject();
-		String jwkString = new JSONObject(oe.getJwk()).toString();
-		JSONObject jwks = new JSONObject(jwkString);
-		result.put("jwks", jwks);
-		result.put("credential_issuer", oe.getUrl());
-		result.put("pushed_authorization_request_endpoint", StringUtil.concat(oe.getUrl(), "/par"));
-		result.put("authorization_endpoint", StringUtil.concat(oe.getUrl(), "/authorize"));
-		result.put("token_endpoint", StringUtil.concat(oe.getUrl(), "/token"));
-		result.put("credential_endpoint", StringUtil.concat(oe.getUrl(), "/credential"));
-		result.put("contacts", List.of(oe.getEmail()));
-		result.put("credentials_supported", List.of("vc+sd-jwt", "vc+mdoc-cbor"));
-		result.put("dpop_signing_alg_values_supported", "RS256");
-		result.put("grant_types", List.of("authorization_code", "implicit"));
-		return result;
-	}
-	
 }
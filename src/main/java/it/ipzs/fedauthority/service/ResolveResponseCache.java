@@ -0,0 +1,257 @@
+package it.ipzs.fedauthority.service;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import it.ipzs.fedauthority.dto.SignedStatement;
+import it.ipzs.fedauthority.oidclib.util.ExpiringCache;
+import it.ipzs.fedauthority.oidclib.util.SingleFlight;
+import it.ipzs.fedauthority.util.StringUtil;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Signed resolve responses served by {@code /resolve}, keyed by the canonical
+ * (sub, type, anchor) triple.
+ * <br/>
+ * A response is kept until its {@code exp}, the earliest one of its trust chain.
+ * Once past the refresh ratio of its lifetime it is still served while a single
+ * background resolution replaces it, so the requests do not wait for the federation
+ * to be walked again. A failed refresh is retried after {@code retry-seconds}.
+ * <br/>
+ * A triple that cannot be resolved is remembered for {@code negative-ttl-seconds},
+ * so that repeated requests for it do not walk the federation each time.
+ */
+@Component
+@Slf4j
+public class ResolveResponseCache {
+
+	private final double refreshRatio;
+
+	private final long retryMillis;
+
+	private final long negativeTtlMillis;
+
+	private final ExpiringCache<ResolveKey, Entry> cache;
+
+	// concurrent misses, and the refresh, of the same triple share a single resolution
+	private final SingleFlight<ResolveKey, SignedStatement> resolutions = new SingleFlight<>("resolve");
+
+	private final Set<ResolveKey> refreshing = ConcurrentHashMap.newKeySet();
+
+	// bumped on every invalidation, guards against caching a response resolved from
+	// an entity, or signed with a key, that has changed in the meantime
+	private final AtomicLong generation = new AtomicLong();
+
+	private final AtomicLong refreshes = new AtomicLong();
+
+	private final AtomicLong refreshFailures = new AtomicLong();
+
+	private final AtomicLong negativeHits = new AtomicLong();
+
+	private final ExecutorService executor;
+
+	public ResolveResponseCache(@Value("${cache.resolve.max-entries:10000}") int maxEntries,
+			@Value("${cache.resolve.refresh-ratio:0.8}") double refreshRatio,
+			@Value("${cache.resolve.retry-seconds:30}") long retrySeconds,
+			@Value("${cache.resolve.refresh-threads:2}") int refreshThreads,
+			@Value("${cache.resolve.negative-ttl-seconds:30}") long negativeTtlSeconds) {
+		this.cache = new ExpiringCache<>("resolve", maxEntries);
+		this.refreshRatio = Math.min(1, Math.max(0, refreshRatio));
+		this.retryMillis = Math.max(1, retrySeconds) * 1000;
+		this.negativeTtlMillis = Math.max(0, negativeTtlSeconds) * 1000;
+
+		AtomicInteger threadCount = new AtomicInteger();
+		int threads = Math.max(1, refreshThreads);
+
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), r -> {
+					Thread thread = new Thread(r, "resolve-refresh-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		pool.allowCoreThreadTimeOut(true);
+
+		this.executor = pool;
+	}
+
+	/**
+	 * @param sub
+	 * @param type
+	 * @param anchor
+	 * @param resolver builds and signs the response on a miss or a refresh,
+	 * {@code null} if the subject cannot be resolved
+	 * @return the cached response, or the one built by the resolver, {@code null} if
+	 * the triple cannot be resolved
+	 */
+	public SignedStatement getOrResolve(String sub, String type, String anchor, Supplier<SignedStatement> resolver) {
+		ResolveKey key = ResolveKey.of(sub, type, anchor);
+
+		Entry cached = cache.get(key);
+		if (cached != null) {
+			if (cached.statement == null) {
+				negativeHits.incrementAndGet();
+				return null;
+			}
+
+			if (cached.isRefreshDue()) {
+				refreshInBackground(key, cached, resolver);
+			}
+
+			return cached.statement;
+		}
+
+		return resolutions.execute(key, () -> resolveAndPut(key, resolver, true));
+	}
+
+	/**
+	 * Drops every response about the given subject, whatever the type and the anchor
+	 *
+	 * @param sub
+	 */
+	public void invalidateSubject(String sub) {
+		if (sub == null) {
+			return;
+		}
+
+		String canonicalSub = StringUtil.canonicalizeUrl(sub);
+
+		generation.incrementAndGet();
+		cache.invalidateIf(key -> key.sub().equals(canonicalSub));
+		log.debug("resolve cache invalidated for {}", canonicalSub);
+	}
+
+	/**
+	 * Drops every response, they are signed again with the current key
+	 */
+	public void clear() {
+		generation.incrementAndGet();
+		cache.clear();
+		log.info("resolve cache cleared");
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = cache.getStats();
+
+		stats.put("refresh_ratio", refreshRatio);
+		stats.put("refreshing", refreshing.size());
+		stats.put("refreshes", refreshes.get());
+		stats.put("refresh_failures", refreshFailures.get());
+		stats.put("negative_ttl_seconds", negativeTtlMillis / 1000);
+		stats.put("negative_hits", negativeHits.get());
+		stats.put("resolutions", resolutions.getStats());
+
+		return stats;
+	}
+
+	@PreDestroy
+	public void stop() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @param key
+	 * @param resolver
+	 * @param miss whether no response is cached, a failure is then remembered; a
+	 * failed refresh leaves the cached response in place instead
+	 * @return the response built by the resolver
+	 */
+	private SignedStatement resolveAndPut(ResolveKey key, Supplier<SignedStatement> resolver, boolean miss) {
+		long startGeneration = generation.get();
+		SignedStatement statement = resolver.get();
+		long now = System.currentTimeMillis();
+
+		if (statement != null && statement.getExp() != null) {
+			long expiresAt = statement.getExp() * 1000;
+
+			put(key, new Entry(statement, now + (long) ((expiresAt - now) * refreshRatio)), expiresAt,
+					startGeneration);
+		} else if (statement == null && miss && negativeTtlMillis > 0) {
+			long expiresAt = now + negativeTtlMillis;
+
+			put(key, new Entry(null, expiresAt), expiresAt, startGeneration);
+		}
+
+		return statement;
+	}
+
+	private void put(ResolveKey key, Entry entry, long expiresAt, long startGeneration) {
+		if (generation.get() != startGeneration) {
+			return;
+		}
+
+		cache.put(key, entry, expiresAt);
+
+		// an invalidation between the check and the put may have missed the entry
+		if (generation.get() != startGeneration) {
+			cache.invalidate(key);
+		}
+	}
+
+	private void refreshInBackground(ResolveKey key, Entry cached, Supplier<SignedStatement> resolver) {
+		if (!refreshing.add(key)) {
+			return;
+		}
+
+		// a failed refresh leaves the entry in place, it is not retried on every request
+		cached.refreshAt = System.currentTimeMillis() + retryMillis;
+
+		try {
+			executor.execute(() -> {
+				try {
+					if (resolutions.execute(key, () -> resolveAndPut(key, resolver, false)) != null) {
+						refreshes.incrementAndGet();
+					} else {
+						refreshFailures.incrementAndGet();
+					}
+				} catch (RuntimeException e) {
+					refreshFailures.incrementAndGet();
+					log.warn("refresh of resolve response for {} failed: {}", key, e.getMessage());
+				} finally {
+					refreshing.remove(key);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			refreshing.remove(key);
+		}
+	}
+
+	private static final class Entry {
+
+		// null if the triple cannot be resolved
+		private final SignedStatement statement;
+
+		private volatile long refreshAt;
+
+		private Entry(SignedStatement statement, long refreshAt) {
+			this.statement = statement;
+			this.refreshAt = refreshAt;
+		}
+
+		private boolean isRefreshDue() {
+			return System.currentTimeMillis() >= refreshAt;
+		}
+
+	}
+
+	private record ResolveKey(String sub, String type, String anchor) {
+
+		static ResolveKey of(String sub, String type, String anchor) {
+			return new ResolveKey(StringUtil.canonicalizeUrl(sub), type, StringUtil.canonicalizeUrl(anchor));
+		}
+
+	}
+
+}
@@ -0,0 +1,141 @@
+package it.ipzs.fedauthority.service;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import it.ipzs.fedauthority.dto.SignedStatement;
+import it.ipzs.fedauthority.oidclib.util.ExpiringCache;
+import it.ipzs.fedauthority.oidclib.util.SingleFlight;
+import it.ipzs.fedauthority.util.StringUtil;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Signed subordinate statements served by {@code /fetch}, keyed by the canonical
+ * (iss, sub) pair.
+ * <br/>
+ * Statements are issued on fixed time buckets: every statement signed within the same
+ * bucket has the same {@code iat}/{@code exp} and stays cached until the bucket ends,
+ * then it is re-issued on the next request.
+ */
+@Component
+@Slf4j
+public class SubordinateStatementCache {
+
+	private final long bucketMillis;
+
+	private final ExpiringCache<StatementKey, SignedStatement> cache;
+
+	// concurrent misses of the same pair share a single signing
+	private final SingleFlight<StatementKey, SignedStatement> signings = new SingleFlight<>("fetch_signing");
+
+	// bumped on every invalidation, guards against caching a statement built from
+	// an entity that has been modified while the statement was being signed
+	private final AtomicLong generation = new AtomicLong();
+
+	public SubordinateStatementCache(@Value("${cache.fetch.bucket-seconds:3600}") long bucketSeconds,
+			@Value("${cache.fetch.max-entries:50000}") int maxEntries) {
+		this.bucketMillis = Math.max(1, bucketSeconds) * 1000;
+		this.cache = new ExpiringCache<>("fetch", maxEntries);
+	}
+
+	public SignedStatement get(String iss, String sub) {
+		return cache.get(StatementKey.of(iss, sub));
+	}
+
+	/**
+	 * @param iss
+	 * @param sub
+	 * @param signer issues the statement on a miss, waited for by the concurrent
+	 * requests of the same pair
+	 * @return the cached statement, or the one issued by the signer
+	 */
+	public SignedStatement getOrSign(String iss, String sub, Supplier<SignedStatement> signer) {
+		StatementKey key = StatementKey.of(iss, sub);
+
+		SignedStatement cached = cache.get(key);
+		if (cached != null) {
+			return cached;
+		}
+
+		return signings.execute(key, signer::get);
+	}
+
+	/**
+	 * @return a token to be passed to {@link #put(String, String, SignedStatement, long)}
+	 */
+	public long generation() {
+		return generation.get();
+	}
+
+	public void put(String iss, String sub, SignedStatement statement, long generation) {
+		if (this.generation.get() != generation) {
+			return;
+		}
+
+		StatementKey key = StatementKey.of(iss, sub);
+		cache.put(key, statement, currentBucketStart() + bucketMillis);
+
+		// an invalidation between the check and the put may have missed the statement
+		if (this.generation.get() != generation) {
+			cache.invalidate(key);
+		}
+	}
+
+	/**
+	 * @return epoch milliseconds of the beginning of the current time bucket, to be used
+	 * as {@code iat} of the statements issued now
+	 */
+	public long currentBucketStart() {
+		long now = System.currentTimeMillis();
+
+		return now - (now % bucketMillis);
+	}
+
+	/**
+	 * Drops every statement about the given subject, whoever the issuer
+	 *
+	 * @param sub
+	 */
+	public void invalidateSubject(String sub) {
+		if (sub == null) {
+			return;
+		}
+
+		String canonicalSub = StringUtil.canonicalizeUrl(sub);
+
+		generation.incrementAndGet();
+		cache.invalidateIf(key -> key.sub().equals(canonicalSub));
+		log.debug("fetch cache invalidated for {}", canonicalSub);
+	}
+
+	/**
+	 * Drops every statement, they are signed again with the current key
+	 */
+	public void clear() {
+		generation.incrementAndGet();
+		cache.clear();
+		log.info("fetch cache cleared");
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = cache.getStats();
+
+		stats.put("bucket_seconds", bucketMillis / 1000);
+		stats.put("signings", signings.getStats());
+
+		return stats;
+	}
+
+	private record StatementKey(String iss, String sub) {
+
+		static StatementKey of(String iss, String sub) {
+			return new StatementKey(StringUtil.canonicalizeUrl(iss), StringUtil.canonicalizeUrl(sub));
+		}
+
+	}
+
+}
@@ -0,0 +1,215 @@
+package it.ipzs.fedauthority.service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+import it.ipzs.fedauthority.repository.OnboardEntityRepository;
+import it.ipzs.fedauthority.util.BloomFilter;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bloom filter of the onboarded entity urls, used to answer {@code not_found} for
+ * unknown subjects without querying the database.
+ * <br/>
+ * Every onboarded url is tracked, not only the active ones: the lookups by url do not
+ * filter on {@code active} and entities are activated outside of the application.
+ * The filter is built on startup, updated on save and rebuilt periodically, to drop
+ * removed urls and to see entities onboarded through other instances. Until the first
+ * build completes every url is reported as possibly present.
+ */
+@Component
+@Slf4j
+public class SubordinateUrlFilter implements CommandLineRunner {
+
+	private final OnboardEntityRepository onboardEntityRepository;
+
+	private final boolean enabled;
+
+	private final double falsePositiveRate;
+
+	private final long expectedInsertions;
+
+	private final long rebuildSeconds;
+
+	private volatile BloomFilter filter;
+
+	// urls saved while a rebuild is running, added to the new filter before publishing it
+	private volatile Set<String> savedDuringRebuild;
+
+	// held by add and by the publication of a rebuilt filter, so that no url saved in
+	// between is missed by the new filter
+	private final Object publishLock = new Object();
+
+	private ScheduledExecutorService scheduler;
+
+	private final AtomicLong checks = new AtomicLong();
+	private final AtomicLong definiteMisses = new AtomicLong();
+	private final AtomicLong falsePositives = new AtomicLong();
+	private final AtomicLong rebuilds = new AtomicLong();
+	private final AtomicBoolean resizeScheduled = new AtomicBoolean();
+
+	public SubordinateUrlFilter(OnboardEntityRepository onboardEntityRepository,
+			@Value("${subordinates.bloom-filter.enabled:true}") boolean enabled,
+			@Value("${subordinates.bloom-filter.false-positive-rate:0.01}") double falsePositiveRate,
+			@Value("${subordinates.bloom-filter.expected-insertions:100000}") long expectedInsertions,
+			@Value("${subordinates.bloom-filter.rebuild-seconds:300}") long rebuildSeconds) {
+		this.onboardEntityRepository = onboardEntityRepository;
+		this.enabled = enabled;
+		this.falsePositiveRate = falsePositiveRate;
+		this.expectedInsertions = expectedInsertions;
+		this.rebuildSeconds = rebuildSeconds;
+	}
+
+	@Override
+	public void run(String... args) {
+		if (!enabled) {
+			log.info("subordinate url bloom filter disabled");
+			return;
+		}
+
+		rebuild();
+
+		if (rebuildSeconds > 0) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "subordinate-url-filter");
+				thread.setDaemon(true);
+				return thread;
+			});
+			scheduler.scheduleWithFixedDelay(this::rebuild, rebuildSeconds, rebuildSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+	}
+
+	/**
+	 * @param url
+	 * @return {@code false} if the url is certainly not onboarded
+	 */
+	public boolean mightContain(String url) {
+		BloomFilter current = filter;
+		if (current == null || url == null) {
+			return true;
+		}
+
+		checks.incrementAndGet();
+		if (current.mightContain(url)) {
+			return true;
+		}
+
+		definiteMisses.incrementAndGet();
+		log.debug("{} is not onboarded", url);
+
+		return false;
+	}
+
+	/**
+	 * To be called when a url reported as possibly present has not been found
+	 */
+	public void recordFalsePositive() {
+		falsePositives.incrementAndGet();
+	}
+
+	public void add(String url) {
+		if (url == null) {
+			return;
+		}
+
+		BloomFilter current;
+		synchronized (publishLock) {
+			Set<String> pending = savedDuringRebuild;
+			if (pending != null) {
+				pending.add(url);
+			}
+
+			current = filter;
+			if (current == null) {
+				return;
+			}
+
+			current.put(url);
+		}
+
+		// filled over its size, the false positive rate degrades
+		if (current.getInsertions() > current.getExpectedInsertions() && scheduler != null
+				&& resizeScheduled.compareAndSet(false, true)) {
+			scheduler.execute(this::rebuild);
+		}
+	}
+
+	public synchronized void rebuild() {
+		savedDuringRebuild = ConcurrentHashMap.newKeySet();
+		try {
+			long start = System.currentTimeMillis();
+			long size = Math.max(expectedInsertions, onboardEntityRepository.count() * 2);
+			BloomFilter next = new BloomFilter(size, falsePositiveRate);
+
+			try (Stream<String> urls = onboardEntityRepository.streamUrls()) {
+				Iterator<String> it = urls.iterator();
+				while (it.hasNext()) {
+					next.put(it.next());
+				}
+			}
+
+			synchronized (publishLock) {
+				savedDuringRebuild.forEach(next::put);
+				filter = next;
+			}
+			resizeScheduled.set(false);
+			rebuilds.incrementAndGet();
+			log.info("subordinate url bloom filter built with {} urls in {} ms, {} KiB", next.getInsertions(),
+					System.currentTimeMillis() - start, next.getMemoryBytes() / 1024);
+		} catch (RuntimeException e) {
+			log.error("cannot build subordinate url bloom filter", e);
+		} finally {
+			synchronized (publishLock) {
+				savedDuringRebuild = null;
+			}
+		}
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		BloomFilter current = filter;
+
+		stats.put("enabled", enabled);
+		stats.put("ready", current != null);
+		if (current != null) {
+			stats.put("urls", current.getInsertions());
+			stats.put("expected_insertions", current.getExpectedInsertions());
+			stats.put("bits", current.getBitSize());
+			stats.put("hash_functions", current.getHashCount());
+			stats.put("memory_bytes", current.getMemoryBytes());
+			stats.put("expected_false_positive_rate", current.expectedFalsePositiveRate());
+		}
+
+		// among the lookups of urls not onboarded, the share the filter has let through
+		long absent = definiteMisses.get() + falsePositives.get();
+		stats.put("checks", checks.get());
+		stats.put("definite_misses", definiteMisses.get());
+		stats.put("false_positives", falsePositives.get());
+		stats.put("observed_false_positive_rate", absent > 0 ? (double) falsePositives.get() / absent : 0d);
+		stats.put("rebuilds", rebuilds.get());
+
+		return stats;
+	}
+
+}
@@ -0,0 +1,124 @@
+package it.ipzs.fedauthority.service;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import it.ipzs.fedauthority.dto.SignedStatement;
+import it.ipzs.fedauthority.oidclib.util.ExpiringCache;
+import it.ipzs.fedauthority.oidclib.util.SingleFlight;
+import it.ipzs.fedauthority.util.StringUtil;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Signed trust marks served by {@code /trust_mark}, keyed by the canonical sub.
+ * <br/>
+ * As the subordinate statements, trust marks are issued on fixed time buckets: the
+ * ones signed within the same bucket have the same {@code iat}/{@code exp} and the
+ * same signature, so that their ETag is stable until the bucket ends.
+ */
+@Component
+@Slf4j
+public class TrustMarkResponseCache {
+
+	private final long bucketMillis;
+
+	private final ExpiringCache<String, SignedStatement> cache;
+
+	// concurrent misses of the same sub share a single signing
+	private final SingleFlight<String, SignedStatement> signings = new SingleFlight<>("trust_mark_signing");
+
+	// bumped on every invalidation, guards against caching a trust mark built from
+	// an entity, or signed with a key, that has changed in the meantime
+	private final AtomicLong generation = new AtomicLong();
+
+	public TrustMarkResponseCache(@Value("${cache.trust-mark.bucket-seconds:3600}") long bucketSeconds,
+			@Value("${cache.trust-mark.max-entries:50000}") int maxEntries) {
+		this.bucketMillis = Math.max(1, bucketSeconds) * 1000;
+		this.cache = new ExpiringCache<>("trust_mark", maxEntries);
+	}
+
+	/**
+	 * @param sub
+	 * @param signer issues the trust mark on a miss, with the {@code iat} returned by
+	 * {@link #currentBucketStart()}; {@code null} if the subject is not onboarded
+	 * @return the cached trust mark, or the one issued by the signer
+	 */
+	public SignedStatement getOrSign(String sub, Supplier<SignedStatement> signer) {
+		String key = StringUtil.canonicalizeUrl(sub);
+
+		SignedStatement cached = cache.get(key);
+		if (cached != null) {
+			return cached;
+		}
+
+		return signings.execute(key, () -> signAndPut(key, signer));
+	}
+
+	/**
+	 * @return epoch milliseconds of the beginning of the current time bucket, to be used
+	 * as {@code iat} of the trust marks issued now
+	 */
+	public long currentBucketStart() {
+		long now = System.currentTimeMillis();
+
+		return now - (now % bucketMillis);
+	}
+
+	/**
+	 * Drops the trust mark of the given subject
+	 *
+	 * @param sub
+	 */
+	public void invalidateSubject(String sub) {
+		if (sub == null) {
+			return;
+		}
+
+		String key = StringUtil.canonicalizeUrl(sub);
+
+		generation.incrementAndGet();
+		cache.invalidate(key);
+		log.debug("trust mark cache invalidated for {}", key);
+	}
+
+	/**
+	 * Drops every trust mark, they are signed again with the current key
+	 */
+	public void clear() {
+		generation.incrementAndGet();
+		cache.clear();
+		log.info("trust mark cache cleared");
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> stats = cache.getStats();
+
+		stats.put("bucket_seconds", bucketMillis / 1000);
+		stats.put("signings", signings.getStats());
+
+		return stats;
+	}
+
+	private SignedStatement signAndPut(String key, Supplier<SignedStatement> signer) {
+		long startGeneration = generation.get();
+		SignedStatement statement = signer.get();
+
+		if (statement == null || generation.get() != startGeneration) {
+			return statement;
+		}
+
+		cache.put(key, statement, currentBucketStart() + bucketMillis);
+
+		// an invalidation between the check and the put may have missed the trust mark
+		if (generation.get() != startGeneration) {
+			cache.invalidate(key);
+		}
+
+		return statement;
+	}
+
+}
@@ -1,14 +1,23 @@
 package it.ipzs.fedauthority.service;
 
 import java.util.Calendar;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import it.ipzs.fedauthority.dto.EntityConfigurationDto;
+import it.ipzs.fedauthority.dto.SignedStatement;
+import it.ipzs.fedauthority.dto.TrustMarkStatusRequest;
 import it.ipzs.fedauthority.model.OnboardEntity;
 import it.ipzs.fedauthority.repository.OnboardEntityRepository;
 import it.ipzs.fedauthority.util.JwtUtil;
+import it.ipzs.fedauthority.util.StringUtil;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
@@ -21,12 +30,35 @@ public class TrustMarkService {
 
 	private final JwtUtil jwtUtil;
 
-	public String retrieveTrustMarkJwt(String sub, String trustMarkId) {
-		Optional<OnboardEntity> optional = oeRepo.findByUrl(sub);
+	private final SubordinateUrlFilter urlFilter;
+
+	private final TrustMarkResponseCache trustMarkCache;
+
+	@Value("${status.max-batch-size:5000}")
+	private int maxBatchSize;
+
+	/**
+	 * @param sub
+	 * @param trustMarkId
+	 * @return the trust mark of the subject, signed once per cache bucket; {@code null}
+	 * if the subject is not onboarded
+	 */
+	public SignedStatement retrieveTrustMark(String sub, String trustMarkId) {
+		if (!urlFilter.mightContain(sub)) {
+			return null;
+		}
+
+		return trustMarkCache.getOrSign(sub, () -> signTrustMark(sub));
+	}
+
+	private SignedStatement signTrustMark(String sub) {
+		Optional<OnboardEntity> optional = oeRepo.findTrustMarkSubjectByUrl(sub);
 		if (optional.isPresent()) {
 			OnboardEntity oe = optional.get();
 			EntityConfigurationDto ec = new EntityConfigurationDto();
+			// iat/exp are aligned to the cache bucket so that the trust mark is stable within it
 			Calendar instance = Calendar.getInstance();
+			instance.setTimeInMillis(trustMarkCache.currentBucketStart());
 			ec.setIat(instance.getTimeInMillis() / 1000);
 			instance.add(Calendar.MONTH, 1);
 			ec.setExp(instance.getTimeInMillis() / 1000);
@@ -36,17 +68,84 @@ public class TrustMarkService {
 
 			log.debug("trustMark result {}", result);
 
-			return result;
+			return StringUtil.isBlank(result) ? null : SignedStatement.of(result);
 
-		} else
+		} else {
+			urlFilter.recordFalsePositive();
 
 			return null;
+		}
 	}
 
+	/**
+	 * Same semantics as {@link #checkStatuses(List)}: the trust mark is active if its
+	 * subject is onboarded.
+	 *
+	 * @param sub
+	 * @param trustMarkId
+	 * @return whether the trust mark is active
+	 */
 	public Boolean checkStatus(String sub, String trustMarkId) {
-		// TODO stub for testing purpose
-		Optional<OnboardEntity> optional = oeRepo.findByUrl(sub);
-		return optional.isPresent();
+		if (!urlFilter.mightContain(sub)) {
+			return false;
+		}
+
+		return findExistingUrls(Set.of(sub)).contains(sub);
+	}
+
+	/**
+	 * Checks many trust marks with a single database query. A trust mark is active
+	 * if its subject is onboarded.
+	 *
+	 * @param pairs
+	 * @return the status of each trust mark id, by sub
+	 * @throws IllegalArgumentException if there are more pairs than
+	 * {@code status.max-batch-size} or a pair is missing or incomplete
+	 */
+	public Map<String, Map<String, Boolean>> checkStatuses(List<TrustMarkStatusRequest> pairs) {
+		if (pairs.size() > maxBatchSize) {
+			throw new IllegalArgumentException("more than " + maxBatchSize + " trust marks");
+		}
+
+		// the subs that are surely not onboarded are not queried
+		Set<String> subs = new HashSet<>();
+		for (TrustMarkStatusRequest pair : pairs) {
+			if (pair == null || StringUtil.isBlank(pair.getSub()) || pair.getTrustMarkId() == null) {
+				throw new IllegalArgumentException("sub and trust_mark_id are required");
+			}
+			if (urlFilter.mightContain(pair.getSub())) {
+				subs.add(pair.getSub());
+			}
+		}
+
+		Set<String> existing = findExistingUrls(subs);
+		log.debug("status of {} trust marks, {} subs queried, {} found", pairs.size(), subs.size(),
+				existing.size());
+
+		Map<String, Map<String, Boolean>> result = new LinkedHashMap<>();
+		for (TrustMarkStatusRequest pair : pairs) {
+			result.computeIfAbsent(pair.getSub(), sub -> new LinkedHashMap<>())
+					.put(pair.getTrustMarkId(), existing.contains(pair.getSub()));
+		}
+
+		return result;
+	}
+
+	/**
+	 * @param subs possibly onboarded, the ones that are not are counted as false
+	 * positives of the url filter
+	 * @return the onboarded ones
+	 */
+	private Set<String> findExistingUrls(Set<String> subs) {
+		Set<String> existing = oeRepo.findExistingUrls(subs);
+
+		for (String sub : subs) {
+			if (!existing.contains(sub)) {
+				urlFilter.recordFalsePositive();
+			}
+		}
+
+		return existing;
 	}
 
 }
@@ -0,0 +1,122 @@
+package it.ipzs.fedauthority.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe Bloom filter of strings: {@link #mightContain(String)} never answers
+ * {@code false} for a value that has been put, and answers {@code true} for a value
+ * never put with a probability that grows with the number of insertions.
+ */
+public class BloomFilter {
+
+	private final AtomicLongArray bits;
+	private final long bitSize;
+	private final int hashCount;
+	private final long expectedInsertions;
+	private final AtomicLong insertions = new AtomicLong();
+
+	/**
+	 * @param expectedInsertions the number of values the filter is sized for
+	 * @param falsePositiveRate the wanted false positive probability once
+	 * {@code expectedInsertions} values have been put
+	 */
+	public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+		long n = Math.max(1, expectedInsertions);
+		double p = Math.min(0.5, Math.max(Double.MIN_VALUE, falsePositiveRate));
+
+		long m = (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+		int words = (int) Math.max(1, (m + 63) / 64);
+
+		this.bits = new AtomicLongArray(words);
+		this.bitSize = (long) words * 64;
+		this.hashCount = Math.max(1, (int) Math.round((double) bitSize / n * Math.log(2)));
+		this.expectedInsertions = n;
+	}
+
+	public void put(String value) {
+		long h1 = hash(value);
+		long h2 = mix(h1) | 1;
+
+		for (int i = 0; i < hashCount; i++) {
+			long bit = Long.remainderUnsigned(h1 + i * h2, bitSize);
+			int word = (int) (bit >>> 6);
+			long mask = 1L << bit;
+
+			long current;
+			do {
+				current = bits.get(word);
+				if ((current & mask) != 0) {
+					break;
+				}
+			} while (!bits.compareAndSet(word, current, current | mask));
+		}
+
+		insertions.incrementAndGet();
+	}
+
+	public boolean mightContain(String value) {
+		long h1 = hash(value);
+		long h2 = mix(h1) | 1;
+
+		for (int i = 0; i < hashCount; i++) {
+			long bit = Long.remainderUnsigned(h1 + i * h2, bitSize);
+			if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return the false positive probability expected with the current number of
+	 * insertions
+	 */
+	public double expectedFalsePositiveRate() {
+		double n = insertions.get();
+
+		return Math.pow(1 - Math.exp(-hashCount * n / bitSize), hashCount);
+	}
+
+	public long getInsertions() {
+		return insertions.get();
+	}
+
+	public long getExpectedInsertions() {
+		return expectedInsertions;
+	}
+
+	public long getBitSize() {
+		return bitSize;
+	}
+
+	public int getHashCount() {
+		return hashCount;
+	}
+
+	public long getMemoryBytes() {
+		return bitSize / 8;
+	}
+
+	// 64 bit FNV-1a over the UTF-8 bytes
+	private static long hash(String value) {
+		long h = 0xcbf29ce484222325L;
+		for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+			h ^= b & 0xff;
+			h *= 0x100000001b3L;
+		}
+
+		return mix(h);
+	}
+
+	// finalizer of SplitMix64, spreads the bits of the FNV hash
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+
+		return z ^ (z >>> 31);
+	}
+
+}
@@ -0,0 +1,85 @@
+package it.ipzs.fedauthority.util;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import it.ipzs.fedauthority.dto.SignedStatement;
+
+/**
+ * Builds the responses of the federation endpoints with a strong ETag and a
+ * {@code Cache-Control} header.
+ * <br/>
+ * {@code If-None-Match} is evaluated by Spring MVC for {@code GET}/{@code HEAD}
+ * requests returning a {@link ResponseEntity} with an ETag: on a match the body is
+ * dropped and {@code 304 Not Modified} is sent.
+ */
+@Component
+public class HttpCacheSupport {
+
+	@Value("${cache.http.max-age-seconds:3600}")
+	private long maxAgeSeconds;
+
+	/**
+	 * @param statement
+	 * @param contentType
+	 * @return a {@code 200} response whose freshness lasts until the statement's
+	 * {@code exp}, capped by {@code cache.http.max-age-seconds}
+	 */
+	public ResponseEntity<String> ok(SignedStatement statement, MediaType contentType) {
+		return ok(statement.getJwt(), statement.getEtag(), contentType, maxAgeUntil(statement.getExp()));
+	}
+
+	/**
+	 * @param exp epoch seconds, may be {@code null}
+	 * @return the seconds left until {@code exp}, capped by
+	 * {@code cache.http.max-age-seconds}
+	 */
+	public long maxAgeUntil(Long exp) {
+		if (exp == null) {
+			return maxAgeSeconds;
+		}
+
+		return Math.min(maxAgeSeconds, exp - Instant.now().getEpochSecond());
+	}
+
+	public ResponseEntity<String> ok(String body, String etag, MediaType contentType, long maxAgeSeconds) {
+		return ResponseEntity.ok()
+				.contentType(contentType)
+				.eTag(etag)
+				.cacheControl(cacheControl(maxAgeSeconds))
+				.body(body);
+	}
+
+	/**
+	 * For the bodies issued anew on every request, whose ETag would never match
+	 *
+	 * @param body
+	 * @param contentType
+	 * @param maxAgeSeconds
+	 * @return a {@code 200} response with a {@code Cache-Control} but no ETag
+	 */
+	public ResponseEntity<String> okWithoutEtag(String body, MediaType contentType, long maxAgeSeconds) {
+		return ResponseEntity.ok()
+				.contentType(contentType)
+				.cacheControl(cacheControl(maxAgeSeconds))
+				.body(body);
+	}
+
+	/**
+	 * @param maxAgeSeconds
+	 * @return a public {@code Cache-Control} with the given max-age, {@code no-cache}
+	 * if it is not positive
+	 */
+	public CacheControl cacheControl(long maxAgeSeconds) {
+		return maxAgeSeconds > 0
+				? CacheControl.maxAge(maxAgeSeconds, TimeUnit.SECONDS).cachePublic()
+				: CacheControl.noCache();
+	}
+
+}
@@ -0,0 +1,147 @@
+package it.ipzs.fedauthority.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.stereotype.Component;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JOSEObjectType;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+import it.ipzs.fedauthority.config.KeyStoreConfig;
+import it.ipzs.fedauthority.config.SigningKeySnapshot;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Signs the JWTs issued by the federation authority with the current signing key.
+ * <br/>
+ * The {@link JWSSigner} and the {@link JWSHeader} for each {@code typ} are built once
+ * per signing key and reused until {@link KeyStoreConfig} publishes a new key.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class JwtSigner {
+
+	public static final String ENTITY_STATEMENT_TYP = "entity-statement+jwt";
+
+	public static final String RESOLVE_RESPONSE_TYP = "resolve-response+jwt";
+
+	public static final String JWK_SET_TYP = "jwk-set+jwt";
+
+	private final KeyStoreConfig keyConfig;
+
+	private volatile SignerState state;
+
+	/**
+	 * @param typ the {@code typ} header value, {@code null} to omit it
+	 * @param claims the claims to sign
+	 * @return the compact serialization of the signed JWT
+	 * @throws JOSEException
+	 */
+	public String sign(String typ, JWTClaimsSet claims) throws JOSEException {
+		SignerState current = currentState();
+
+		SignedJWT jwt = new SignedJWT(current.header(typ), claims);
+		jwt.sign(current.signer);
+
+		return jwt.serialize();
+	}
+
+	public String getActiveKid() {
+		return currentState().kid;
+	}
+
+	private SignerState currentState() {
+		SigningKeySnapshot snapshot = keyConfig.getSnapshot();
+		SignerState current = state;
+		if (current == null || current.snapshot != snapshot) {
+			synchronized (this) {
+				current = state;
+				if (current == null || current.snapshot != snapshot) {
+					current = new SignerState(snapshot);
+					state = current;
+					log.debug("signer initialized - kid {} alg {}", current.kid, current.alg);
+				}
+			}
+		}
+
+		return current;
+	}
+
+	/**
+	 * @param jwk the signing key
+	 * @return the JWS algorithm matching the key type and, for EC keys, its curve
+	 */
+	static JWSAlgorithm resolveAlgorithm(JWK jwk) {
+		if (jwk instanceof RSAKey) {
+			return JWSAlgorithm.RS256;
+		} else if (jwk instanceof ECKey ecKey) {
+			Curve curve = ecKey.getCurve();
+			if (Curve.P_256.equals(curve)) {
+				return JWSAlgorithm.ES256;
+			} else if (Curve.P_384.equals(curve)) {
+				return JWSAlgorithm.ES384;
+			} else if (Curve.P_521.equals(curve)) {
+				return JWSAlgorithm.ES512;
+			} else if (Curve.SECP256K1.equals(curve)) {
+				return JWSAlgorithm.ES256K;
+			}
+			throw new IllegalArgumentException("EC curve not supported: " + curve);
+		}
+
+		throw new IllegalArgumentException(
+				"JWK key type not supported: " + (jwk != null ? jwk.getKeyType() : null));
+	}
+
+	private static final class SignerState {
+
+		private final SigningKeySnapshot snapshot;
+		private final String kid;
+		private final JWSAlgorithm alg;
+		private final JWSSigner signer;
+		private final Map<String, JWSHeader> headers = new ConcurrentHashMap<>();
+
+		private SignerState(SigningKeySnapshot snapshot) {
+			JWK jwk = snapshot.getSigningKey();
+
+			this.snapshot = snapshot;
+			this.kid = jwk.getKeyID();
+			this.alg = resolveAlgorithm(jwk);
+
+			try {
+				if (jwk instanceof ECKey ecKey) {
+					this.signer = new ECDSASigner(ecKey);
+				} else {
+					this.signer = new RSASSASigner(jwk.toRSAKey());
+				}
+			} catch (JOSEException e) {
+				throw new IllegalStateException("cannot build signer for kid " + kid, e);
+			}
+		}
+
+		private JWSHeader header(String typ) {
+			return headers.computeIfAbsent(typ != null ? typ : "", t -> {
+				JWSHeader.Builder builder = new JWSHeader.Builder(alg).keyID(kid);
+				if (!t.isEmpty()) {
+					builder.type(new JOSEObjectType(t));
+				}
+				return builder.build();
+			});
+		}
+
+	}
+
+}
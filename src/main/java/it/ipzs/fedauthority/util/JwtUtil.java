@@ -1,11 +1,10 @@
 package it.ipzs.fedauthority.util;
 
 import java.text.ParseException;
-import java.util.Calendar;
-import java.util.HashMap;
+import java.util.Date;
+import java.util.List;
 import java.util.Map;
 
-import org.json.JSONArray;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
@@ -13,14 +12,8 @@ import org.springframework.stereotype.Component;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.nimbusds.jose.JOSEException;
-import com.nimbusds.jose.JOSEObjectType;
-import com.nimbusds.jose.JWSAlgorithm;
-import com.nimbusds.jose.JWSHeader;
-import com.nimbusds.jose.JWSSigner;
 import com.nimbusds.jose.JWSVerifier;
-import com.nimbusds.jose.crypto.ECDSASigner;
 import com.nimbusds.jose.crypto.ECDSAVerifier;
-import com.nimbusds.jose.crypto.RSASSASigner;
 import com.nimbusds.jose.crypto.RSASSAVerifier;
 import com.nimbusds.jose.jwk.ECKey;
 import com.nimbusds.jose.jwk.JWK;
@@ -28,7 +21,6 @@ import com.nimbusds.jose.jwk.RSAKey;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.SignedJWT;
 
-import it.ipzs.fedauthority.config.KeyStoreConfig;
 import it.ipzs.fedauthority.dto.EntityConfigurationDto;
 import lombok.extern.slf4j.Slf4j;
 
@@ -37,7 +29,7 @@ import lombok.extern.slf4j.Slf4j;
 public class JwtUtil {
 
 	@Autowired
-	private KeyStoreConfig keyConfig;
+	private JwtSigner jwtSigner;
 
 	@Value("${fed-config.hosts.federation-entity}")
 	private String basePath;
@@ -83,167 +75,82 @@ public class JwtUtil {
 	}
 
 	public String generateECJwt(EntityConfigurationDto ec) {
-		String result = null;
-		Map<String, Object> claimsMap = new HashMap<>();
-		claimsMap.put("iss", ec.getIss());
-		claimsMap.put("sub", ec.getSub());
-		claimsMap.put("iat", ec.getIat());
-		claimsMap.put("exp", ec.getExp());
-		claimsMap.put("jwks", ec.getJwks().toMap());
-		claimsMap.put("metadata", ec.getMetadataPolicy().toMap());
-		JWSHeader header = null;
-		JWSSigner signer = null;
-
-		try {
-			JWTClaimsSet claimsSet = JWTClaimsSet.parse(claimsMap);
-			JWK jwk = extractKey();
-			if (jwk != null && jwk instanceof ECKey ecKey) {
-				header = new JWSHeader.Builder(JWSAlgorithm.ES256).keyID(jwk.getKeyID())
-						.type(new JOSEObjectType("entity-statement+jwt")).build();
-				signer = new ECDSASigner(jwk.toECKey());
-			} else if (jwk != null && jwk instanceof ECKey RSAKey) {
-				header = new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(jwk.getKeyID())
-						.type(new JOSEObjectType("entity-statement+jwt")).build();
-				signer = new RSASSASigner(jwk.toRSAKey());
-			} else {
-				header = new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(jwk.getKeyID())
-						.type(new JOSEObjectType("entity-statement+jwt")).build();
-				signer = new RSASSASigner(jwk.toRSAKey());
-			}
-
-			SignedJWT jwt = new SignedJWT(header, claimsSet);
-			jwt.sign(signer);
-
-			result = jwt.serialize();
-
-		} catch (ParseException | JOSEException e) {
-			log.error("", e);
-		}
-
-		return result;
+		return sign(JwtSigner.ENTITY_STATEMENT_TYP, statementClaims(ec).build());
 	}
 
-	private JWK extractKey() {
-		return keyConfig.loadKey();
+	public String generateHistoricalJwksJwt(List<Map<String, Object>> keys) {
+		JWTClaimsSet claimsSet = new JWTClaimsSet.Builder()
+				.issuer(StringUtil.concat("http://", basePath))
+				.issueTime(new Date())
+				.claim("keys", keys)
+				.build();
 
+		return sign(JwtSigner.JWK_SET_TYP, claimsSet);
 	}
 
-	public String generateHistoricalJwksJwt(JSONArray keysArray) {
-
-		String result = null;
-		Map<String, Object> claimsMap = new HashMap<>();
-		Calendar cal = Calendar.getInstance();
-		claimsMap.put("iat", cal.getTimeInMillis() / 1000);
-		claimsMap.put("keys", keysArray.toList());
-		claimsMap.put("iss", StringUtil.concat("http://", basePath));
-		JWSHeader header = null;
-		JWSSigner signer = null;
-		try {
-			JWTClaimsSet claimsSet = JWTClaimsSet.parse(claimsMap);
-			JWK jwk = extractKey();
-			if (jwk != null && jwk instanceof ECKey ecKey) {
-				header = new JWSHeader.Builder(JWSAlgorithm.ES256).keyID(jwk.getKeyID())
-						.type(new JOSEObjectType("jwk-set+jwt")).build();
-				signer = new ECDSASigner(jwk.toECKey());
-			} else if (jwk != null && jwk instanceof ECKey RSAKey) {
-				header = new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(jwk.getKeyID())
-						.type(new JOSEObjectType("jwk-set+jwt")).build();
-				signer = new RSASSASigner(jwk.toRSAKey());
-			} else {
-				header = new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(jwk.getKeyID())
-						.type(new JOSEObjectType("jwk-set+jwt")).build();
-				signer = new RSASSASigner(jwk.toRSAKey());
-			}
-
-			SignedJWT jwt = new SignedJWT(header, claimsSet);
-			jwt.sign(signer);
-
-			result = jwt.serialize();
-
-		} catch (ParseException | JOSEException e) {
-			log.error("", e);
+	/**
+	 * @param iss the resolver
+	 * @param sub the resolved subject
+	 * @param iat
+	 * @param exp the earliest exp of the trust chain
+	 * @param metadata the resolved metadata, by type
+	 * @param trustMarks the verified trust marks, omitted if empty
+	 * @param trustChain the JWTs of the trust chain, from the subject to the anchor
+	 * @return the signed resolve response
+	 */
+	public String generateResolveResponse(String iss, String sub, long iat, long exp, Map<String, Object> metadata,
+			List<Object> trustMarks, List<String> trustChain) {
+		JWTClaimsSet.Builder builder = new JWTClaimsSet.Builder()
+				.issuer(iss)
+				.subject(sub)
+				.issueTime(toDate(iat))
+				.expirationTime(toDate(exp))
+				.claim("metadata", metadata)
+				.claim("trust_chain", trustChain);
+		if (!trustMarks.isEmpty()) {
+			builder.claim("trust_marks", trustMarks);
 		}
 
-		return result;
+		return sign(JwtSigner.RESOLVE_RESPONSE_TYP, builder.build());
 	}
 
-	public String generateResolveECJwt(EntityConfigurationDto ec) {
-
-		String result = null;
-		Map<String, Object> claimsMap = new HashMap<>();
-		claimsMap.put("iss", ec.getIss());
-		claimsMap.put("sub", ec.getSub());
-		claimsMap.put("iat", ec.getIat());
-		claimsMap.put("exp", ec.getExp());
-		claimsMap.put("jwks", ec.getJwks().toMap());
-		claimsMap.put("metadata", ec.getMetadataPolicy().toMap());
-		JWSHeader header = null;
-		JWSSigner signer = null;
+	public String generateTrustMarkResponse(EntityConfigurationDto ec) {
+		JWTClaimsSet claimsSet = new JWTClaimsSet.Builder()
+				.issuer(StringUtil.concat("https://", basePath))
+				.subject(ec.getSub())
+				.issueTime(toDate(ec.getIat()))
+				.expirationTime(toDate(ec.getExp()))
+				.claim("id", StringUtil.concat(ec.getSub(), ec.getIss()))
+				.build();
+
+		return sign(null, claimsSet);
+	}
 
-		try {
-			JWTClaimsSet claimsSet = JWTClaimsSet.parse(claimsMap);
-			JWK jwk = extractKey();
-			if (jwk != null && jwk instanceof ECKey ecKey) {
-				header = new JWSHeader.Builder(JWSAlgorithm.ES256).keyID(jwk.getKeyID())
-						.type(new JOSEObjectType("resolve-response+jwt")).build();
-				signer = new ECDSASigner(jwk.toECKey());
-			} else if (jwk != null && jwk instanceof ECKey RSAKey) {
-				header = new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(jwk.getKeyID())
-						.type(new JOSEObjectType("resolve-response+jwt")).build();
-				signer = new RSASSASigner(jwk.toRSAKey());
-			} else {
-				header = new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(jwk.getKeyID())
-						.type(new JOSEObjectType("resolve-response+jwt")).build();
-				signer = new RSASSASigner(jwk.toRSAKey());
-			}
-
-			SignedJWT jwt = new SignedJWT(header, claimsSet);
-			jwt.sign(signer);
-
-			result = jwt.serialize();
-
-		} catch (ParseException | JOSEException e) {
-			log.error("", e);
+	private JWTClaimsSet.Builder statementClaims(EntityConfigurationDto ec) {
+		JWTClaimsSet.Builder builder = new JWTClaimsSet.Builder()
+				.issuer(ec.getIss())
+				.subject(ec.getSub())
+				.issueTime(toDate(ec.getIat()))
+				.expirationTime(toDate(ec.getExp()))
+				.claim("jwks", ec.getJwks());
+		if (ec.getMetadataPolicy() != null) {
+			builder.claim("metadata", ec.getMetadataPolicy());
 		}
 
-		return result;
-	
+		return builder;
 	}
 
-	public String generateTrustMarkResponse(EntityConfigurationDto ec) {
-		String result = null;
-		Map<String, Object> claimsMap = new HashMap<>();
-		claimsMap.put("iss", StringUtil.concat("https://", basePath));
-		claimsMap.put("sub", ec.getSub());
-		claimsMap.put("iat", ec.getIat());
-		claimsMap.put("exp", ec.getExp());
-		claimsMap.put("id", StringUtil.concat(ec.getSub(), ec.getIss()));
-		JWSHeader header = null;
-		JWSSigner signer = null;
+	private static Date toDate(Long epochSeconds) {
+		return epochSeconds != null ? new Date(epochSeconds * 1000) : null;
+	}
 
+	private String sign(String typ, JWTClaimsSet claimsSet) {
 		try {
-			JWTClaimsSet claimsSet = JWTClaimsSet.parse(claimsMap);
-			JWK jwk = extractKey();
-			if (jwk != null && jwk instanceof ECKey ecKey) {
-				header = new JWSHeader.Builder(JWSAlgorithm.ES256).keyID(jwk.getKeyID()).build();
-				signer = new ECDSASigner(jwk.toECKey());
-			} else if (jwk != null && jwk instanceof ECKey RSAKey) {
-				header = new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(jwk.getKeyID()).build();
-				signer = new RSASSASigner(jwk.toRSAKey());
-			} else {
-				header = new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(jwk.getKeyID()).build();
-				signer = new RSASSASigner(jwk.toRSAKey());
-			}
-
-			SignedJWT jwt = new SignedJWT(header, claimsSet);
-			jwt.sign(signer);
-
-			result = jwt.serialize();
-
-		} catch (ParseException | JOSEException e) {
+			return jwtSigner.sign(typ, claimsSet);
+		} catch (JOSEException | RuntimeException e) {
 			log.error("", e);
 		}
 
-		return result;
+		return null;
 	}
 }
@@ -1,6 +1,9 @@
 package it.ipzs.fedauthority.util;
 
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.Collection;
+import java.util.Locale;
 import java.util.StringJoiner;
 
 public class StringUtil {
@@ -37,6 +40,36 @@ public class StringUtil {
 		return sj.toString();
 	}
 
+	/**
+	 * Normalizes an entity identifier for use as a lookup key: surrounding blanks are
+	 * removed and scheme and host, which are case-insensitive, are lower-cased.
+	 *
+	 * @param url
+	 * @return the canonical form, or the trimmed value if it isn't a valid URI
+	 */
+	public static String canonicalizeUrl(String url) {
+		if (url == null) {
+			return null;
+		}
+
+		String trimmed = url.trim();
+
+		try {
+			URI uri = new URI(trimmed);
+
+			if (uri.getScheme() == null || uri.getHost() == null) {
+				return trimmed;
+			}
+
+			return new URI(
+				uri.getScheme().toLowerCase(Locale.ROOT), uri.getUserInfo(),
+				uri.getHost().toLowerCase(Locale.ROOT), uri.getPort(), uri.getPath(),
+				uri.getQuery(), uri.getFragment()).toString();
+		} catch (URISyntaxException e) {
+			return trimmed;
+		}
+	}
+
 	public static boolean isBlank(String string) {
 		return string == null || string.isBlank();
 	}
@@ -0,0 +1,197 @@
+package it.ipzs.fedauthority.oidclib.helper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Walks a {@link CircuitBreaker} through its closed, open and half open states, with
+ * open periods short enough to be waited for.
+ */
+class CircuitBreakerTest {
+
+	private static final int THRESHOLD = 3;
+
+	private static final long OPEN_MILLIS = 50;
+
+	private static final long MAX_OPEN_MILLIS = 150;
+
+	private static final int PROBES = 2;
+
+	@Test
+	void opensAfterConsecutiveFailures() {
+		CircuitBreaker breaker = newBreaker();
+
+		fail(breaker, THRESHOLD - 1);
+
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+		// a success in between resets the count
+
+		assertTrue(breaker.tryAcquire());
+		breaker.onSuccess();
+
+		fail(breaker, THRESHOLD - 1);
+
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+		fail(breaker, 1);
+
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.isAllowing());
+		assertFalse(breaker.tryAcquire());
+		assertFalse(breaker.tryAcquire());
+		assertEquals(1L, breaker.toMap().get("opened"));
+		assertEquals(2L, breaker.toMap().get("rejected"));
+	}
+
+	@Test
+	void closesAfterSuccessfulProbe() throws Exception {
+		CircuitBreaker breaker = openBreaker();
+
+		Thread.sleep(OPEN_MILLIS + 20);
+
+		assertTrue(breaker.isAllowing());
+		assertTrue(breaker.tryAcquire());
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+		breaker.onSuccess();
+
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertEquals(0, breaker.toMap().get("consecutive_failures"));
+
+		// the count starts over
+
+		fail(breaker, THRESHOLD - 1);
+
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	void limitsProbesWhileHalfOpen() throws Exception {
+		CircuitBreaker breaker = openBreaker();
+
+		Thread.sleep(OPEN_MILLIS + 20);
+
+		for (int i = 0; i < PROBES; i++) {
+			assertTrue(breaker.tryAcquire(), "probe " + i);
+		}
+
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertFalse(breaker.isAllowing());
+		assertFalse(breaker.tryAcquire());
+		assertEquals(1L, breaker.toMap().get("rejected"));
+	}
+
+	@Test
+	void reopensLongerAfterFailedProbe() throws Exception {
+		CircuitBreaker breaker = openBreaker();
+
+		Thread.sleep(OPEN_MILLIS + 20);
+
+		assertTrue(breaker.tryAcquire());
+
+		long failedAt = System.currentTimeMillis();
+
+		breaker.onFailure();
+
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertEquals(2L, breaker.toMap().get("opened"));
+		assertOpenFor(breaker, failedAt, OPEN_MILLIS * 2);
+
+		Thread.sleep(OPEN_MILLIS * 2 + 20);
+
+		assertTrue(breaker.tryAcquire());
+
+		failedAt = System.currentTimeMillis();
+
+		breaker.onFailure();
+
+		// doubled again, up to the maximum
+
+		assertOpenFor(breaker, failedAt, MAX_OPEN_MILLIS);
+	}
+
+	@Test
+	void cancelReleasesProbe() throws Exception {
+		CircuitBreaker breaker = openBreaker();
+
+		Thread.sleep(OPEN_MILLIS + 20);
+
+		for (int i = 0; i < PROBES; i++) {
+			assertTrue(breaker.tryAcquire());
+		}
+
+		assertFalse(breaker.isAllowing());
+
+		breaker.onCancel();
+
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertTrue(breaker.tryAcquire());
+		assertFalse(breaker.tryAcquire());
+
+		// nothing to release beyond the probes in flight
+
+		for (int i = 0; i < PROBES + 2; i++) {
+			breaker.onCancel();
+		}
+
+		for (int i = 0; i < PROBES; i++) {
+			assertTrue(breaker.tryAcquire());
+		}
+
+		assertFalse(breaker.tryAcquire());
+	}
+
+	@Test
+	void cancelDoesNotCountWhileClosed() {
+		CircuitBreaker breaker = newBreaker();
+
+		for (int i = 0; i < THRESHOLD * 2; i++) {
+			assertTrue(breaker.tryAcquire());
+			breaker.onCancel();
+		}
+
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertEquals(0, breaker.toMap().get("consecutive_failures"));
+	}
+
+	private static CircuitBreaker newBreaker() {
+		return new CircuitBreaker(THRESHOLD, OPEN_MILLIS, MAX_OPEN_MILLIS, PROBES);
+	}
+
+	private static CircuitBreaker openBreaker() {
+		CircuitBreaker breaker = newBreaker();
+
+		fail(breaker, THRESHOLD);
+
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+		return breaker;
+	}
+
+	private static void fail(CircuitBreaker breaker, int times) {
+		for (int i = 0; i < times; i++) {
+			assertTrue(breaker.tryAcquire());
+			breaker.onFailure();
+		}
+	}
+
+	private static void assertOpenFor(
+		CircuitBreaker breaker, long openedAt, long openMillis) {
+
+		long openUntil = Instant.parse(
+			(String)breaker.toMap().get("open_until")).toEpochMilli();
+
+		assertTrue(
+			openUntil >= openedAt + openMillis &&
+				openUntil <= System.currentTimeMillis() + openMillis,
+			"open until " + openUntil + ", expected " + openMillis + " ms after " +
+				openedAt);
+	}
+
+}
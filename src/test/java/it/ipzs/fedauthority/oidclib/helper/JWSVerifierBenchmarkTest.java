@@ -0,0 +1,126 @@
+package it.ipzs.fedauthority.oidclib.helper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+/**
+ * Compares the verification throughput of the JCA providers backing
+ * {@link JWSVerifierCache}, and of a verifier built for every verification. Every
+ * verification must succeed and the cached verifier must be reused; the throughput
+ * is logged.
+ * <br/>
+ * Run with {@code mvn test -Dtest=JWSVerifierBenchmarkTest -Dbenchmark=true}
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class JWSVerifierBenchmarkTest {
+
+	private static final Logger logger = LoggerFactory.getLogger(
+		JWSVerifierBenchmarkTest.class);
+
+	private static final int WARMUP = 2000;
+
+	private static final int ITERATIONS = 10000;
+
+	@Test
+	void compareProviders() throws Exception {
+		RSAKey rsaKey = new RSAKeyGenerator(2048).keyIDFromThumbprint(true).generate();
+		ECKey ecKey = new ECKeyGenerator(Curve.P_256).keyIDFromThumbprint(true).generate();
+
+		List<Sample> samples = List.of(
+			new Sample(JWSAlgorithm.RS256, rsaKey, new RSASSASigner(rsaKey)),
+			new Sample(JWSAlgorithm.PS256, rsaKey, new RSASSASigner(rsaKey)),
+			new Sample(JWSAlgorithm.ES256, ecKey, new ECDSASigner(ecKey)));
+
+		for (Sample sample : samples) {
+			SignedJWT jwt = sample.sign();
+
+			for (JWSVerifierCache.Provider provider : JWSVerifierCache.Provider.values()) {
+				JWSVerifierCache cache = new JWSVerifierCache(provider, 10, 3600);
+
+				assertSame(
+					cache.getVerifier(sample.alg(), sample.jwk().toPublicJWK()),
+					cache.getVerifier(sample.alg(), sample.jwk().toPublicJWK()));
+
+				double cached = measure(() -> cache.getVerifier(
+					sample.alg(), sample.jwk().toPublicJWK()), jwt);
+
+				double uncached = measure(() -> new JWSVerifierCache(provider, 1, 3600)
+					.getVerifier(sample.alg(), sample.jwk().toPublicJWK()), jwt);
+
+				assertEquals(1, cache.getStats().get("size"));
+
+				logger.info(
+					"{} {}: {} ops/s cached, {} ops/s per-call", sample.alg(), provider,
+					Math.round(cached), Math.round(uncached));
+			}
+		}
+	}
+
+	private static double measure(VerifierSupplier supplier, SignedJWT jwt)
+		throws Exception {
+
+		for (int x = 0; x < WARMUP; x++) {
+			assertTrue(jwt.verify(supplier.get()));
+		}
+
+		long start = System.nanoTime();
+		int verified = 0;
+
+		for (int x = 0; x < ITERATIONS; x++) {
+			if (jwt.verify(supplier.get())) {
+				verified++;
+			}
+		}
+
+		assertEquals(ITERATIONS, verified);
+
+		return ITERATIONS / ((System.nanoTime() - start) / 1_000_000_000d);
+	}
+
+	private interface VerifierSupplier {
+
+		JWSVerifier get() throws Exception;
+
+	}
+
+	private record Sample(JWSAlgorithm alg, JWK jwk, JWSSigner signer) {
+
+		SignedJWT sign() throws Exception {
+			SignedJWT jwt = new SignedJWT(
+				new JWSHeader.Builder(alg).keyID(jwk.getKeyID()).build(),
+				new JWTClaimsSet.Builder()
+					.issuer("https://benchmark.example.org")
+					.subject("https://benchmark.example.org")
+					.build());
+
+			jwt.sign(signer);
+
+			return jwt;
+		}
+
+	}
+
+}
@@ -0,0 +1,200 @@
+package it.ipzs.fedauthority.oidclib.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import it.ipzs.fedauthority.oidclib.exception.TrustChainBuilderException;
+
+/**
+ * Compares the compiled and merged policies of {@link MetadataPolicy} with
+ * {@link TrustChainBuilder#applyPolicy}, applied one statement after another, over
+ * random metadata and trust paths.
+ */
+class MetadataPolicyTest {
+
+	private static final String[] CLAIMS = { "a", "b", "c", "d" };
+
+	private static final Object[] VALUES = { "x", "y", "z", 1 };
+
+	private static final String[] OPERATORS = {
+		"value", "one_of", "add", "default", "subset_of", "superset_of", "essential" };
+
+	private static final int ITERATIONS = 10000;
+
+	@Test
+	void matchesInterpreter() throws Exception {
+		Random random = new Random(42);
+		TrustChainBuilder reference = new TrustChainBuilder("sub", "openid_provider", null);
+		int failures = 0;
+
+		for (int x = 0; x < ITERATIONS; x++) {
+			JSONObject metadata = randomMetadata(random);
+			List<JSONObject> policies = new ArrayList<>();
+
+			for (int y = random.nextInt(4); y >= 0; y--) {
+				policies.add(randomPolicy(random));
+			}
+
+			String context = "metadata " + metadata + ", policies " + policies;
+
+			JSONObject expected = new JSONObject(metadata.toString());
+			Exception expectedError = null;
+
+			try {
+				for (JSONObject policy : policies) {
+					expected = reference.applyPolicy(
+						expected, new JSONObject(policy.toString()));
+				}
+			}
+			catch (TrustChainBuilderException e) {
+				expectedError = e;
+			}
+
+			MetadataPolicy compiled = MetadataPolicy.empty();
+
+			for (JSONObject policy : policies) {
+				compiled = compiled.merge(MetadataPolicy.compile(policy));
+			}
+
+			String original = metadata.toString();
+			JSONObject actual = null;
+			Exception actualError = null;
+
+			try {
+				actual = compiled.apply(metadata);
+			}
+			catch (TrustChainBuilderException e) {
+				actualError = e;
+			}
+
+			assertEquals(original, metadata.toString(), "metadata modified, " + context);
+
+			if (expectedError != null) {
+				assertNotNull(actualError, "no error, " + context);
+
+				failures++;
+			}
+			else {
+				assertNull(actualError, "unexpected error, " + context);
+				assertEquals(normalize(expected), normalize(actual), context);
+			}
+		}
+
+		// both outcomes must have been covered
+
+		assertTrue(
+			failures > 0 && failures < ITERATIONS,
+			"expected between 1 and " + (ITERATIONS - 1) + " failures, got " + failures);
+	}
+
+	@Test
+	void keepsNullValues() throws Exception {
+		JSONObject metadata = new JSONObject()
+			.put("a", JSONObject.NULL)
+			.put("b", new JSONArray().put("x").put(JSONObject.NULL));
+
+		JSONObject result = MetadataPolicy.compile(
+			new JSONObject().put("c", new JSONObject().put("default", "y"))
+		).apply(metadata);
+
+		assertEquals(JSONObject.NULL, result.get("a"));
+		assertEquals(2, result.getJSONArray("b").length());
+		assertEquals("y", result.get("c"));
+	}
+
+	private static JSONObject randomMetadata(Random random) {
+		JSONObject metadata = new JSONObject();
+
+		for (String claim : CLAIMS) {
+			if (random.nextInt(3) > 0) {
+				metadata.put(claim, randomValue(random));
+			}
+		}
+
+		return metadata;
+	}
+
+	private static JSONObject randomPolicy(Random random) {
+		JSONObject policy = new JSONObject();
+
+		for (String claim : CLAIMS) {
+			if (random.nextBoolean()) {
+				continue;
+			}
+
+			JSONObject operators = new JSONObject();
+
+			for (String operator : OPERATORS) {
+				if (random.nextInt(3) > 0) {
+					continue;
+				}
+
+				if ("one_of".equals(operator)) {
+					operators.put(operator, randomArray(random));
+				}
+				else if ("essential".equals(operator)) {
+					operators.put(operator, random.nextBoolean());
+				}
+				else {
+					operators.put(operator, randomValue(random));
+				}
+			}
+
+			policy.put(claim, operators);
+		}
+
+		return policy;
+	}
+
+	private static Object randomValue(Random random) {
+		if (random.nextBoolean()) {
+			return VALUES[random.nextInt(VALUES.length)];
+		}
+
+		return randomArray(random);
+	}
+
+	private static JSONArray randomArray(Random random) {
+		JSONArray array = new JSONArray();
+
+		for (int x = random.nextInt(VALUES.length); x >= 0; x--) {
+			array.put(VALUES[random.nextInt(VALUES.length)]);
+		}
+
+		return array;
+	}
+
+	/**
+	 * The arrays are compared as lists, so that a different order or a lost duplicate
+	 * is a mismatch
+	 */
+	private static Map<String, Object> normalize(JSONObject json) {
+		Map<String, Object> result = new HashMap<>();
+
+		for (String key : json.keySet()) {
+			Object value = json.get(key);
+
+			if (value instanceof JSONArray) {
+				result.put(key, ((JSONArray)value).toList());
+			}
+			else {
+				result.put(key, value);
+			}
+		}
+
+		return result;
+	}
+
+}
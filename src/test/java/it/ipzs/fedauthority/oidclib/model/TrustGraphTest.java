@@ -0,0 +1,278 @@
+package it.ipzs.fedauthority.oidclib.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSObject;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.Payload;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+
+import it.ipzs.fedauthority.oidclib.RelyingPartyOptions;
+import it.ipzs.fedauthority.oidclib.helper.JWTHelper;
+
+/**
+ * Builds small federations of signed entity configurations and statements, verified
+ * as the discovery does, and checks the trust path selected by {@link TrustGraph}
+ * and by {@link TrustChainBuilder}.
+ */
+class TrustGraphTest {
+
+	private static final String TA = "https://ta.example.org";
+
+	private static final String LEAF = "https://rp.example.org";
+
+	private static final String METADATA_TYPE = "openid_relying_party";
+
+	private ECKey key;
+
+	private JWSSigner signer;
+
+	private JWTHelper jwtHelper;
+
+	private long now;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		key = new ECKeyGenerator(Curve.P_256).keyIDFromThumbprint(true).generate();
+		signer = new ECDSASigner(key);
+		jwtHelper = new JWTHelper(
+			new RelyingPartyOptions().setAllowedSigningAlgs("ES256"));
+		now = System.currentTimeMillis() / 1000;
+	}
+
+	@Test
+	void visitsDiamondOnce() throws Exception {
+		EntityConfiguration ta = entity(TA);
+		EntityConfiguration a = entity("https://a.example.org");
+		EntityConfiguration b = entity("https://b.example.org");
+		EntityConfiguration c = entity("https://c.example.org");
+		EntityConfiguration leaf = entity(LEAF);
+
+		link(leaf, a);
+		link(leaf, b);
+		link(a, c);
+		link(b, c);
+		link(c, ta);
+
+		TrustGraph graph = TrustGraph.of(leaf);
+
+		assertEquals(5, graph.getNodeCount());
+
+		TrustGraph.Path path = graph.findShortestPath(TA, 2);
+
+		assertNotNull(path);
+		assertEquals(4, path.getEntities().size());
+		assertEquals(LEAF, path.getSubjects().get(0));
+		assertEquals(c.getSubject(), path.getSubjects().get(2));
+		assertEquals(TA, path.getSubjects().get(3));
+
+		// one path through each side of the diamond
+
+		assertEquals(2, graph.getCandidatePaths(TA, 2).size());
+	}
+
+	@Test
+	void prefersShorterPath() throws Exception {
+		EntityConfiguration ta = entity(TA);
+		EntityConfiguration a = entity("https://a.example.org");
+		EntityConfiguration leaf = entity(LEAF);
+
+		// the longer path expires later, the shorter one still wins
+
+		link(leaf, a, now + 7200);
+		link(a, ta, now + 7200);
+		link(leaf, ta, now + 600);
+
+		TrustGraph.Path path = TrustGraph.of(leaf).findShortestPath(TA, 1);
+
+		assertEquals(List.of(LEAF, TA), path.getSubjects());
+		assertEquals(now + 600, path.getExp());
+	}
+
+	@Test
+	void prefersLatestExpirationAmongEqualLengths() throws Exception {
+		for (boolean aFirst : new boolean[] { true, false }) {
+			EntityConfiguration ta = entity(TA);
+			EntityConfiguration a = entity("https://a.example.org");
+			EntityConfiguration b = entity("https://b.example.org");
+			EntityConfiguration leaf = entity(LEAF);
+
+			long aExp = aFirst ? now + 1200 : now + 600;
+			long bExp = aFirst ? now + 600 : now + 1200;
+
+			link(leaf, a);
+			link(leaf, b);
+			link(a, ta, aExp);
+			link(b, ta, bExp);
+
+			TrustGraph graph = TrustGraph.of(leaf);
+
+			TrustGraph.Path path = graph.findShortestPath(TA, 1);
+
+			String expected = aFirst ? a.getSubject() : b.getSubject();
+
+			assertEquals(expected, path.getSubjects().get(1), "a first " + aFirst);
+			assertEquals(now + 1200, path.getExp(), "a first " + aFirst);
+
+			List<TrustGraph.Path> candidates = graph.getCandidatePaths(TA, 1);
+
+			assertEquals(2, candidates.size());
+			assertEquals(path.getSubjects(), candidates.get(0).getSubjects());
+		}
+	}
+
+	@Test
+	void honoursMaxPathLength() throws Exception {
+		EntityConfiguration ta = entity(TA);
+		EntityConfiguration a = entity("https://a.example.org");
+		EntityConfiguration b = entity("https://b.example.org");
+		EntityConfiguration leaf = entity(LEAF);
+
+		link(leaf, a);
+		link(a, b);
+		link(b, ta);
+
+		TrustGraph graph = TrustGraph.of(leaf);
+
+		assertNull(graph.findShortestPath(TA, 0));
+		assertNull(graph.findShortestPath(TA, 1));
+		assertTrue(graph.getCandidatePaths(TA, 1).isEmpty());
+
+		assertEquals(4, graph.findShortestPath(TA, 2).getEntities().size());
+		assertEquals(1, graph.getCandidatePaths(TA, 2).size());
+	}
+
+	@Test
+	void findsNoPathToUnknownAnchor() throws Exception {
+		EntityConfiguration leaf = entity(LEAF);
+
+		link(leaf, entity(TA));
+
+		TrustGraph graph = TrustGraph.of(leaf);
+
+		assertNull(graph.findShortestPath("https://other.example.org", 5));
+		assertTrue(graph.getCandidatePaths("https://other.example.org", 5).isEmpty());
+	}
+
+	@Test
+	void builderWithoutPathIsInvalid() throws Exception {
+		EntityConfiguration ta = entity(TA);
+		EntityConfiguration a = entity("https://a.example.org");
+		EntityConfiguration leaf = entity(LEAF);
+
+		// the leaf reaches an authority that is not a subordinate of the anchor
+
+		link(leaf, a);
+
+		TrustChainBuilder builder = new TrustChainBuilder(LEAF, METADATA_TYPE, jwtHelper)
+			.setTrustAnchor(ta)
+			.setSubjectConfiguration(leaf);
+
+		builder.applyMetadataPolicy();
+
+		assertFalse(builder.isValid());
+		assertNull(builder.getFinalMetadata());
+		assertTrue(builder.getTrustChain().isEmpty());
+		assertEquals(0L, builder.getTrustChainExp());
+		assertTrue(builder.getCandidatePaths().isEmpty());
+	}
+
+	@Test
+	void builderAppliesPolicyAlongPath() throws Exception {
+		EntityConfiguration ta = entity(TA);
+		EntityConfiguration leaf = entity(LEAF);
+
+		JSONObject policy = new JSONObject().put(
+			METADATA_TYPE, new JSONObject().put(
+				"client_name", new JSONObject().put("value", "policy")));
+
+		link(leaf, ta, now + 600, policy);
+
+		TrustChainBuilder builder = new TrustChainBuilder(LEAF, METADATA_TYPE, jwtHelper)
+			.setTrustAnchor(ta)
+			.setSubjectConfiguration(leaf);
+
+		builder.applyMetadataPolicy();
+
+		assertEquals(
+			"policy", new JSONObject(builder.getFinalMetadata()).get("client_name"));
+		assertEquals(3, builder.getTrustChain().size());
+		assertEquals(now + 600, builder.getTrustChainExp());
+	}
+
+	private EntityConfiguration entity(String subject) throws Exception {
+		JSONObject payload = new JSONObject()
+			.put("iss", subject)
+			.put("sub", subject)
+			.put("iat", now)
+			.put("exp", now + 3600)
+			.put("metadata", new JSONObject().put(
+				METADATA_TYPE, new JSONObject().put("client_name", subject)));
+
+		return new EntityConfiguration(sign(payload), jwtHelper);
+	}
+
+	private void link(EntityConfiguration descendant, EntityConfiguration superior)
+		throws Exception {
+
+		link(descendant, superior, now + 3600);
+	}
+
+	private void link(
+			EntityConfiguration descendant, EntityConfiguration superior, long exp)
+		throws Exception {
+
+		link(descendant, superior, exp, null);
+	}
+
+	/**
+	 * Issues the statement of the superior about the descendant and verifies it, as
+	 * the discovery does
+	 */
+	private void link(
+			EntityConfiguration descendant, EntityConfiguration superior, long exp,
+			JSONObject metadataPolicy)
+		throws Exception {
+
+		JSONObject payload = new JSONObject()
+			.put("iss", superior.getSubject())
+			.put("sub", descendant.getSubject())
+			.put("iat", now)
+			.put("exp", exp);
+
+		if (metadataPolicy != null) {
+			payload.put("metadata_policy", metadataPolicy);
+		}
+
+		assertTrue(descendant.validateBySuperior(sign(payload), superior));
+	}
+
+	private String sign(JSONObject payload) throws Exception {
+		payload.put("jwks", new JSONObject().put(
+			"keys", List.of(new JSONObject(key.toPublicJWK().toJSONString()))));
+
+		JWSObject jws = new JWSObject(
+			new JWSHeader.Builder(JWSAlgorithm.ES256).keyID(key.getKeyID()).build(),
+			new Payload(payload.toString()));
+
+		jws.sign(signer);
+
+		return jws.serialize();
+	}
+
+}
@@ -0,0 +1,373 @@
+package it.ipzs.fedauthority.oidclib.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that {@link SingleFlight} runs a single computation per key in flight,
+ * shares its result or exception with the callers waiting for it, and forgets it
+ * once it ends.
+ */
+class SingleFlightTest {
+
+	private static final int FOLLOWERS = 8;
+
+	private SingleFlight<String, String> singleFlight;
+
+	private ExecutorService executor;
+
+	@BeforeEach
+	void setUp() {
+		singleFlight = new SingleFlight<>("test");
+		executor = Executors.newFixedThreadPool(FOLLOWERS + 1);
+	}
+
+	@AfterEach
+	void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	void sharesResult() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger executions = new AtomicInteger();
+
+		SingleFlight.Computation<String, InterruptedException> computation = () -> {
+			executions.incrementAndGet();
+			release.await();
+
+			return new String("result");
+		};
+
+		Future<String> leader = executor.submit(
+			() -> singleFlight.execute("key", computation));
+
+		awaitStat("in_flight", 1);
+
+		List<Future<String>> followers = new ArrayList<>();
+
+		for (int i = 0; i < FOLLOWERS; i++) {
+			followers.add(executor.submit(
+				() -> singleFlight.execute("key", computation)));
+		}
+
+		awaitStat("coalesced", FOLLOWERS);
+
+		release.countDown();
+
+		String result = leader.get(5, TimeUnit.SECONDS);
+
+		for (Future<String> follower : followers) {
+			assertSame(result, follower.get(5, TimeUnit.SECONDS));
+		}
+
+		assertEquals(1, executions.get());
+		assertEquals(1L, singleFlight.getStats().get("executions"));
+		assertEquals(0, singleFlight.getStats().get("in_flight"));
+	}
+
+	@Test
+	void sharesCheckedException() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		IOException failure = new IOException("unreachable");
+
+		SingleFlight.Computation<String, IOException> computation = () -> {
+			try {
+				release.await();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			throw failure;
+		};
+
+		List<Future<String>> callers = new ArrayList<>();
+
+		callers.add(executor.submit(() -> singleFlight.execute("key", computation)));
+
+		awaitStat("in_flight", 1);
+
+		for (int i = 0; i < FOLLOWERS; i++) {
+			callers.add(executor.submit(
+				() -> singleFlight.execute("key", computation)));
+		}
+
+		awaitStat("coalesced", FOLLOWERS);
+
+		release.countDown();
+
+		for (Future<String> caller : callers) {
+			Throwable cause = assertThrows(
+				ExecutionException.class,
+				() -> caller.get(5, TimeUnit.SECONDS)).getCause();
+
+			assertSame(failure, cause);
+		}
+
+		assertEquals(1L, singleFlight.getStats().get("executions"));
+		assertEquals(1L, singleFlight.getStats().get("failures"));
+	}
+
+	@Test
+	void sharesRuntimeException() {
+		IllegalStateException failure = new IllegalStateException("broken");
+
+		assertSame(failure, assertThrows(
+			IllegalStateException.class,
+			() -> singleFlight.execute("key", () -> {
+				throw failure;
+			})));
+
+		assertEquals(0, singleFlight.getStats().get("in_flight"));
+	}
+
+	@Test
+	void forgetsEndedComputations() throws Exception {
+		AtomicInteger executions = new AtomicInteger();
+
+		assertEquals("1", singleFlight.execute(
+			"key", () -> String.valueOf(executions.incrementAndGet())));
+
+		assertThrows(IOException.class, () -> singleFlight.execute("key", () -> {
+			executions.incrementAndGet();
+
+			throw new IOException("unreachable");
+		}));
+
+		assertEquals("3", singleFlight.execute(
+			"key", () -> String.valueOf(executions.incrementAndGet())));
+
+		assertEquals(0, singleFlight.getStats().get("in_flight"));
+		assertEquals(3L, singleFlight.getStats().get("executions"));
+		assertEquals(0L, singleFlight.getStats().get("coalesced"));
+	}
+
+	@Test
+	void sharesNullResult() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+
+		Future<String> leader = executor.submit(
+			() -> singleFlight.execute("key", () -> {
+				release.await();
+
+				return null;
+			}));
+
+		awaitStat("in_flight", 1);
+
+		Future<String> follower = executor.submit(
+			() -> singleFlight.execute("key", () -> "unexpected"));
+
+		awaitStat("coalesced", 1);
+
+		release.countDown();
+
+		assertNull(leader.get(5, TimeUnit.SECONDS));
+		assertNull(follower.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void keepsKeysApart() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+
+		Future<String> leader = executor.submit(
+			() -> singleFlight.execute("a", () -> {
+				release.await();
+
+				return "a";
+			}));
+
+		awaitStat("in_flight", 1);
+
+		assertEquals("b", singleFlight.execute("b", () -> "b"));
+
+		release.countDown();
+
+		assertEquals("a", leader.get(5, TimeUnit.SECONDS));
+		assertEquals(2L, singleFlight.getStats().get("executions"));
+	}
+
+	@Test
+	void followerStopsWaitingAfterMaxWait() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		IOException timeout = new IOException("timeout");
+
+		Future<String> leader = executor.submit(
+			() -> singleFlight.execute("key", () -> {
+				release.await();
+
+				return "result";
+			}));
+
+		awaitStat("in_flight", 1);
+
+		assertSame(timeout, assertThrows(
+			IOException.class,
+			() -> singleFlight.execute(
+				"key", () -> "unexpected", 20, () -> timeout)));
+
+		assertEquals(1L, singleFlight.getStats().get("timeouts"));
+
+		// the leader is not affected
+
+		release.countDown();
+
+		assertEquals("result", leader.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void followerStopsWaitingWhenInterrupted() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+
+		Future<String> leader = executor.submit(
+			() -> singleFlight.execute("key", () -> {
+				release.await();
+
+				return "result";
+			}));
+
+		awaitStat("in_flight", 1);
+
+		CompletableFuture<Boolean> stopped = new CompletableFuture<>();
+
+		Future<?> follower = executor.submit(() -> {
+			try {
+				singleFlight.execute(
+					"key", () -> "unexpected", 0, () -> new IOException("interrupted"));
+
+				stopped.complete(false);
+			}
+			catch (IOException e) {
+				stopped.complete(Thread.currentThread().isInterrupted());
+			}
+		});
+
+		awaitStat("coalesced", 1);
+
+		follower.cancel(true);
+
+		// it stops waiting while the leader is still running, with the flag restored
+
+		assertTrue(stopped.get(5, TimeUnit.SECONDS));
+
+		release.countDown();
+
+		assertEquals("result", leader.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void boundedFollowerSharesResult() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+
+		Future<String> leader = executor.submit(
+			() -> singleFlight.execute("key", () -> {
+				release.await();
+
+				return "result";
+			}));
+
+		awaitStat("in_flight", 1);
+
+		Future<String> follower = executor.submit(
+			() -> singleFlight.execute(
+				"key", () -> "unexpected", 5000, () -> new IOException("timeout")));
+
+		awaitStat("coalesced", 1);
+
+		release.countDown();
+
+		assertEquals("result", leader.get(5, TimeUnit.SECONDS));
+		assertEquals("result", follower.get(5, TimeUnit.SECONDS));
+		assertEquals(0L, singleFlight.getStats().get("timeouts"));
+	}
+
+	@Test
+	void submittedComputationOutlivesCaller() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger interrupted = new AtomicInteger();
+
+		SingleFlight.Computation<String, Exception> computation = () -> {
+			try {
+				release.await();
+			}
+			catch (InterruptedException e) {
+				interrupted.incrementAndGet();
+
+				throw e;
+			}
+
+			return "result";
+		};
+
+		CompletableFuture<String> first = singleFlight.submit(
+			"key", computation, executor);
+		CompletableFuture<String> second = singleFlight.submit(
+			"key", computation, executor);
+
+		assertNotSame(first, second);
+		assertEquals(1L, singleFlight.getStats().get("coalesced"));
+
+		// the first caller gives up
+
+		assertThrows(TimeoutException.class, () -> first.get(20, TimeUnit.MILLISECONDS));
+		first.cancel(true);
+
+		release.countDown();
+
+		assertEquals("result", second.get(5, TimeUnit.SECONDS));
+		assertEquals(0, interrupted.get());
+		assertEquals(1L, singleFlight.getStats().get("executions"));
+
+		awaitStat("in_flight", 0);
+	}
+
+	@Test
+	void submittedComputationSharesException() {
+		IOException failure = new IOException("unreachable");
+
+		CompletableFuture<String> future = singleFlight.submit(
+			"key", () -> {
+				throw failure;
+			}, executor);
+
+		assertSame(failure, assertThrows(
+			ExecutionException.class,
+			() -> future.get(5, TimeUnit.SECONDS)).getCause());
+		assertEquals(1L, singleFlight.getStats().get("failures"));
+	}
+
+	private void awaitStat(String name, long expected) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+
+		while (((Number)singleFlight.getStats().get(name)).longValue() != expected) {
+			assertTrue(
+				System.currentTimeMillis() < deadline,
+				name + " did not reach " + expected);
+
+			Thread.sleep(5);
+		}
+	}
+
+}